@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a batch of predictions into chunks of consecutive positions, and predicts the chunks
+ * on an executor service. Used by classifiers to implement
+ * {@link Classifier#predictBatch(ClassificationModel, ClassificationProblem, int[], double[], double[][])}.
+ *
+ * @author Fabien Campagne
+ */
+public final class BatchPrediction {
+    private static final Log LOG = LogFactory.getLog(BatchPrediction.class);
+
+    /**
+     * Batches smaller than this are predicted on the calling thread.
+     */
+    private static final int MIN_PARALLEL_BATCH_SIZE = 64;
+
+    /**
+     * Predicts the positions [start, end[ of a batch.
+     */
+    public interface Chunk {
+        void predict(int start, int end);
+    }
+
+    /**
+     * Private constructor for utility class.
+     */
+    private BatchPrediction() {
+        super();
+    }
+
+    /**
+     * Predict the positions of a batch in chunks.
+     *
+     * @param executorService Executor to predict chunks in parallel, or null to predict the whole
+     *                        batch on the calling thread.
+     * @param size            Number of positions in the batch.
+     * @param numChunks       Number of chunks to split the batch into when predicting in parallel.
+     * @param chunk           Predicts a chunk. Chunks are disjoint, so implementations may write
+     *                        results for their positions without synchronization.
+     */
+    public static void predict(final ExecutorService executorService, final int size,
+                               final int numChunks, final Chunk chunk) {
+        if (executorService == null || numChunks <= 1 || size < MIN_PARALLEL_BATCH_SIZE) {
+            chunk.predict(0, size);
+            return;
+        }
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numChunks);
+        for (int c = 0; c < numChunks; c++) {
+            final int start = (int) ((long) size * c / numChunks);
+            final int end = (int) ((long) size * (c + 1) / numChunks);
+            if (start < end) {
+                tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        chunk.predict(start, end);
+                        return null;
+                    }
+                });
+            }
+        }
+        try {
+            for (final Future<Void> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while predicting a batch.", e);
+        } catch (ExecutionException e) {
+            LOG.error("Unable to predict a batch", e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -42,7 +42,9 @@ public interface ClassificationProblem {
     int getSize();
 
     /**
-     * Returns a subproblem with only instances in the keepInstanceSet.
+     * Returns a subproblem with only instances in the keepInstanceSet. Instances keep their
+     * relative order. Implementations visit the instances of an {@link InstanceSet} directly;
+     * other sets are first converted to an InstanceSet.
      *
      * @param keepInstanceSet Index of the records to include in the reduced problem.
      * @return Reduced problem.
@@ -118,10 +120,40 @@ public interface ClassificationProblem {
     /**
      * Returns the values of the feature for a subset of instances of this problem.
      * @param featureIndex   Index of the feature to collect values for.
-     * @param keepInstanceSet Set of instances to collect over.
+     * @param keepInstanceSet Set of instances to collect over, preferably an {@link InstanceSet}.
      * @return
      */
     double[] featureValues(int featureIndex,final IntSet keepInstanceSet);
 
+    /**
+     * Let a scaler observe all the instances of this problem, so that it can then create scalers
+     * for this problem without any one of its instances (see
+     * {@link FeatureScaler#observeForLeaveOneOut(int, FeatureColumns, int[])}).
+     *
+     * @param scaler The feature scaler engine.
+     * @return True if the scaler can leave instances out, false if it must be trained again on
+     *         each training set.
+     */
+    boolean observeForLeaveOneOut(FeatureScaler scaler);
+
+    /**
+     * Summarize the features of a subset of instances of this problem, so that scalers can be
+     * trained from merged summaries of disjoint subsets (see
+     * {@link FeatureScaler#summarize(int, FeatureColumns, int[])}).
+     *
+     * @param scaler    The feature scaler engine.
+     * @param instances Instances to summarize, preferably an {@link InstanceSet}.
+     * @return the summary, or null if the scaler cannot be trained from summaries of this problem.
+     */
+    FeatureSummary summarizeFeatures(FeatureScaler scaler, IntSet instances);
+
+    /**
+     * Returns a problem with the instances of testSetIndices, where features have been scaled.
+     *
+     * @param scaler         The feature scaler engine.
+     * @param testSetIndices Instances to scale, preferably an {@link InstanceSet}.
+     * @param trainingMode   If true, the scaler observes the instances before scaling them.
+     * @return A copy of the instances with scaled features.
+     */
     ClassificationProblem scaleFeatures(FeatureScaler scaler, IntSet testSetIndices, boolean trainingMode);
 }
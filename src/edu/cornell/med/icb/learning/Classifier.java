@@ -80,6 +80,23 @@ public interface Classifier {
     double predict(final ClassificationModel trainingModel, final ClassificationProblem problem,
                    final int instanceIndex, double[] probabilities);
 
+    /**
+     * Predict several instances of a problem in one call, for instance the test set of a
+     * cross-validation fold. Results are written to arrays provided by the caller, so that the
+     * same buffers can be reused across folds. Instances are predicted in parallel when an
+     * executor service was set on the classifier.
+     *
+     * @param trainingModel Model used for prediction.
+     * @param problem Definition of the problem, containing the instances for which to predict
+     * @param instanceIndices Indices of the instances to predict in the problem.
+     * @param decisions Predicted label of instance instanceIndices[i] is written to decisions[i].
+     * @param probabilities When not null, the probabilities of instance instanceIndices[i] are
+     * written to probabilities[i], as with {@link #predict(ClassificationModel, ClassificationProblem, int, double[])}.
+     * When null, only labels are predicted.
+     */
+    void predictBatch(final ClassificationModel trainingModel, final ClassificationProblem problem,
+                      final int[] instanceIndices, double[] decisions, double[][] probabilities);
+
     /**
      * Get parameters of the classification problem.
      *
@@ -87,5 +104,13 @@ public interface Classifier {
      */
     ClassificationParameters getParameters();
 
+    /**
+     * Create a new classifier of the same type, configured with the parameters of this classifier.
+     * The copy can be trained independently of this classifier, for instance in another thread.
+     *
+     * @return An untrained copy of this classifier.
+     */
+    Classifier copy();
+
     String getShortName();
 }
@@ -30,14 +30,9 @@ import edu.cornell.med.icb.stat.SensitivityCalculator;
 import edu.cornell.med.icb.stat.SpecificityCalculator;
 import edu.cornell.med.icb.util.RandomAdapter;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
-import it.unimi.dsi.fastutil.doubles.DoubleArraySet;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
-import it.unimi.dsi.fastutil.doubles.DoubleSet;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntArraySet;
 import it.unimi.dsi.fastutil.ints.IntList;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
-import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.ObjectArraySet;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import it.unimi.dsi.fastutil.objects.ObjectList;
@@ -50,7 +45,13 @@ import org.rosuda.REngine.REXP;
 import org.rosuda.REngine.Rserve.RConnection;
 
 import java.io.File;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Performs cross-validation for a configurable classifier.
@@ -60,6 +61,16 @@ import java.util.Collections;
 public class CrossValidation {
     private static final Log LOG = LogFactory.getLog(CrossValidation.class);
 
+    /**
+     * One AUC calculator per thread, so that its index buffer is reused across evaluations.
+     */
+    private static final ThreadLocal<RocAucCalculator> AUC_CALCULATOR = new ThreadLocal<RocAucCalculator>() {
+        @Override
+        protected RocAucCalculator initialValue() {
+            return new RocAucCalculator();
+        }
+    };
+
     private ClassificationModel model;
     private final Classifier classifier;
     private final ClassificationProblem problem;
@@ -70,6 +81,7 @@ public class CrossValidation {
     private boolean useRServer;
 
     private Class<? extends FeatureScaler> featureScalerClass;
+    private ExecutorService executorService;
 
     /**
      * Request evaluation of the given performance measure.
@@ -96,6 +108,18 @@ public class CrossValidation {
         this.repeatNumber = repeatNumber;
     }
 
+    /**
+     * Evaluate cross-validation folds (and left-out instances in leave-one-out evaluation) in
+     * parallel. Each fold trains its own copy of the classifier (see {@link Classifier#copy()})
+     * and its own feature scaler. The executor service is not shut down by this class.
+     *
+     * @param executorService Executor service that will run the folds, or null to evaluate folds
+     *                        one after the other in the calling thread.
+     */
+    public void setExecutorService(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
     public CrossValidation(final Classifier classifier, final ClassificationProblem problem,
                            final RandomEngine randomEngine) {
         super();
@@ -250,7 +274,10 @@ public class CrossValidation {
 
 
     /**
-     * Report leave-one out evaluation measures for training set.
+     * Report leave-one out evaluation measures for training set. Left-out instances are evaluated
+     * on the executor service when one was provided with {@link #setExecutorService}, each with
+     * its own copy of the classifier and its own feature scaler. Scalers which can leave
+     * instances out observe the problem once, rather than each training set.
      *
      * @return
      */
@@ -259,20 +286,41 @@ public class CrossValidation {
         final double[] decisionValues = new double[problem.getSize()];
         final double[] labels = new double[problem.getSize()];
 
-        final FeatureScaler scaler = resetScaler();
-        final double[] probs = {0.0d, 0.0d};
-
-        for (int testInstanceIndex = 0; testInstanceIndex < problem.getSize(); testInstanceIndex++) {   // for each training example, leave it out:
-
-            final ClassificationProblem currentTrainingSet = problem.exclude(testInstanceIndex);
-
-            final ClassificationProblem scaledTrainingSet = currentTrainingSet.scaleTraining(scaler);
-            final ClassificationModel looModel = classifier.train(scaledTrainingSet);
-            final ClassificationProblem oneScaledTestInstanceProblem = problem.scaleTestSet(scaler, testInstanceIndex);
-
-            final double decision = classifier.predict(looModel, oneScaledTestInstanceProblem, 0, probs);
+        // scalers which can remove an observation from their statistics observe the problem once:
+        final FeatureScaler observedScaler = resetScaler();
+        final boolean leaveOut = problem.observeForLeaveOneOut(observedScaler);
+        if (executorService == null) {
+            final FeatureScaler scaler = resetScaler();
+            final double[] probs = {0.0d, 0.0d};
+
+            for (int testInstanceIndex = 0; testInstanceIndex < problem.getSize(); testInstanceIndex++) {   // for each training example, leave it out:
+                decisionValues[testInstanceIndex] = leaveOut
+                        ? leaveOneOutDecision(classifier, observedScaler.leaveOut(testInstanceIndex), true, testInstanceIndex, probs)
+                        : leaveOneOutDecision(classifier, scaler, false, testInstanceIndex, probs);
+            }
+        } else {
+            // the native problem is shared by all the tasks and must be prepared before they run concurrently:
+            problem.prepareNative();
+            final List<Future<Double>> futures = new ArrayList<Future<Double>>(problem.getSize());
+            for (int testInstanceIndex = 0; testInstanceIndex < problem.getSize(); testInstanceIndex++) {
+                final int leftOutIndex = testInstanceIndex;
+                final Classifier looClassifier = classifier.copy();
+                futures.add(executorService.submit(new Callable<Double>() {
+                    public Double call() {
+                        final double[] probs = {0.0d, 0.0d};
+                        return leaveOut
+                                ? leaveOneOutDecision(looClassifier, observedScaler.leaveOut(leftOutIndex), true, leftOutIndex, probs)
+                                : leaveOneOutDecision(looClassifier, resetScaler(), false, leftOutIndex, probs);
+                    }
+                }));
+            }
+            for (int testInstanceIndex = 0; testInstanceIndex < problem.getSize(); testInstanceIndex++) {
+                decisionValues[testInstanceIndex] = getResult(futures.get(testInstanceIndex));
+            }
+        }
+        for (int testInstanceIndex = 0; testInstanceIndex < problem.getSize(); testInstanceIndex++) {
+            final double decision = decisionValues[testInstanceIndex];
             final double trueLabel = problem.getLabel(testInstanceIndex);
-            decisionValues[testInstanceIndex] = decision;
             labels[testInstanceIndex] = trueLabel;
             final int binaryDecision = decision < 0 ? -1 : 1;
             ctable.observeDecision(trueLabel, binaryDecision);
@@ -284,18 +332,41 @@ public class CrossValidation {
         return measure;
     }
 
+    /**
+     * Train on all the instances of the problem but one, and predict the instance left out.
+     *
+     * @param looClassifier     Classifier to train.
+     * @param scaler            Feature scaler.
+     * @param scalerTrained     True when the scaler was already trained on the remaining
+     *                          instances, false to train it on them in this method.
+     * @param testInstanceIndex Index of the instance to leave out.
+     * @param probs             Buffer for the probabilities estimated for the left-out instance.
+     * @return The decision value predicted for the left-out instance.
+     */
+    private double leaveOneOutDecision(final Classifier looClassifier, final FeatureScaler scaler,
+                                       final boolean scalerTrained, final int testInstanceIndex,
+                                       final double[] probs) {
+        final ClassificationProblem currentTrainingSet = problem.exclude(testInstanceIndex);
+
+        final ClassificationProblem scaledTrainingSet = scalerTrained
+                ? currentTrainingSet.scaleFeatures(scaler, InstanceSet.range(0, currentTrainingSet.getSize()), false)
+                : currentTrainingSet.scaleTraining(scaler);
+        final ClassificationModel looModel = looClassifier.train(scaledTrainingSet);
+        final ClassificationProblem oneScaledTestInstanceProblem = problem.scaleTestSet(scaler, testInstanceIndex);
+
+        return looClassifier.predict(looModel, oneScaledTestInstanceProblem, 0, probs);
+    }
+
     /**
      * Indicate whether or not the RServe process should be used.  Setting this flag to false
      * removes the dependency on the R server.
      *
-     * @param useRServer If True, use an RServer to evaluate area under the roc curve.
-     *                   If False, skip the calculation.
+     * @param useRServer If True, use an RServer to evaluate the measures which cannot be
+     *                   calculated in Java. If False, skip these measures. The area under the
+     *                   roc curve is calculated in Java in either case.
      */
     public void useRServer(final boolean useRServer) {
         this.useRServer = useRServer;
-        if (!this.useRServer) {
-            evaluationMeasureNames.remove("auc");
-        }
     }
 
     /**
@@ -334,6 +405,25 @@ public class CrossValidation {
         if (shortCircuitValue != null) {
             return shortCircuitValue;
         }
+        return AUC_CALCULATOR.get().areaUnderRocCurve(decisionValues, labels);
+    }
+
+    /**
+     * Report the area under the Receiver Operating Characteristic (ROC) curve, as calculated
+     * by ROCR on the R server. {@link #areaUnderRocCurveLOO(double[], double[])} calculates the
+     * same value in Java; this method is kept to cross-check the Java implementation.
+     *
+     * @param decisionValues Larger values indicate better confidence that the instance belongs to class 1.
+     * @param labels         Values of -1 or 0 indicate that the instance belongs to class 0, values of 1 indicate that the
+     *                       instance belongs to class 1.
+     * @return ROC AUC, or NaN if R could not calculate it.
+     */
+    public static double areaUnderRocCurveWithROCR(final double[] decisionValues, final double[] labels) {
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] < 0) {
+                labels[i] = 0;
+            }
+        }
 
         final RConnectionPool connectionPool = RConnectionPool.getInstance();
         RConnection connection = null;
@@ -378,7 +468,9 @@ public class CrossValidation {
     }
 
     /**
-     * Evaluate a variety of performance measures with <a href="http://rocr.bioinf.mpi-sb.mpg.de/ROCR.pdf">ROCR</a>.
+     * Evaluate a variety of performance measures. Measures implemented by {@link PerformanceCurve}
+     * are evaluated in Java, others with <a href="http://rocr.bioinf.mpi-sb.mpg.de/ROCR.pdf">ROCR</a>
+     * when useRServer is true.
      *
      * @param decisionValues Larger values indicate better confidence that the instance belongs to class 1.
      * @param labels         Values of -1 or 0 indicate that the instance belongs to class 0, values of 1 indicate that the
@@ -397,6 +489,8 @@ public class CrossValidation {
         measureNames = evaluatePerformanceMeasure(decisionValues, labels, measureNames, measure, measureNameSuffix, new AccuracyCalculator());
         measureNames = evaluatePerformanceMeasure(decisionValues, labels, measureNames, measure, measureNameSuffix, new SensitivityCalculator());
         measureNames = evaluatePerformanceMeasure(decisionValues, labels, measureNames, measure, measureNameSuffix, new SpecificityCalculator());
+        measureNames = evaluateAreaUnderRocCurve(decisionValues, labels, measureNames, measure, measureNameSuffix);
+        measureNames = evaluateWithPerformanceCurve(decisionValues, labels, measureNames, measure, measureNameSuffix);
         if (measureNames.size() > 0) { // more measures to evaluate, send to ROCR
             if (useRServer) {
                 evaluateWithROCR(decisionValues, labels, measureNames, measure, measureNameSuffix);
@@ -414,7 +508,17 @@ public class CrossValidation {
         evaluationMeasureNames = evaluatePerformanceMeasure(decisionList, trueLabelList, evaluationMeasureNames, measure, new SpecificityCalculator());
 
         if (evaluationMeasureNames.size() > 0) { // more measures to evaluate, send to ROCR
-            if (useRServer) {
+            ObjectSet<CharSequence> remainingMeasureNames = evaluationMeasureNames;
+            for (int i = 0; i < decisionList.size(); i++) {
+                evaluationMeasureNames = evaluateAreaUnderRocCurve(decisionList.get(i), trueLabelList.get(i),
+                        remainingMeasureNames, measure, measureNamePrefix);
+            }
+            remainingMeasureNames = evaluationMeasureNames;
+            for (int i = 0; i < decisionList.size(); i++) {
+                evaluationMeasureNames = evaluateWithPerformanceCurve(decisionList.get(i), trueLabelList.get(i),
+                        remainingMeasureNames, measure, measureNamePrefix);
+            }
+            if (useRServer && evaluationMeasureNames.size() > 0) {
                 for (int i = 0; i < decisionList.size(); i++) {
                     evaluateWithROCR(decisionList.get(i), trueLabelList.get(i), evaluationMeasureNames, measure, measureNamePrefix);
                 }
@@ -494,6 +598,85 @@ public class CrossValidation {
         }
     }
 
+    /**
+     * Evaluate the area under the ROC curve in Java, with the same conventions as ROCR: the
+     * value is stored as measureNamePrefix + "auc", and is not stored when only one class is
+     * represented in the labels or when a decision value is NaN.
+     */
+    private static ObjectSet<CharSequence> evaluateAreaUnderRocCurve(final double[] decisionValues,
+                                                                     final double[] labels,
+                                                                     final ObjectSet<CharSequence> evaluationMeasureNames,
+                                                                     final EvaluationMeasure measure,
+                                                                     final CharSequence measureNamePrefix) {
+        if (evaluationMeasureNames.contains("auc")) {
+            assert decisionValues.length == labels.length
+                    : "number of predictions must match number of labels.";
+            if (hasBothClasses(labels)) {
+                // labels of -1 and 0 are both negative for the calculator, no need to convert them:
+                final double auc = AUC_CALCULATOR.get().areaUnderRocCurve(decisionValues, labels);
+                if (auc == auc) {
+                    measure.addValue(measureNamePrefix.toString() + "auc", auc);
+                }
+            }
+
+            final ObjectSet<CharSequence> measureNamesFiltered = new ObjectArraySet<CharSequence>();
+            measureNamesFiltered.addAll(evaluationMeasureNames);
+            measureNamesFiltered.remove("auc");
+            return measureNamesFiltered;
+        } else {
+            return evaluationMeasureNames;
+        }
+    }
+
+    /**
+     * Returns true when the labels contain both positive instances (label larger than zero) and
+     * negative instances.
+     */
+    private static boolean hasBothClasses(final double[] labels) {
+        boolean positive = false;
+        boolean negative = false;
+        for (final double label : labels) {
+            if (label > 0) {
+                positive = true;
+            } else {
+                negative = true;
+            }
+            if (positive && negative) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluate in Java the ROCR performance measures supported by {@link PerformanceCurve}.
+     * Values are stored as measureNamePrefix + measure name, as evaluateWithROCR does, and are
+     * not stored when the curve is not defined (one class only, or NaN decision values).
+     *
+     * @return names of the measures which remain to be evaluated.
+     */
+    private static ObjectSet<CharSequence> evaluateWithPerformanceCurve(final double[] decisionValues,
+                                                                        final double[] labels,
+                                                                        final ObjectSet<CharSequence> evaluationMeasureNames,
+                                                                        final EvaluationMeasure measure,
+                                                                        final CharSequence measureNamePrefix) {
+        final ObjectSet<CharSequence> measureNamesFiltered = new ObjectArraySet<CharSequence>();
+        PerformanceCurve curve = null;
+        for (final CharSequence measureName : evaluationMeasureNames) {
+            if (PerformanceCurve.isSupported(measureName)) {
+                if (curve == null) {
+                    // labels of -1 and 0 are both negative for the curve, no need to convert them:
+                    curve = new PerformanceCurve(decisionValues, labels);
+                }
+                if (curve.isDefined()) {
+                    measure.addValue(measureNamePrefix.toString() + measureName, curve.getValue(measureName));
+                }
+            } else {
+                measureNamesFiltered.add(measureName);
+            }
+        }
+        return curve == null ? evaluationMeasureNames : measureNamesFiltered;
+    }
 
     /**
      * Evaluate a variety of performance measures with <a href="http://rocr.bioinf.mpi-sb.mpg.de/ROCR.pdf">ROCR</a>.
@@ -752,79 +935,64 @@ public class CrossValidation {
     }
 
     /**
-     * Run cross-validation with k folds.
+     * Run cross-validation with k folds. Folds are evaluated on the executor service when one
+     * was provided with {@link #setExecutorService}, one after the other otherwise. Results do
+     * not depend on the execution mode: fold assignments are drawn before any fold is evaluated
+     * and fold results are combined in fold order. Repeats are evaluated one after the other, so
+     * that only the fold summaries of the current repeat are kept.
      *
      * @param k Number of folds for cross validation. Typical values are 5 or 10.
      * @return Evaluation measures.
      */
     public EvaluationMeasure crossValidation(final int k) {
-        final ContingencyTable ctable = new ContingencyTable();
-        final DoubleList aucValues = new DoubleArrayList();
-        final DoubleList f1Values = new DoubleArrayList();
-        final EvaluationMeasure measure = new EvaluationMeasure();
+        assert k <= problem.getSize() : "Number of folds must be less or equal to number of training examples.";
+        // the native problem is shared by all the folds and must be prepared before folds run concurrently:
+        problem.prepareNative();
+        // draw the folds of every repeat first, so that the random engine is used in the same order
+        // whether folds are evaluated sequentially or in parallel:
+        final int[][] foldIndicesPerRepeat = assignFolds(k);
+
+        final FoldResult[] foldResults = new FoldResult[repeatNumber * k];
         for (int r = 0; r < repeatNumber; r++) {
-            assert k <= problem.getSize() : "Number of folds must be less or equal to number of training examples.";
-            final int[] foldIndices = assignFolds(k);
-
-
-            for (int f = 0; f < k; ++f) { // use each fold as test set while the others are the training set:
-                final IntSet trainingSet = new IntArraySet();
-                final IntSet testSet = new IntArraySet();
-                for (int i = 0; i < problem.getSize(); i++) {   // assign each training example to a fold:
-                    if (f == foldIndices[i]) {
-                        testSet.add(i);
-                    } else {
-                        trainingSet.add(i);
-                    }
+            final int[] foldIndices = foldIndicesPerRepeat[r];
+            // the summaries of the folds of a repeat are released once its folds are evaluated:
+            final FeatureSummary[] foldSummaries = summarizeFolds(foldIndices, k);
+            if (executorService == null) {
+                for (int f = 0; f < k; ++f) { // use each fold as test set while the others are the training set:
+                    foldResults[r * k + f] = evaluateFold(classifier, foldIndices, foldSummaries, f);
                 }
-                assert testSet.size() + trainingSet.size() == problem.getSize() : "test set and training set size must add to whole problem size.";
-                final IntSet intersection = new IntOpenHashSet();
-                intersection.addAll(trainingSet);
-                intersection.retainAll(testSet);
-                assert intersection.size() == 0 : "test set and training set must never overlap";
-
-                final ClassificationProblem currentTrainingSet = problem.filter(trainingSet);
-                assert currentTrainingSet.getSize() == trainingSet.size() : "Problem size must match size of training set";
-
-                final FeatureScaler scaler = resetScaler();      // reset the scaler for each test set..
-
-                final ClassificationProblem scaledTrainingSet = currentTrainingSet.scaleTraining(scaler);
-
-                final ClassificationModel looModel = classifier.train(scaledTrainingSet);
-                final ContingencyTable ctableMicro = new ContingencyTable();
-
-                final double[] decisionValues = new double[testSet.size()];
-                final double[] labels = new double[testSet.size()];
-                int index = 0;
-                final double[] probs = {0.0d, 0.0d};
-                for (final int testInstanceIndex : testSet) {  // for each test example:
-
-                    //  ClassificationProblem oneScaledTestInstanceProblem = problem.filter(testInstanceIndex);
-                    final ClassificationProblem oneScaledTestInstanceProblem = problem.scaleTestSet(scaler, testInstanceIndex);
-                    assert oneScaledTestInstanceProblem.getSize() == 1 : "filtered test problem must have one instance left (size was " + oneScaledTestInstanceProblem.getSize() + ").";
-                    final double decision = classifier.predict(looModel, oneScaledTestInstanceProblem, 0, probs);
-                    final double trueLabel = problem.getLabel(testInstanceIndex);
-                    final double maxProb;
-
-                    maxProb = Math.max(probs[0], probs[1]);
-
-                    decisionValues[index] = decision * maxProb;
-                    labels[index] = trueLabel;
-                    index++;
-                    final int binaryDecision = decision < 0 ? -1 : 1;
-                    ctable.observeDecision(trueLabel, binaryDecision);
-                    ctableMicro.observeDecision(trueLabel, binaryDecision);
+            } else {
+                final List<Future<FoldResult>> futures = new ArrayList<Future<FoldResult>>(k);
+                for (int f = 0; f < k; ++f) {
+                    final int testFold = f;
+                    // each fold trains its own copy of the classifier:
+                    final Classifier foldClassifier = classifier.copy();
+                    futures.add(executorService.submit(new Callable<FoldResult>() {
+                        public FoldResult call() {
+                            return evaluateFold(foldClassifier, foldIndices, foldSummaries, testFold);
+                        }
+                    }));
                 }
+                for (int f = 0; f < k; ++f) {
+                    foldResults[r * k + f] = getResult(futures.get(f));
+                }
+            }
+        }
 
-                ctableMicro.average();
-                f1Values.add(ctableMicro.getF1Measure());
-                final double aucForOneFold = Double.NaN;
-
-                evaluate(decisionValues, labels, evaluationMeasureNames, measure, "", useRServer);
+        final ContingencyTable ctable = new ContingencyTable();
+        final DoubleList aucValues = new DoubleArrayList();
+        final DoubleList f1Values = new DoubleArrayList();
+        final EvaluationMeasure measure = new EvaluationMeasure();
+        for (final FoldResult foldResult : foldResults) {
+            for (int index = 0; index < foldResult.labels.length; index++) {
+                ctable.observeDecision(foldResult.labels[index], foldResult.binaryDecisions[index]);
+            }
+            f1Values.add(foldResult.f1Measure);
+            final double aucForOneFold = Double.NaN;
 
+            evaluate(foldResult.decisionValues, foldResult.labels, evaluationMeasureNames, measure, "", useRServer);
 
-                aucValues.add(aucForOneFold);
-            }
+            aucValues.add(aucForOneFold);
         }
         ctable.average();
 
@@ -837,6 +1005,147 @@ public class CrossValidation {
         return measure;
     }
 
+    /**
+     * Train on all the folds but one and predict the instances of the remaining fold. This method
+     * only reads shared state and can be called concurrently for different folds, provided each
+     * call is given its own classifier.
+     *
+     * @param foldClassifier Classifier to train on the training folds.
+     * @param foldIndices    Fold assignment of each instance of the problem.
+     * @param foldSummaries  Feature summary of each fold, or null to train the scaler on the
+     *                       training set.
+     * @param testFold       Index of the fold to use as test set.
+     * @return Predictions for the instances of the test fold.
+     */
+    private FoldResult evaluateFold(final Classifier foldClassifier, final int[] foldIndices,
+                                    final FeatureSummary[] foldSummaries, final int testFold) {
+        final BitSet testMembers = new BitSet(problem.getSize());
+        for (int i = 0; i < problem.getSize(); i++) {   // assign each training example to a fold:
+            if (testFold == foldIndices[i]) {
+                testMembers.set(i);
+            }
+        }
+        final InstanceSet testSet = new InstanceSet(testMembers);
+        testMembers.flip(0, problem.getSize());
+        final InstanceSet trainingSet = new InstanceSet(testMembers);
+        assert testSet.size() + trainingSet.size() == problem.getSize() : "test set and training set size must add to whole problem size.";
+
+        final ClassificationProblem currentTrainingSet = problem.filter(trainingSet);
+        assert currentTrainingSet.getSize() == trainingSet.size() : "Problem size must match size of training set";
+
+        final FeatureScaler scaler = resetScaler();      // reset the scaler for each test set..
+
+        final ClassificationProblem scaledTrainingSet;
+        if (foldSummaries == null) {
+            scaledTrainingSet = currentTrainingSet.scaleTraining(scaler);
+        } else {
+            // train the scaler from the summaries of the training folds, the shared summaries are not changed:
+            final FeatureSummary trainingSummary = new FeatureSummary(foldSummaries[testFold].getNumFeatures(),
+                    foldSummaries[testFold].getSketchSize());
+            for (int f = 0; f < foldSummaries.length; f++) {
+                if (f != testFold) {
+                    trainingSummary.merge(foldSummaries[f]);
+                }
+            }
+            scaler.observeSummary(trainingSummary);
+            scaledTrainingSet = currentTrainingSet.scaleFeatures(scaler,
+                    InstanceSet.range(0, currentTrainingSet.getSize()), false);
+        }
+
+        final ClassificationModel looModel = foldClassifier.train(scaledTrainingSet);
+        final ContingencyTable ctableMicro = new ContingencyTable();
+
+        // scale the whole test fold at once, and predict its instances by position:
+        final ClassificationProblem scaledTestSet = problem.scaleFeatures(scaler, testSet, false);
+        assert scaledTestSet.getSize() == testSet.size() : "scaled test problem must have one instance per test instance.";
+        final int[] testPositions = new int[testSet.size()];
+        for (int index = 0; index < testPositions.length; index++) {
+            testPositions[index] = index;
+        }
+        final FoldResult result = new FoldResult(testSet.size());
+        final double[][] probs = new double[testSet.size()][2];
+        foldClassifier.predictBatch(looModel, scaledTestSet, testPositions, result.decisionValues, probs);
+        for (int index = 0; index < testPositions.length; index++) {  // for each test example:
+            final double decision = result.decisionValues[index];
+            final double trueLabel = scaledTestSet.getLabel(index);
+            final double maxProb = Math.max(probs[index][0], probs[index][1]);
+
+            final int binaryDecision = decision < 0 ? -1 : 1;
+            result.decisionValues[index] = decision * maxProb;
+            result.labels[index] = trueLabel;
+            result.binaryDecisions[index] = binaryDecision;
+            ctableMicro.observeDecision(trueLabel, binaryDecision);
+        }
+
+        ctableMicro.average();
+        result.f1Measure = ctableMicro.getF1Measure();
+        return result;
+    }
+
+    /**
+     * Wait for a task submitted to the executor service and return its result.
+     */
+    private static <T> T getResult(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for cross-validation results.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Cross-validation task failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Predictions made on the test set of one cross-validation fold.
+     */
+    private static final class FoldResult {
+        final double[] decisionValues;
+        final double[] labels;
+        final int[] binaryDecisions;
+        double f1Measure;
+
+        FoldResult(final int testSetSize) {
+            super();
+            decisionValues = new double[testSetSize];
+            labels = new double[testSetSize];
+            binaryDecisions = new int[testSetSize];
+        }
+    }
+
+    /**
+     * Summarize the features of each fold of a repeat once, so that the scaler of each
+     * training set of the repeat can be trained by merging the summaries of its folds rather
+     * than by observing the training set. Summaries are created before the folds of the repeat
+     * are evaluated and are only read afterwards.
+     *
+     * @param foldIndices Fold assignment of each instance of the problem.
+     * @param k           Number of folds.
+     * @return the summary of each fold, or null if the scaler cannot be trained from summaries.
+     */
+    private FeatureSummary[] summarizeFolds(final int[] foldIndices, final int k) {
+        final FeatureScaler scaler = resetScaler();
+        if (scaler == null || !scaler.supportsSummaries()) {
+            return null;
+        }
+        final BitSet[] foldMembers = new BitSet[k];
+        for (int f = 0; f < k; f++) {
+            foldMembers[f] = new BitSet(problem.getSize());
+        }
+        for (int i = 0; i < problem.getSize(); i++) {
+            foldMembers[foldIndices[i]].set(i);
+        }
+        final FeatureSummary[] foldSummaries = new FeatureSummary[k];
+        for (int f = 0; f < k; f++) {
+            final FeatureSummary summary = problem.summarizeFeatures(scaler, new InstanceSet(foldMembers[f]));
+            if (summary == null) {
+                return null;
+            }
+            foldSummaries[f] = summary;
+        }
+        return foldSummaries;
+    }
+
     private FeatureScaler resetScaler() {
         FeatureScaler scaler = null;
         try {
@@ -850,54 +1159,22 @@ public class CrossValidation {
     }
 
     /**
-     * Calculates semi-random fold assignments. Ideally fold assignments would be as random as
-     * possible. Because prediction results on test folds are evaluated with ROCR (to calculate
-     * ROC AUC), and because ROCR cannot handle situations where all the labels are only one
-     * category (i.e., all class 1 or all class 2), we force folds generated by this
-     * method to exclude this situation.
+     * Calculates stratified fold assignments for each repeat. Because the area under the ROC curve
+     * is not defined when the labels of a test fold are all of one category (i.e., all class 1 or
+     * all class 2), every fold generated by this method holds every label.
      *
      * @param k Number of folds
-     * @return An array where each element is the index of the fold to which the given instance
-     *         of the training set belongs.
-     */
-    private int[] assignFolds(final int k) {
-        final IntList indices = new IntArrayList();
-        do {
-            indices.clear();
-            for (int i = 0; i < problem.getSize(); ++i) {
-                indices.add(i % k);
-            }
-            Collections.shuffle(indices, randomAdapter);
-        } while (invalidFold(indices, k));
-        final int[] splitIndex = new int[problem.getSize()];
-        indices.toArray(splitIndex);
-        return splitIndex;
-    }
-
-    /**
-     * Determines if a fold split is valid. See ROCR comment above.
-     *
-     * @param indices Training instance fold assignments.
-     * @param k       Number of folds in the split
-     * @return True if the fold is invalid (does not have at least two labels represented)
-     * @see #assignFolds
+     * @return For each repeat, an array where each element is the index of the fold to which the
+     *         given instance of the training set belongs.
+     * @throws IllegalArgumentException if a label has fewer than k instances.
+     * @see StratifiedFoldAssigner
      */
-    private boolean invalidFold(final IntList indices, final int k) {
-        problem.prepareNative();
-        for (int currentFoldInspected = 0; currentFoldInspected < k; currentFoldInspected++) {
-            final DoubleSet labels = new DoubleArraySet();
-            int instanceIndex = 0;
-            for (final int foldAssigment : indices) {
-                if (foldAssigment == currentFoldInspected) {
-                    labels.add(problem.getLabel(instanceIndex));
-                }
-                instanceIndex++;
-            }
-            if (labels.size() < 2) {
-                return true;
-            }
+    private int[][] assignFolds(final int k) {
+        final double[] labels = new double[problem.getSize()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = problem.getLabel(i);
         }
-        return false;
+        return new StratifiedFoldAssigner(randomAdapter).assignFolds(labels, k, repeatNumber);
     }
 
     private static EvaluationMeasure convertToEvalMeasure(final ContingencyTable ctable) {
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Feature values of a problem stored by feature, for feature scalers which observe one
+ * feature at a time. The values of feature j and the instances they belong to are at
+ * positions getColumnStart(j) to getColumnStart(j+1)-1, by increasing instance index. Columns
+ * created by {@link Builder} only store non-zero values, and problems create them once and
+ * keep them, so that the training sets of all the folds of a cross-validation read the same
+ * columns instead of visiting every instance for each feature. The positions of the values of
+ * each instance are also kept, so that the row of an instance can be read without searching
+ * every column (see {@link #getRow(int, double[])}). Columns of dense rows are read from the
+ * rows instead of being copied (see {@link #fromRows(int, int, Values)}), and store every
+ * value, including zeros.
+ *
+ * @author Fabien Campagne
+ */
+public abstract class FeatureColumns {
+    /**
+     * Values of the features of dense instances, read by the columns returned by
+     * {@link FeatureColumns#fromRows(int, int, Values)}.
+     */
+    public interface Values {
+        /**
+         * Returns the value of a feature for an instance.
+         */
+        double getValue(int instanceIndex, int featureIndex);
+    }
+
+    /**
+     * Returns columns which read the values of dense instances when they are requested. The
+     * stored value at position k is the value of feature k / size for instance k % size.
+     *
+     * @param size        Number of instances.
+     * @param numFeatures Number of features of each instance.
+     * @param values      Values of the instances, not copied.
+     * @return columns over the values.
+     */
+    public static FeatureColumns fromRows(final int size, final int numFeatures, final Values values) {
+        return new RowColumns(size, numFeatures, values);
+    }
+
+    /**
+     * Returns the number of instances of the problem the columns were created from.
+     */
+    public abstract int getSize();
+
+    /**
+     * Returns one more than the largest feature index of the instances.
+     */
+    public abstract int getNumFeatures();
+
+    /**
+     * Returns where the stored values of a feature start. The values of feature j are stored
+     * at positions getColumnStart(j) to getColumnStart(j+1)-1, by increasing instance index.
+     *
+     * @param featureIndex Index of the feature, possibly getNumFeatures() or larger.
+     * @return position of the first stored value of the feature.
+     */
+    public abstract int getColumnStart(int featureIndex);
+
+    /**
+     * Returns the instance of the stored value at some position.
+     */
+    public abstract int getInstanceIndex(int position);
+
+    /**
+     * Returns the stored value at some position.
+     */
+    public abstract double getStoredValue(int position);
+
+    /**
+     * Returns the value of a feature for an instance.
+     *
+     * @param instanceIndex Index of the instance.
+     * @param featureIndex  Index of the feature.
+     * @return the value, zero when it is not stored.
+     */
+    public abstract double getValue(int instanceIndex, int featureIndex);
+
+    /**
+     * Copy the values of the features of an instance to row. Time is proportional to the
+     * length of the row plus the number of values stored for the instance.
+     *
+     * @param instanceIndex Index of the instance.
+     * @param row           Receives the value of feature j at row[j], zero when it is not
+     *                      stored. Features beyond the length of the row are ignored.
+     */
+    public abstract void getRow(int instanceIndex, double[] row);
+
+    /**
+     * Returns the positions of a subset of instances in the columns returned by
+     * {@link #getColumn(int, int[], double[])}.
+     *
+     * @param instanceIndices Instances of the subset, in the order of the column.
+     * @return an array where element i is the position of instance i in the subset, or -1.
+     */
+    public int[] getPositions(final int[] instanceIndices) {
+        final int[] positions = new int[getSize()];
+        Arrays.fill(positions, -1);
+        for (int position = 0; position < instanceIndices.length; position++) {
+            positions[instanceIndices[position]] = position;
+        }
+        return positions;
+    }
+
+    /**
+     * Copy the values of a feature over a subset of instances to column. Time is proportional
+     * to the length of the column plus the number of values stored for the feature.
+     *
+     * @param featureIndex Index of the feature.
+     * @param positions    Positions of the instances of the subset, see {@link #getPositions(int[])}.
+     * @param column       Receives the values of the feature, one per instance of the subset.
+     */
+    public abstract void getColumn(int featureIndex, int[] positions, double[] column);
+
+    /**
+     * Non-zero values copied by feature from the instances given to a {@link Builder}.
+     */
+    private static final class StoredColumns extends FeatureColumns {
+        private final int size;
+        private final int[] columnOffsets;
+        private final int[] instanceIndices;
+        private final double[] values;
+        /**
+         * The values of instance i are at positions rowPositions[rowOffsets[i]] to
+         * rowPositions[rowOffsets[i+1]-1] of the values array, and belong to the features
+         * rowFeatureIndices[rowOffsets[i]] to rowFeatureIndices[rowOffsets[i+1]-1].
+         */
+        private final int[] rowOffsets;
+        private final int[] rowFeatureIndices;
+        private final int[] rowPositions;
+
+        StoredColumns(final int size, final int[] columnOffsets,
+                      final int[] instanceIndices, final double[] values,
+                      final int[] rowOffsets, final int[] rowFeatureIndices,
+                      final int[] rowPositions) {
+            super();
+            this.size = size;
+            this.columnOffsets = columnOffsets;
+            this.instanceIndices = instanceIndices;
+            this.values = values;
+            this.rowOffsets = rowOffsets;
+            this.rowFeatureIndices = rowFeatureIndices;
+            this.rowPositions = rowPositions;
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public int getNumFeatures() {
+            return columnOffsets.length - 1;
+        }
+
+        @Override
+        public int getColumnStart(final int featureIndex) {
+            return featureIndex < columnOffsets.length ? columnOffsets[featureIndex] : values.length;
+        }
+
+        @Override
+        public int getInstanceIndex(final int position) {
+            return instanceIndices[position];
+        }
+
+        @Override
+        public double getStoredValue(final int position) {
+            return values[position];
+        }
+
+        /**
+         * Returns the value of a feature for an instance, by binary search among the stored
+         * values of the feature.
+         */
+        @Override
+        public double getValue(final int instanceIndex, final int featureIndex) {
+            int low = getColumnStart(featureIndex);
+            int high = getColumnStart(featureIndex + 1) - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int middleIndex = instanceIndices[middle];
+                if (middleIndex < instanceIndex) {
+                    low = middle + 1;
+                } else if (middleIndex > instanceIndex) {
+                    high = middle - 1;
+                } else {
+                    return values[middle];
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public void getRow(final int instanceIndex, final double[] row) {
+            Arrays.fill(row, 0);
+            final int end = rowOffsets[instanceIndex + 1];
+            for (int k = rowOffsets[instanceIndex]; k < end; k++) {
+                final int featureIndex = rowFeatureIndices[k];
+                if (featureIndex < row.length) {
+                    row[featureIndex] = values[rowPositions[k]];
+                }
+            }
+        }
+
+        @Override
+        public void getColumn(final int featureIndex, final int[] positions, final double[] column) {
+            Arrays.fill(column, 0);
+            if (featureIndex >= getNumFeatures()) {
+                return;
+            }
+            final int end = columnOffsets[featureIndex + 1];
+            for (int k = columnOffsets[featureIndex]; k < end; k++) {
+                final int position = positions[instanceIndices[k]];
+                if (position >= 0) {
+                    column[position] = values[k];
+                }
+            }
+        }
+    }
+
+    /**
+     * Columns read from the values of dense instances. Every value is stored, the values of
+     * feature j at positions j * size to (j + 1) * size - 1.
+     */
+    private static final class RowColumns extends FeatureColumns {
+        private final int size;
+        private final int numFeatures;
+        private final Values values;
+
+        RowColumns(final int size, final int numFeatures, final Values values) {
+            super();
+            this.size = size;
+            this.numFeatures = numFeatures;
+            this.values = values;
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public int getNumFeatures() {
+            return numFeatures;
+        }
+
+        @Override
+        public int getColumnStart(final int featureIndex) {
+            return Math.min(featureIndex, numFeatures) * size;
+        }
+
+        @Override
+        public int getInstanceIndex(final int position) {
+            return position % size;
+        }
+
+        @Override
+        public double getStoredValue(final int position) {
+            return values.getValue(position % size, position / size);
+        }
+
+        @Override
+        public double getValue(final int instanceIndex, final int featureIndex) {
+            return featureIndex < numFeatures ? values.getValue(instanceIndex, featureIndex) : 0;
+        }
+
+        @Override
+        public void getRow(final int instanceIndex, final double[] row) {
+            Arrays.fill(row, 0);
+            final int length = Math.min(row.length, numFeatures);
+            for (int featureIndex = 0; featureIndex < length; featureIndex++) {
+                row[featureIndex] = values.getValue(instanceIndex, featureIndex);
+            }
+        }
+
+        @Override
+        public void getColumn(final int featureIndex, final int[] positions, final double[] column) {
+            Arrays.fill(column, 0);
+            if (featureIndex >= numFeatures) {
+                return;
+            }
+            for (int instanceIndex = 0; instanceIndex < size; instanceIndex++) {
+                final int position = positions[instanceIndex];
+                if (position >= 0) {
+                    column[position] = values.getValue(instanceIndex, featureIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates feature columns from the instances of a problem, one instance at a time.
+     */
+    public static final class Builder {
+        private int numFeatures;
+        private final IntArrayList rowOffsets = new IntArrayList();
+        private final IntArrayList featureIndices = new IntArrayList();
+        private final DoubleArrayList rowValues = new DoubleArrayList();
+
+        /**
+         * Create a builder.
+         */
+        public Builder() {
+            super();
+            rowOffsets.add(0);
+        }
+
+        /**
+         * Add a feature value to the current instance. Zero values are not stored.
+         *
+         * @param featureIndex Index of the feature. Must not be negative.
+         * @param value        Value of the feature.
+         */
+        public void add(final int featureIndex, final double value) {
+            if (featureIndex < 0) {
+                throw new IllegalArgumentException("Feature indices must not be negative: " + featureIndex);
+            }
+            numFeatures = Math.max(numFeatures, featureIndex + 1);
+            if (value != 0) {
+                featureIndices.add(featureIndex);
+                rowValues.add(value);
+            }
+        }
+
+        /**
+         * Complete the current instance. Values added next belong to a new instance.
+         */
+        public void endInstance() {
+            rowOffsets.add(rowValues.size());
+        }
+
+        /**
+         * Returns the columns of the instances completed so far.
+         *
+         * @return new feature columns.
+         */
+        public FeatureColumns build() {
+            final int size = rowOffsets.size() - 1;
+            final int numValues = rowOffsets.getInt(size);
+            // count the values of each feature, then place values instance after instance:
+            final int[] columnOffsets = new int[numFeatures + 1];
+            for (int k = 0; k < numValues; k++) {
+                columnOffsets[featureIndices.getInt(k) + 1]++;
+            }
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                columnOffsets[featureIndex + 1] += columnOffsets[featureIndex];
+            }
+            final int[] next = new int[numFeatures];
+            System.arraycopy(columnOffsets, 0, next, 0, numFeatures);
+            final int[] instanceIndices = new int[numValues];
+            final double[] values = new double[numValues];
+            final int[] rowPositions = new int[numValues];
+            for (int instanceIndex = 0; instanceIndex < size; instanceIndex++) {
+                final int end = rowOffsets.getInt(instanceIndex + 1);
+                for (int k = rowOffsets.getInt(instanceIndex); k < end; k++) {
+                    final int position = next[featureIndices.getInt(k)]++;
+                    instanceIndices[position] = instanceIndex;
+                    values[position] = rowValues.getDouble(k);
+                    rowPositions[k] = position;
+                }
+            }
+            return new StoredColumns(size, columnOffsets, instanceIndices, values,
+                    rowOffsets.toIntArray(), featureIndices.toIntArray(), rowPositions);
+        }
+    }
+}
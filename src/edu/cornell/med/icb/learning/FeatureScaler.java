@@ -20,6 +20,15 @@ package edu.cornell.med.icb.learning;
 
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import it.unimi.dsi.lang.MutableString;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * This default implementation does not scale features at all. Sub-classes must implement the
@@ -29,13 +38,24 @@ import it.unimi.dsi.lang.MutableString;
  *         Time: 11:26:41 AM
  */
 public class FeatureScaler {
+    private static final Log LOG = LogFactory.getLog(FeatureScaler.class);
+
+    /**
+     * Number of consecutive features observed by one task when features are observed in
+     * parallel.
+     */
+    private static final int FEATURE_BLOCK_SIZE = 1024;
+
+    private ExecutorService executorService;
+
     /**
      * Observe the values of a feature over a training set. This method must be called before
      * features can  be scaled. It derives statistics from the feature values that are needed to
      * scale individual features.
      *
      * @param numFeatures
-     * @param featureValues Values of the feature over the training set.
+     * @param featureValues Values of the feature over the training set. Problems may reuse the
+     *                      array for the next feature, so it must not be kept.
      * @param featureIndex
      */
     public void observeFeatureForTraining(final int numFeatures,
@@ -43,10 +63,216 @@ public class FeatureScaler {
                                           final int featureIndex) {
     }
 
+    /**
+     * Observe all the features of a training set in one call. Problems call this method rather
+     * than {@link #observeFeatureForTraining(int, double[], int)} for each feature. This
+     * implementation copies the values of each feature and passes them to
+     * observeFeatureForTraining. Scalers whose statistics can be computed from each value in
+     * turn override it to visit the stored values of the columns once, in blocks of features
+     * (see {@link #observeInBlocks(int, FeatureBlock)}).
+     *
+     * @param numFeatures     Number of features to observe.
+     * @param columns         Feature values of the problem which stores the training instances.
+     * @param instanceIndices Instances of the columns which form the training set.
+     */
+    public void observeFeaturesForTraining(final int numFeatures, final FeatureColumns columns,
+                                           final int[] instanceIndices) {
+        final int[] positions = columns.getPositions(instanceIndices);
+        final double[] column = new double[instanceIndices.length];
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            columns.getColumn(featureIndex, positions, column);
+            observeFeatureForTraining(numFeatures, column, featureIndex);
+        }
+    }
+
+    /**
+     * Returns true if this scaler can leave instances out (see
+     * {@link #observeForLeaveOneOut(int, FeatureColumns, int[])}). Problems check this before
+     * they build the columns observeForLeaveOneOut reads. This implementation returns false.
+     */
+    public boolean supportsLeaveOut() {
+        return false;
+    }
+
+    /**
+     * Observe a training set so that scalers trained on the same set without any one of its
+     * instances can then be created with {@link #leaveOut(int)}, without observing the
+     * remaining instances again. Used for leave-one-out evaluation. Scalers which support
+     * leaving instances out keep statistics from which one observation can be removed.
+     *
+     * @param numFeatures     Number of features to observe.
+     * @param columns         Feature values of the problem which stores the training instances.
+     * @param instanceIndices Instances of the columns which form the training set.
+     * @return True if this scaler can leave instances out, as {@link #supportsLeaveOut()}.
+     *         This implementation returns false.
+     */
+    public boolean observeForLeaveOneOut(final int numFeatures, final FeatureColumns columns,
+                                         final int[] instanceIndices) {
+        return false;
+    }
+
+    /**
+     * Returns a new scaler trained on the training set observed with
+     * {@link #observeForLeaveOneOut(int, FeatureColumns, int[])}, without one of its instances.
+     * This scaler is not changed, so instances can be left out concurrently.
+     *
+     * @param position Position of the instance to leave out in the observed training set.
+     * @return a trained scaler.
+     * @throws UnsupportedOperationException if observeForLeaveOneOut returned false.
+     */
+    public FeatureScaler leaveOut(final int position) {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot leave instances out.");
+    }
+
+    /**
+     * Returns true if this scaler can be trained from summaries (see
+     * {@link #summarize(int, FeatureColumns, int[])}). Problems check this before they build
+     * the columns summarize reads. This implementation returns false.
+     */
+    public boolean supportsSummaries() {
+        return false;
+    }
+
+    /**
+     * Summarize the features of a set of instances, with the statistics this scaler needs to
+     * be trained by {@link #observeSummary(FeatureSummary)}. Used in cross-validation to
+     * summarize each fold once and train the scaler of each training set from the merged
+     * summaries of its folds, instead of observing the training instances again.
+     *
+     * @param numFeatures     Number of features to summarize.
+     * @param columns         Feature values of the problem which stores the instances.
+     * @param instanceIndices Instances of the columns to summarize.
+     * @return a summary, or null if this scaler cannot be trained from summaries, as
+     *         {@link #supportsSummaries()}. This implementation returns null.
+     */
+    public FeatureSummary summarize(final int numFeatures, final FeatureColumns columns,
+                                    final int[] instanceIndices) {
+        return null;
+    }
+
+    /**
+     * Train this scaler from the summary of a training set, instead of observing the features
+     * of the training set.
+     *
+     * @param summary Summary created by {@link #summarize(int, FeatureColumns, int[])}, or
+     *                merged from such summaries.
+     * @throws UnsupportedOperationException if summarize returns null.
+     */
+    public void observeSummary(final FeatureSummary summary) {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot observe summaries.");
+    }
+
+    /**
+     * Set the executor service used to observe blocks of features in parallel, and by table
+     * scalers to process blocks of the columns of tables and matrices in parallel. The executor
+     * service is not shut down by this class. It must not be an executor whose tasks wait for
+     * this scaler, such as the executor which evaluates cross-validation folds.
+     *
+     * @param executorService Executor service, or null to observe features in the calling thread.
+     */
+    public void setExecutorService(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Observes the features [start, end[ of a training set.
+     */
+    protected interface FeatureBlock {
+        void observe(int start, int end);
+    }
+
+    /**
+     * Observe features in blocks of consecutive features, in parallel when an executor service
+     * was set.
+     *
+     * @param numFeatures Number of features to observe.
+     * @param block       Observes a block. Blocks are disjoint, so implementations may store
+     *                    the statistics of their features without synchronization.
+     */
+    protected void observeInBlocks(final int numFeatures, final FeatureBlock block) {
+        if (executorService == null || numFeatures <= FEATURE_BLOCK_SIZE) {
+            block.observe(0, numFeatures);
+            return;
+        }
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < numFeatures; start += FEATURE_BLOCK_SIZE) {
+            final int blockStart = start;
+            final int blockEnd = Math.min(numFeatures, start + FEATURE_BLOCK_SIZE);
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    block.observe(blockStart, blockEnd);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (final Future<Void> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while observing features.", e);
+        } catch (ExecutionException e) {
+            LOG.error("Unable to observe features", e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     public double scaleFeatureValue(final double featureValue, final int featureIndex) {
         return featureValue;
     }
 
+    /**
+     * Scale the values of features [0, numFeatures[ of an instance. Problems and storages call
+     * this method for dense instances rather than scaleFeatureValue for each value. This
+     * implementation calls scaleFeatureValue for each value. Scalers whose features are scaled
+     * by per-feature coefficients override it with a loop over the coefficient arrays.
+     *
+     * @param values       Feature values of the instance, from values[offset].
+     * @param offset       Position of the value of the first feature.
+     * @param scaledValues Receives the scaled values, from scaledValues[scaledOffset]. May be
+     *                     values itself with the same offset.
+     * @param scaledOffset Position of the first scaled value.
+     * @param numFeatures  Number of features of the instance.
+     */
+    public void scaleRow(final double[] values, final int offset, final double[] scaledValues,
+                         final int scaledOffset, final int numFeatures) {
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            scaledValues[scaledOffset + featureIndex] = scaleFeatureValue(values[offset + featureIndex], featureIndex);
+        }
+    }
+
+    /**
+     * Scale the values of one feature over several instances. This implementation calls
+     * scaleFeatureValue for each value.
+     *
+     * @param featureIndex Index of the feature.
+     * @param values       Values of the feature.
+     * @param scaledValues Receives the scaled values. May be values itself.
+     * @param length       Number of values to scale.
+     */
+    public void scaleColumn(final int featureIndex, final double[] values, final double[] scaledValues,
+                            final int length) {
+        for (int i = 0; i < length; i++) {
+            scaledValues[i] = scaleFeatureValue(values[i], featureIndex);
+        }
+    }
+
+    /**
+     * Returns the coefficients of the affine function by which this scaler scales the finite
+     * values of a feature: a value v scales to v * coefficients[0] + coefficients[1], up to
+     * rounding. {@link FeatureScalerPipeline} composes the functions of consecutive stages
+     * into one multiplier and offset per feature. This implementation returns false, since
+     * sub-classes may scale features by any function.
+     *
+     * @param featureIndex Index of the feature.
+     * @param coefficients Receives the multiplier and the offset of the feature.
+     * @return True if the feature is scaled by an affine function, false otherwise.
+     */
+    public boolean getAffineCoefficients(final int featureIndex, final double[] coefficients) {
+        return false;
+    }
+
     protected Object2DoubleMap<MutableString> probesetScaleRangeMap;
     protected Object2DoubleMap<MutableString> probesetScaleMeanMap;
     protected boolean training;
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import edu.mssm.crover.tables.InvalidColumnException;
+import edu.mssm.crover.tables.Table;
+import edu.mssm.crover.tables.TypeMismatchException;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import it.unimi.dsi.lang.MutableString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scales features with several scalers in turn, e.g., z-scores followed by a multiplication.
+ * Each stage is trained on the features scaled by the previous stages: the values of each
+ * feature of the training set are read once and passed through all the stages.
+ * <p/>
+ * Consecutive stages which scale a feature by an affine function (see
+ * {@link FeatureScaler#getAffineCoefficients(int, double[])}) are collapsed into one
+ * multiplier and offset for this feature when features are scaled, so that a row is scaled
+ * in one loop rather than once per stage. Features which are not scaled by affine functions
+ * in all these stages, and values which scale to NaN, are scaled by each stage in turn.
+ * Collapsed stages give the same values as the stages in turn, up to rounding.
+ * <p/>
+ * The statistics of all the stages are stored in the probeset maps of the pipeline, keyed by
+ * the index of the stage followed by ':' and the feature identifier. Cross-validation
+ * creates scalers from their class, so pipelines are used there through a sub-class whose
+ * constructor without arguments passes the stages to this class.
+ *
+ * @author Fabien Campagne
+ */
+public class FeatureScalerPipeline extends FeatureTableScaler {
+    private static final char STAGE_SEPARATOR = ':';
+
+    private final FeatureScaler[] stages;
+    /**
+     * Number of features observed by the stages.
+     */
+    private int numFeatures;
+    /**
+     * Segments of the trained stages, created for the first value scaled and dropped when
+     * stages observe features.
+     */
+    private volatile Segment[] segments;
+
+    /**
+     * Create a pipeline.
+     *
+     * @param stages Scalers, in the order in which they scale features.
+     */
+    public FeatureScalerPipeline(final FeatureScaler... stages) {
+        super();
+        if (stages.length == 0) {
+            throw new IllegalArgumentException("A pipeline must have at least one stage.");
+        }
+        this.stages = stages.clone();
+    }
+
+    /**
+     * Returns the stages of this pipeline, in the order in which they scale features.
+     */
+    public FeatureScaler[] getStages() {
+        return stages.clone();
+    }
+
+    /**
+     * Observe a feature with each stage, then scale it with this stage for the next one.
+     */
+    @Override
+    public void observeFeatureForTraining(final int numFeatures, final double[] featureValues,
+                                          final int featureIndex) {
+        observeStages(numFeatures, featureValues.clone(), featureIndex);
+    }
+
+    /**
+     * Observe all the features of a training set. A single stage observes the columns itself.
+     * Otherwise the values of each feature are read once and observed by each stage in turn.
+     */
+    @Override
+    public void observeFeaturesForTraining(final int numFeatures, final FeatureColumns columns,
+                                           final int[] instanceIndices) {
+        if (stages.length == 1) {
+            segments = null;
+            this.numFeatures = numFeatures;
+            stages[0].observeFeaturesForTraining(numFeatures, columns, instanceIndices);
+            return;
+        }
+        final int[] positions = columns.getPositions(instanceIndices);
+        final double[] column = new double[instanceIndices.length];
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            columns.getColumn(featureIndex, positions, column);
+            observeStages(numFeatures, column, featureIndex);
+        }
+    }
+
+    private void observeStages(final int numFeatures, final double[] column, final int featureIndex) {
+        segments = null;
+        this.numFeatures = numFeatures;
+        for (int stageIndex = 0; stageIndex < stages.length; stageIndex++) {
+            stages[stageIndex].observeFeatureForTraining(numFeatures, column, featureIndex);
+            if (stageIndex < stages.length - 1) {
+                stages[stageIndex].scaleColumn(featureIndex, column, column, column.length);
+            }
+        }
+    }
+
+    @Override
+    public double scaleFeatureValue(final double featureValue, final int featureIndex) {
+        double value = featureValue;
+        for (final Segment segment : getSegments()) {
+            value = segment.scaleValue(value, featureIndex);
+        }
+        return value;
+    }
+
+    @Override
+    public void scaleRow(final double[] values, final int offset, final double[] scaledValues,
+                         final int scaledOffset, final int numFeatures) {
+        if (values != scaledValues || offset != scaledOffset) {
+            System.arraycopy(values, offset, scaledValues, scaledOffset, numFeatures);
+        }
+        for (final Segment segment : getSegments()) {
+            segment.scaleRow(scaledValues, scaledOffset, numFeatures);
+        }
+    }
+
+    @Override
+    public void scaleColumn(final int featureIndex, final double[] values, final double[] scaledValues,
+                            final int length) {
+        if (values != scaledValues) {
+            System.arraycopy(values, 0, scaledValues, 0, length);
+        }
+        for (final Segment segment : getSegments()) {
+            segment.scaleColumn(featureIndex, scaledValues, length);
+        }
+    }
+
+    /**
+     * The pipeline scales features by affine functions when all its stages do.
+     */
+    @Override
+    public boolean getAffineCoefficients(final int featureIndex, final double[] coefficients) {
+        double multiplier = 1;
+        double offset = 0;
+        for (final FeatureScaler stage : stages) {
+            if (!stage.getAffineCoefficients(featureIndex, coefficients)) {
+                return false;
+            }
+            multiplier *= coefficients[0];
+            offset = offset * coefficients[0] + coefficients[1];
+        }
+        coefficients[0] = multiplier;
+        coefficients[1] = offset;
+        return true;
+    }
+
+    /**
+     * Scale the columns of a table with each stage in turn. Stages which are table scalers
+     * process the table, with the statistics of the stage stored in, or read from, the
+     * probeset maps of this pipeline. The other stages scale the columns.
+     */
+    @Override
+    public void processTable(final Table table, final int[] columnIndices)
+            throws TypeMismatchException, InvalidColumnException {
+        segments = null;
+        numFeatures = getNumberOfFeatures(columnIndices);
+        for (int stageIndex = 0; stageIndex < stages.length; stageIndex++) {
+            final FeatureScaler stage = stages[stageIndex];
+            if (stage instanceof FeatureTableScaler) {
+                final Object2DoubleMap<MutableString> stageMeanMap = new Object2DoubleOpenHashMap<MutableString>();
+                final Object2DoubleMap<MutableString> stageRangeMap = new Object2DoubleOpenHashMap<MutableString>();
+                if (training) {
+                    stage.setTrainingMode(stageMeanMap, stageRangeMap);
+                    ((FeatureTableScaler) stage).processTable(table, columnIndices);
+                    storeStageMap(stageIndex, stageMeanMap, probesetScaleMeanMap);
+                    storeStageMap(stageIndex, stageRangeMap, probesetScaleRangeMap);
+                } else {
+                    restoreStageMap(stageIndex, probesetScaleMeanMap, stageMeanMap);
+                    restoreStageMap(stageIndex, probesetScaleRangeMap, stageRangeMap);
+                    stage.setTestSetMode(stageMeanMap, stageRangeMap);
+                    ((FeatureTableScaler) stage).processTable(table, columnIndices);
+                }
+            } else {
+                for (final int columnIndex : columnIndices) {
+                    final double[] columnValues = table.getDoubles(table.getIdentifier(columnIndex));
+                    stage.scaleColumn(columnIndex - 1, columnValues, columnValues, table.getRowNumber());
+                    // put the values back into the table:
+                    table.getColumnValues(columnIndex).replaceDoublesWith(columnValues);
+                }
+            }
+        }
+    }
+
+    private static void storeStageMap(final int stageIndex, final Object2DoubleMap<MutableString> stageMap,
+                                      final Object2DoubleMap<MutableString> map) {
+        for (final MutableString featureId : stageMap.keySet()) {
+            final MutableString key = new MutableString().append(stageIndex).append(STAGE_SEPARATOR)
+                    .append(featureId).compact();
+            map.put(key, stageMap.getDouble(featureId));
+        }
+    }
+
+    private static void restoreStageMap(final int stageIndex, final Object2DoubleMap<MutableString> map,
+                                        final Object2DoubleMap<MutableString> stageMap) {
+        final MutableString prefix = new MutableString().append(stageIndex).append(STAGE_SEPARATOR);
+        for (final MutableString key : map.keySet()) {
+            if (key.startsWith(prefix)) {
+                stageMap.put(key.substring(prefix.length()).compact(), map.getDouble(key));
+            }
+        }
+    }
+
+    private int getNumberOfFeatures(final int[] columnIndices) {
+        int numFeatures = 0;
+        for (final int colIndex : columnIndices) {
+            numFeatures = Math.max(numFeatures, colIndex);
+        }
+        return numFeatures;
+    }
+
+    private Segment[] getSegments() {
+        Segment[] result = segments;
+        if (result == null) {
+            result = createSegments();
+            segments = result;
+        }
+        return result;
+    }
+
+    /**
+     * Group runs of at least two stages which scale some features by affine functions, then
+     * collapse the functions of each feature in each run.
+     */
+    private Segment[] createSegments() {
+        final List<Segment> result = new ArrayList<Segment>();
+        final double[] coefficients = new double[2];
+        int start = 0;
+        while (start < stages.length) {
+            int end = start;
+            while (end < stages.length && hasAffineFeature(stages[end], coefficients)) {
+                end++;
+            }
+            if (end - start >= 2) {
+                result.add(new AffineSegment(start, end));
+                start = end;
+            } else {
+                result.add(new StageSegment(stages[start]));
+                start++;
+            }
+        }
+        return result.toArray(new Segment[result.size()]);
+    }
+
+    private boolean hasAffineFeature(final FeatureScaler stage, final double[] coefficients) {
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            if (stage.getAffineCoefficients(featureIndex, coefficients)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scales features with one or more consecutive stages. Values are scaled in place.
+     */
+    private interface Segment {
+        double scaleValue(double value, int featureIndex);
+
+        void scaleRow(double[] values, int offset, int numFeatures);
+
+        void scaleColumn(int featureIndex, double[] values, int length);
+    }
+
+    /**
+     * One stage, which scales features itself.
+     */
+    private static final class StageSegment implements Segment {
+        private final FeatureScaler stage;
+
+        StageSegment(final FeatureScaler stage) {
+            super();
+            this.stage = stage;
+        }
+
+        public double scaleValue(final double value, final int featureIndex) {
+            return stage.scaleFeatureValue(value, featureIndex);
+        }
+
+        public void scaleRow(final double[] values, final int offset, final int numFeatures) {
+            stage.scaleRow(values, offset, values, offset, numFeatures);
+        }
+
+        public void scaleColumn(final int featureIndex, final double[] values, final int length) {
+            stage.scaleColumn(featureIndex, values, values, length);
+        }
+    }
+
+    /**
+     * Stages [start, end[ collapsed into one multiplier and offset per feature. Features
+     * which are not scaled by affine functions in all these stages have a NaN multiplier, so
+     * that they are scaled by each stage like the values which scale to NaN.
+     */
+    private final class AffineSegment implements Segment {
+        private final int start;
+        private final int end;
+        private final double[] multipliers;
+        private final double[] offsets;
+
+        AffineSegment(final int start, final int end) {
+            super();
+            this.start = start;
+            this.end = end;
+            multipliers = new double[numFeatures];
+            offsets = new double[numFeatures];
+            final double[] coefficients = new double[2];
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                double multiplier = 1;
+                double offset = 0;
+                for (int stageIndex = start; stageIndex < end; stageIndex++) {
+                    if (!stages[stageIndex].getAffineCoefficients(featureIndex, coefficients)) {
+                        multiplier = Double.NaN;
+                        break;
+                    }
+                    multiplier *= coefficients[0];
+                    offset = offset * coefficients[0] + coefficients[1];
+                }
+                multipliers[featureIndex] = multiplier;
+                offsets[featureIndex] = offset;
+            }
+        }
+
+        public double scaleValue(final double value, final int featureIndex) {
+            final double scaledValue = value * multipliers[featureIndex] + offsets[featureIndex];
+            return scaledValue == scaledValue ? scaledValue : scaleByStages(value, featureIndex);
+        }
+
+        public void scaleRow(final double[] values, final int offset, final int numFeatures) {
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                final double value = values[offset + featureIndex];
+                final double scaledValue = value * multipliers[featureIndex] + offsets[featureIndex];
+                values[offset + featureIndex] = scaledValue == scaledValue ? scaledValue
+                        : scaleByStages(value, featureIndex);
+            }
+        }
+
+        public void scaleColumn(final int featureIndex, final double[] values, final int length) {
+            final double multiplier = multipliers[featureIndex];
+            final double offset = offsets[featureIndex];
+            for (int i = 0; i < length; i++) {
+                final double scaledValue = values[i] * multiplier + offset;
+                values[i] = scaledValue == scaledValue ? scaledValue : scaleByStages(values[i], featureIndex);
+            }
+        }
+
+        private double scaleByStages(final double value, final int featureIndex) {
+            double scaledValue = value;
+            for (int stageIndex = start; stageIndex < end; stageIndex++) {
+                scaledValue = stages[stageIndex].scaleFeatureValue(scaledValue, featureIndex);
+            }
+            return scaledValue;
+        }
+    }
+}
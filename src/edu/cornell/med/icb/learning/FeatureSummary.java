@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of each feature over a set of instances, which can be merged to obtain the
+ * statistics of a union of disjoint sets: number of instances, mean, sum of squared
+ * deviations from the mean, minimum, maximum and, optionally, a quantile sketch. In k-fold
+ * cross-validation, each fold is summarized once, and the summary of a training set is
+ * merged from the summaries of its k-1 folds.
+ *
+ * @author Fabien Campagne
+ */
+public final class FeatureSummary {
+    private final int sketchSize;
+    private int count;
+    private final double[] means;
+    private final double[] squaredDeviations;
+    private final double[] minimums;
+    private final double[] maximums;
+    private final QuantileSketch[] sketches;
+
+    /**
+     * Create the summary of an empty set of instances.
+     *
+     * @param numFeatures Number of features.
+     * @param sketchSize  Parameter k of the quantile sketches of the features, or zero to
+     *                    summarize without sketches.
+     */
+    public FeatureSummary(final int numFeatures, final int sketchSize) {
+        super();
+        this.sketchSize = sketchSize;
+        means = new double[numFeatures];
+        squaredDeviations = new double[numFeatures];
+        minimums = new double[numFeatures];
+        maximums = new double[numFeatures];
+        Arrays.fill(minimums, Double.POSITIVE_INFINITY);
+        Arrays.fill(maximums, Double.NEGATIVE_INFINITY);
+        if (sketchSize > 0) {
+            sketches = new QuantileSketch[numFeatures];
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                sketches[featureIndex] = new QuantileSketch(sketchSize);
+            }
+        } else {
+            sketches = null;
+        }
+    }
+
+    /**
+     * Summarize the features of a set of instances, visiting the stored values of each
+     * feature.
+     *
+     * @param numFeatures     Number of features.
+     * @param columns         Feature values of the problem which stores the instances.
+     * @param instanceIndices Instances of the columns to summarize.
+     * @param sketchSize      Parameter k of the quantile sketches, or zero for no sketches.
+     * @return a new summary.
+     */
+    public static FeatureSummary summarize(final int numFeatures, final FeatureColumns columns,
+                                           final int[] instanceIndices, final int sketchSize) {
+        final FeatureSummary summary = new FeatureSummary(numFeatures, sketchSize);
+        final int size = instanceIndices.length;
+        summary.count = size;
+        final int[] positions = columns.getPositions(instanceIndices);
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            final int columnStart = columns.getColumnStart(featureIndex);
+            final int columnEnd = columns.getColumnStart(featureIndex + 1);
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            int stored = 0;
+            for (int k = columnStart; k < columnEnd; k++) {
+                if (positions[columns.getInstanceIndex(k)] >= 0) {
+                    final double value = columns.getStoredValue(k);
+                    sum += value;
+                    min = Math.min(value, min);
+                    max = Math.max(value, max);
+                    stored++;
+                    if (sketchSize > 0) {
+                        summary.sketches[featureIndex].update(value);
+                    }
+                }
+            }
+            final int zeros = size - stored;
+            if (zeros > 0) {
+                // the other values of the set are zeros:
+                min = Math.min(0, min);
+                max = Math.max(0, max);
+                if (sketchSize > 0) {
+                    summary.sketches[featureIndex].update(0, zeros);
+                }
+            }
+            final double mean = size == 0 ? 0 : sum / size;
+            double squaredDeviation = zeros * mean * mean;
+            for (int k = columnStart; k < columnEnd; k++) {
+                if (positions[columns.getInstanceIndex(k)] >= 0) {
+                    final double deviation = columns.getStoredValue(k) - mean;
+                    squaredDeviation += deviation * deviation;
+                }
+            }
+            summary.means[featureIndex] = mean;
+            summary.squaredDeviations[featureIndex] = squaredDeviation;
+            summary.minimums[featureIndex] = min;
+            summary.maximums[featureIndex] = max;
+        }
+        return summary;
+    }
+
+    /**
+     * Add the statistics of a disjoint set of instances to this summary. Means and squared
+     * deviations are combined as described by Chan, Golub and LeVeque (Algorithms for
+     * Computing the Sample Variance, 1983). The other summary is not changed.
+     *
+     * @param other Summary of other instances, with the same features and sketch size.
+     */
+    public void merge(final FeatureSummary other) {
+        if (other.means.length != means.length || other.sketchSize != sketchSize) {
+            throw new IllegalArgumentException("Summaries must have the same features and sketch size.");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        final int total = count + other.count;
+        for (int featureIndex = 0; featureIndex < means.length; featureIndex++) {
+            final double delta = other.means[featureIndex] - means[featureIndex];
+            means[featureIndex] += delta * other.count / total;
+            squaredDeviations[featureIndex] += other.squaredDeviations[featureIndex]
+                    + delta * delta * ((double) count * other.count / total);
+            minimums[featureIndex] = Math.min(minimums[featureIndex], other.minimums[featureIndex]);
+            maximums[featureIndex] = Math.max(maximums[featureIndex], other.maximums[featureIndex]);
+            if (sketches != null) {
+                sketches[featureIndex].merge(other.sketches[featureIndex]);
+            }
+        }
+        count = total;
+    }
+
+    /**
+     * Returns the number of instances summarized.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getNumFeatures() {
+        return means.length;
+    }
+
+    /**
+     * Returns the parameter k of the quantile sketches, or zero for summaries without sketches.
+     */
+    public int getSketchSize() {
+        return sketchSize;
+    }
+
+    public double getMean(final int featureIndex) {
+        return count == 0 ? Double.NaN : means[featureIndex];
+    }
+
+    /**
+     * Returns the sum of the squared deviations of the values of a feature from their mean.
+     */
+    public double getSquaredDeviation(final int featureIndex) {
+        return squaredDeviations[featureIndex];
+    }
+
+    public double getMinimum(final int featureIndex) {
+        return minimums[featureIndex];
+    }
+
+    public double getMaximum(final int featureIndex) {
+        return maximums[featureIndex];
+    }
+
+    /**
+     * Returns the quantile sketch of a feature.
+     *
+     * @return the sketch, or null for summaries created without sketches.
+     */
+    public QuantileSketch getSketch(final int featureIndex) {
+        return sketches == null ? null : sketches[featureIndex];
+    }
+}
@@ -21,6 +21,8 @@ package edu.cornell.med.icb.learning;
 import edu.mssm.crover.tables.InvalidColumnException;
 import edu.mssm.crover.tables.Table;
 import edu.mssm.crover.tables.TypeMismatchException;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.lang.MutableString;
 
 /**
  * @author Fabien Campagne
@@ -28,6 +30,200 @@ import edu.mssm.crover.tables.TypeMismatchException;
  * Time: 4:19:16 PM
  */
 public abstract class FeatureTableScaler extends FeatureScaler {
+    /**
+     * Parameters read in test set mode instead of the probeset maps, or null.
+     */
+    protected ScalingParameters testParameters;
+    /**
+     * Parameters observed on the last table or matrix processed in training mode.
+     */
+    protected ScalingParameters trainingParameters;
+    /**
+     * Index in testParameters of each feature of the matrices processed in test set mode.
+     */
+    private int[] matrixParameterIndices;
+
      public abstract void processTable(final Table table, int[] columnIndices)
             throws TypeMismatchException, InvalidColumnException;
+
+    /**
+     * Processes the values of one feature of a table or matrix.
+     */
+    protected interface ColumnProcessor {
+        /**
+         * Derive or read the statistics of a feature and scale its values. Features are
+         * processed concurrently when an executor service was set, so implementations must
+         * only store statistics of this feature.
+         *
+         * @param featureIndex Index of the feature.
+         * @param featureId    Identifier of the feature, or null if identifiers were not
+         *                     requested.
+         * @param columnValues Values of the feature, scaled in place.
+         */
+        void process(int featureIndex, MutableString featureId, double[] columnValues);
+    }
+
+    /**
+     * Process the columns of a table in blocks of columns, in parallel when an executor
+     * service was set. Each column is read from the table, processed and written back to the
+     * table by the task of its block, so that only the columns of the running blocks are
+     * copied at a time, and each column is only written by one thread.
+     *
+     * @param identified True to pass the identifier of each feature to the processor.
+     * @return the identifier of the feature of each column, or null if not identified.
+     */
+    protected MutableString[] processTableColumns(final Table table, final int[] columnIndices,
+                                                  final boolean identified, final ColumnProcessor processor)
+            throws InvalidColumnException {
+        final String[] identifiers = new String[columnIndices.length];
+        final MutableString[] featureIds = identified ? new MutableString[columnIndices.length] : null;
+        for (int k = 0; k < columnIndices.length; k++) {
+            identifiers[k] = table.getIdentifier(columnIndices[k]);
+            if (identified) {
+                featureIds[k] = new MutableString(identifiers[k]).compact();
+            }
+        }
+        // first exception of a block, rethrown once all the blocks are done:
+        final InvalidColumnException[] invalidColumn = new InvalidColumnException[1];
+        observeInBlocks(columnIndices.length, new FeatureBlock() {
+            public void observe(final int start, final int end) {
+                try {
+                    for (int k = start; k < end; k++) {
+                        final double[] columnValues = table.getDoubles(identifiers[k]);
+                        processor.process(columnIndices[k] - 1, identified ? featureIds[k] : null, columnValues);
+                        // put the values back into the table:
+                        table.getColumnValues(columnIndices[k]).replaceDoublesWith(columnValues);
+                    }
+                } catch (InvalidColumnException e) {
+                    synchronized (invalidColumn) {
+                        if (invalidColumn[0] == null) {
+                            invalidColumn[0] = e;
+                        }
+                    }
+                }
+            }
+        });
+        if (invalidColumn[0] != null) {
+            throw invalidColumn[0];
+        }
+        return featureIds;
+    }
+
+    /**
+     * Process the features of a matrix in blocks of features, in parallel when an executor
+     * service was set.
+     *
+     * @param matrix     Values of each feature, scaled in place.
+     * @param identified True to pass the identifier of each feature to the processor.
+     * @return the identifier of each feature, or null if not identified.
+     */
+    protected MutableString[] processMatrixColumns(final double[][] matrix, final int numFeatures,
+                                                   final boolean identified, final ColumnProcessor processor) {
+        final MutableString[] featureIds = identified ? new MutableString[numFeatures] : null;
+        if (identified) {
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                featureIds[featureIndex] = new MutableString(getFeatureIdentifier(featureIndex)).compact();
+            }
+        }
+        observeInBlocks(numFeatures, new FeatureBlock() {
+            public void observe(final int start, final int end) {
+                for (int featureIndex = start; featureIndex < end; featureIndex++) {
+                    processor.process(featureIndex, identified ? featureIds[featureIndex] : null,
+                            matrix[featureIndex]);
+                }
+            }
+        });
+        return featureIds;
+    }
+
+    @Override
+    public void setTestSetMode(final Object2DoubleMap<MutableString> probesetScaleMeanMap,
+                               final Object2DoubleMap<MutableString> probesetScaleRangeMap) {
+        super.setTestSetMode(probesetScaleMeanMap, probesetScaleRangeMap);
+        testParameters = null;
+    }
+
+    /**
+     * Instruct to scale a test set with parameters observed on a training set, for instance
+     * parameters saved from {@link #getTrainingParameters()}. Parameters are read by index:
+     * the features of a test set are resolved to their index in the parameters once, when the
+     * test set is processed, rather than looked up in the probeset maps for each feature.
+     *
+     * @param parameters Parameters of the training set.
+     */
+    public void setTestSetMode(final ScalingParameters parameters) {
+        setTestSetMode(null, null);
+        testParameters = parameters;
+        matrixParameterIndices = null;
+    }
+
+    /**
+     * Returns the parameters observed on the last table or matrix processed in training mode,
+     * or null if none was processed.
+     */
+    public ScalingParameters getTrainingParameters() {
+        return trainingParameters;
+    }
+
+    /**
+     * Resolve the columns of a table to their index in the test parameters.
+     *
+     * @return the index in testParameters of each feature (column index - 1), or -1 for
+     *         features without parameters.
+     */
+    protected int[] resolveTableParameters(final Table table, final int[] columnIndices, final int numFeatures) {
+        final MutableString[] featureIds = new MutableString[numFeatures];
+        for (final int columnIndex : columnIndices) {
+            featureIds[columnIndex - 1] = new MutableString(table.getIdentifier(columnIndex));
+        }
+        return testParameters.resolve(featureIds);
+    }
+
+    /**
+     * Resolve the features of matrices to their index in the test parameters. Features are
+     * resolved for the first matrix only, so that the next matrices of the test set are
+     * scaled without looking up feature identifiers.
+     *
+     * @return the index in testParameters of each feature, or -1 for features without
+     *         parameters.
+     */
+    protected int[] resolveMatrixParameters(final int numFeatures) {
+        int[] indices = matrixParameterIndices;
+        if (indices == null || indices.length != numFeatures) {
+            final MutableString[] featureIds = new MutableString[numFeatures];
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                featureIds[featureIndex] = getFeatureIdentifier(featureIndex);
+            }
+            indices = testParameters.resolve(featureIds);
+            matrixParameterIndices = indices;
+        }
+        return indices;
+    }
+
+    /**
+     * Returns the center of a feature in the test parameters, or zero for a feature without
+     * parameters, as the probeset maps do.
+     */
+    protected double getTestCenter(final int parameterIndex) {
+        return parameterIndex < 0 ? 0 : testParameters.getCenter(parameterIndex);
+    }
+
+    /**
+     * Returns the spread of a feature in the test parameters, or zero for a feature without
+     * parameters, as the probeset maps do.
+     */
+    protected double getTestSpread(final int parameterIndex) {
+        return parameterIndex < 0 ? 0 : testParameters.getSpread(parameterIndex);
+    }
+
+    /**
+     * This method can be overridden to associate a feature index to a persistent feature
+     * identifier.
+     *
+     * @param featureIndex
+     * @return a feature id for the provided feature index.
+     */
+    protected MutableString getFeatureIdentifier(final int featureIndex) {
+        return new MutableString(Integer.toString(featureIndex));
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntIterator;
+import it.unimi.dsi.fastutil.ints.AbstractIntSet;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of instance indices, such as the training or test set of a
+ * cross-validation fold. Membership is tested in constant time with a bit set, and the
+ * indices are also kept as a sorted array, so that problems can visit the instances of the
+ * set in increasing order without testing each instance of the problem.
+ *
+ * @author Fabien Campagne
+ */
+public final class InstanceSet extends AbstractIntSet {
+    /**
+     * Indices of the instances in the set, in increasing order.
+     */
+    private final int[] indices;
+    private final BitSet members;
+
+    /**
+     * Create a set from the instances whose bit is set.
+     *
+     * @param members Bit i is set when instance i belongs to the set. The bit set is copied.
+     */
+    public InstanceSet(final BitSet members) {
+        super();
+        this.members = (BitSet) members.clone();
+        this.indices = new int[members.cardinality()];
+        int j = 0;
+        for (int i = members.nextSetBit(0); i >= 0; i = members.nextSetBit(i + 1)) {
+            indices[j++] = i;
+        }
+    }
+
+    /**
+     * Create a set from instance indices.
+     *
+     * @param indices Indices of the instances. Must not be negative. Duplicates are ignored.
+     */
+    public InstanceSet(final int[] indices) {
+        super();
+        final int[] sorted = indices.clone();
+        Arrays.sort(sorted);
+        members = new BitSet(sorted.length == 0 ? 0 : sorted[sorted.length - 1] + 1);
+        int size = 0;
+        for (final int index : sorted) {
+            if (index < 0) {
+                throw new IllegalArgumentException("Instance indices must not be negative: " + index);
+            }
+            if (size == 0 || sorted[size - 1] != index) {
+                sorted[size++] = index;
+                members.set(index);
+            }
+        }
+        this.indices = size == sorted.length ? sorted : copyOf(sorted, size);
+    }
+
+    /**
+     * Returns a set with the instances from start (inclusive) to end (exclusive).
+     */
+    public static InstanceSet range(final int start, final int end) {
+        final BitSet members = new BitSet(end);
+        members.set(start, end);
+        return new InstanceSet(members);
+    }
+
+    /**
+     * Returns a set with a single instance.
+     */
+    public static InstanceSet singleton(final int instanceIndex) {
+        return new InstanceSet(new int[]{instanceIndex});
+    }
+
+    /**
+     * Returns an instance set with the elements of set. Instance sets are returned as is, other
+     * sets are converted.
+     *
+     * @param set Set of instance indices.
+     * @return An instance set with the same elements.
+     */
+    public static InstanceSet valueOf(final IntSet set) {
+        if (set instanceof InstanceSet) {
+            return (InstanceSet) set;
+        } else {
+            return new InstanceSet(set.toIntArray());
+        }
+    }
+
+    @Override
+    public boolean contains(final int instanceIndex) {
+        return instanceIndex >= 0 && members.get(instanceIndex);
+    }
+
+    @Override
+    public int size() {
+        return indices.length;
+    }
+
+    /**
+     * Returns the instance index at some position of the set.
+     *
+     * @param position Between 0 and size()-1. Positions follow increasing instance indices.
+     * @return instance index.
+     */
+    public int get(final int position) {
+        return indices[position];
+    }
+
+    /**
+     * Returns the number of instances in the set with an index smaller than bound.
+     *
+     * @param bound exclusive upper bound on instance indices.
+     * @return Number of instances in [0, bound[.
+     */
+    public int countBelow(final int bound) {
+        final int position = Arrays.binarySearch(indices, bound);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    @Override
+    public int[] toIntArray() {
+        return indices.clone();
+    }
+
+    @Override
+    public IntIterator iterator() {
+        return new AbstractIntIterator() {
+            private int position;
+
+            public boolean hasNext() {
+                return position < indices.length;
+            }
+
+            public int nextInt() {
+                if (position >= indices.length) {
+                    throw new NoSuchElementException();
+                }
+                return indices[position++];
+            }
+        };
+    }
+
+    private static int[] copyOf(final int[] array, final int length) {
+        final int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+}
@@ -36,8 +36,26 @@ import org.apache.commons.math.stat.descriptive.moment.Mean;
 public class MinMaxScalingRowProcessor extends FeatureTableScaler {
     private double[] featureIndex2ScaleMean;
     private double[] featureIndex2ScaleRange;
+    /**
+     * Coefficients of the statistics, created for the first instance scaled with scaleRow and
+     * dropped when statistics change.
+     */
+    private volatile ScalingCoefficients coefficients;
     private static final Log LOG = LogFactory.getLog(MinMaxScalingRowProcessor.class);
 
+    /**
+     * Statistics of the training set observed for leave-one-out: the sum, the two smallest and
+     * the two largest values of each feature, which give the statistics of the training set
+     * without any one of its instances.
+     */
+    private FeatureColumns observedColumns;
+    private int[] observedInstances;
+    private double[] sums;
+    private double[] smallest;
+    private double[] secondSmallest;
+    private double[] largest;
+    private double[] secondLargest;
+
     @Override
     public double scaleFeatureValue(final double featureValue, final int featureIndex) {
         final double mean = featureIndex2ScaleMean[featureIndex];
@@ -58,8 +76,34 @@ public class MinMaxScalingRowProcessor extends FeatureTableScaler {
 
     }
 
+    @Override
+    public void scaleRow(final double[] values, final int offset, final double[] scaledValues,
+                         final int scaledOffset, final int numFeatures) {
+        ScalingCoefficients rowCoefficients = coefficients;
+        if (rowCoefficients == null) {
+            rowCoefficients = new ScalingCoefficients(featureIndex2ScaleMean,
+                    featureIndex2ScaleRange, 2);
+            coefficients = rowCoefficients;
+        }
+        rowCoefficients.scaleRow(values, offset, scaledValues, scaledOffset, numFeatures);
+    }
+
+    @Override
+    public void scaleColumn(final int featureIndex, final double[] values, final double[] scaledValues,
+                            final int length) {
+        ScalingCoefficients.scaleColumn(featureIndex2ScaleMean[featureIndex],
+                featureIndex2ScaleRange[featureIndex], 2, values, scaledValues, length);
+    }
+
+    @Override
+    public boolean getAffineCoefficients(final int featureIndex, final double[] coefficients) {
+        return ScalingCoefficients.getAffineCoefficients(featureIndex2ScaleMean[featureIndex],
+                featureIndex2ScaleRange[featureIndex], 2, coefficients);
+    }
+
     @Override
     public void observeFeatureForTraining(final int numFeatures, final double[] featureValues, final int featureIndex) {
+        coefficients = null;
         if (featureIndex2ScaleMean == null) {
             if (LOG.isTraceEnabled()) {
                 LOG.trace(String.format("allocating feature statistics array for %d features, featureIndex: %d",
@@ -71,87 +115,234 @@ public class MinMaxScalingRowProcessor extends FeatureTableScaler {
         observeStatistics(null, featureIndex, featureValues);
     }
 
+    /**
+     * Observe all the features of a training set, visiting the stored values of each feature
+     * once to accumulate its minimum, maximum and sum.
+     */
     @Override
-    public void processTable(final Table table, final int[] columnIndices)
-            throws TypeMismatchException, InvalidColumnException {
-        final int numFeatures = getNumberOfFeatures(columnIndices);
-        if (LOG.isTraceEnabled()) {
-            LOG.trace("numFeatures = " + numFeatures);
-        }
+    public void observeFeaturesForTraining(final int numFeatures, final FeatureColumns columns,
+                                           final int[] instanceIndices) {
+        coefficients = null;
         featureIndex2ScaleMean = new double[numFeatures];
         featureIndex2ScaleRange = new double[numFeatures];
-        for (final int columnIndex : columnIndices) {
-            final double[] columnValues = table.getDoubles(table.getIdentifier(columnIndex));
-            final MutableString featureId = new MutableString(table.getIdentifier(columnIndex)).compact();
-            if (training) {
-                observeStatistics(featureId, columnIndex - 1, columnValues);
-            } else {
-                // statistics were observed on the training set in a different run. Statistics were restored in
-                // probesetScaleMedianMap and probesetScaleRangeMap and are keyed by probesetId.
-                // We map feature Id to feature index here:
-                final int featureIndex = columnIndex - 1;
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace("probesetScaleMeanMap size = " + probesetScaleMeanMap.size());
-                    LOG.trace("probesetScaleRangeMap size = " + probesetScaleRangeMap.size());
-                }
-                final double mean = featureIndex2ScaleMean[featureIndex] = probesetScaleMeanMap.get(featureId);
-                final double range = featureIndex2ScaleRange[featureIndex] = probesetScaleRangeMap.get(featureId);
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace(String.format(
-                            "scaling on test set, featureIndex/columnId %d/%s range: %f median %f ",
-                            featureIndex, featureId, range, mean));
+        final int[] positions = columns.getPositions(instanceIndices);
+        final int trainingSetSize = instanceIndices.length;
+        observeInBlocks(numFeatures, new FeatureBlock() {
+            public void observe(final int start, final int end) {
+                for (int featureIndex = start; featureIndex < end; featureIndex++) {
+                    double min = Double.POSITIVE_INFINITY;
+                    double max = Double.NEGATIVE_INFINITY;
+                    double sum = 0;
+                    int count = 0;
+                    final int columnEnd = columns.getColumnStart(featureIndex + 1);
+                    for (int k = columns.getColumnStart(featureIndex); k < columnEnd; k++) {
+                        if (positions[columns.getInstanceIndex(k)] >= 0) {
+                            final double value = columns.getStoredValue(k);
+                            min = Math.min(value, min);
+                            max = Math.max(value, max);
+                            sum += value;
+                            count++;
+                        }
+                    }
+                    if (count < trainingSetSize) {
+                        // the other values of the training set are zeros:
+                        min = Math.min(0, min);
+                        max = Math.max(0, max);
+                    }
+                    featureIndex2ScaleMean[featureIndex] = sum / trainingSetSize;
+                    featureIndex2ScaleRange[featureIndex] = max - min;
                 }
             }
+        });
+    }
 
-            for (int rowIndex = 0; rowIndex < table.getRowNumber(); rowIndex++) {
-                final double scaledValue = scaleFeatureValue(columnValues[rowIndex], columnIndex - 1);
-                // put back in a the scaled value.
-                columnValues[rowIndex] = scaledValue;
+    @Override
+    public boolean supportsLeaveOut() {
+        return true;
+    }
+
+    @Override
+    public boolean observeForLeaveOneOut(final int numFeatures, final FeatureColumns columns,
+                                         final int[] instanceIndices) {
+        observedColumns = columns;
+        observedInstances = instanceIndices;
+        sums = new double[numFeatures];
+        smallest = new double[numFeatures];
+        secondSmallest = new double[numFeatures];
+        largest = new double[numFeatures];
+        secondLargest = new double[numFeatures];
+        final int[] positions = columns.getPositions(instanceIndices);
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            double min = Double.POSITIVE_INFINITY;
+            double secondMin = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double secondMax = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            int count = 0;
+            final int columnEnd = columns.getColumnStart(featureIndex + 1);
+            // the other values of the training set are zeros:
+            for (int k = columns.getColumnStart(featureIndex); k < columnEnd || count < instanceIndices.length; k++) {
+                final double value;
+                if (k < columnEnd) {
+                    if (positions[columns.getInstanceIndex(k)] < 0) {
+                        continue;
+                    }
+                    value = columns.getStoredValue(k);
+                } else {
+                    value = 0;
+                }
+                if (value < min) {
+                    secondMin = min;
+                    min = value;
+                } else if (value < secondMin) {
+                    secondMin = value;
+                }
+                if (value > max) {
+                    secondMax = max;
+                    max = value;
+                } else if (value > secondMax) {
+                    secondMax = value;
+                }
+                sum += value;
+                count++;
             }
-            // put the values back into the table:
-            table.getColumnValues(columnIndex).replaceDoublesWith(columnValues);
+            sums[featureIndex] = sum;
+            smallest[featureIndex] = min;
+            secondSmallest[featureIndex] = secondMin;
+            largest[featureIndex] = max;
+            secondLargest[featureIndex] = secondMax;
+        }
+        return true;
+    }
 
+    /**
+     * Downdate the statistics of the observed training set, in time proportional to the number
+     * of features.
+     */
+    @Override
+    public FeatureScaler leaveOut(final int position) {
+        final int numFeatures = sums.length;
+        final int instanceIndex = observedInstances[position];
+        final int size = observedInstances.length - 1;
+        final MinMaxScalingRowProcessor scaler = new MinMaxScalingRowProcessor();
+        scaler.featureIndex2ScaleMean = new double[numFeatures];
+        scaler.featureIndex2ScaleRange = new double[numFeatures];
+        final double[] row = new double[numFeatures];
+        observedColumns.getRow(instanceIndex, row);
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            final double value = row[featureIndex];
+            final double min = value == smallest[featureIndex] ? secondSmallest[featureIndex] : smallest[featureIndex];
+            final double max = value == largest[featureIndex] ? secondLargest[featureIndex] : largest[featureIndex];
+            scaler.featureIndex2ScaleMean[featureIndex] = (sums[featureIndex] - value) / size;
+            scaler.featureIndex2ScaleRange[featureIndex] = max - min;
         }
+        return scaler;
     }
 
-    public void processMatrix(final double[][] matrix, final int numFeatures)            {
+    @Override
+    public boolean supportsSummaries() {
+        return true;
+    }
+
+    @Override
+    public FeatureSummary summarize(final int numFeatures, final FeatureColumns columns,
+                                    final int[] instanceIndices) {
+        return FeatureSummary.summarize(numFeatures, columns, instanceIndices, 0);
+    }
+
+    @Override
+    public void observeSummary(final FeatureSummary summary) {
+        coefficients = null;
+        final int numFeatures = summary.getNumFeatures();
         featureIndex2ScaleMean = new double[numFeatures];
         featureIndex2ScaleRange = new double[numFeatures];
         for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
-            final int columnIndex = featureIndex;
-            final double[] columnValues = matrix[columnIndex];
-            final MutableString featureId = new MutableString(getFeatureIdentifier(columnIndex)).compact();
-            if (training) {
-                observeStatistics(featureId, featureIndex , columnValues);
-            } else {
-                // statistics were observed on the training set in a different run. Statistics were restored in
-                // probesetScaleMedianMap and probesetScaleRangeMap and are keyed by probesetId.
-                // We map feature Id to feature index here:
-
-                final double mean = featureIndex2ScaleMean[featureIndex] = probesetScaleMeanMap.get(featureId);
-                final double range = featureIndex2ScaleRange[featureIndex] = probesetScaleRangeMap.get(featureId);
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace(String.format(
-                            "scaling on test set, featureIndex/columnId %d/%s range: %f median %f ",
-                            featureIndex, featureId, range, mean));
-                }
+            featureIndex2ScaleMean[featureIndex] = summary.getMean(featureIndex);
+            featureIndex2ScaleRange[featureIndex] = summary.getMaximum(featureIndex) - summary.getMinimum(featureIndex);
+        }
+    }
+
+    @Override
+    public void processTable(final Table table, final int[] columnIndices)
+            throws TypeMismatchException, InvalidColumnException {
+        coefficients = null;
+        final int numFeatures = getNumberOfFeatures(columnIndices);
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("numFeatures = " + numFeatures);
+            if (!training && testParameters == null) {
+                LOG.trace("probesetScaleMeanMap size = " + probesetScaleMeanMap.size());
+                LOG.trace("probesetScaleRangeMap size = " + probesetScaleRangeMap.size());
             }
+        }
+        featureIndex2ScaleMean = new double[numFeatures];
+        featureIndex2ScaleRange = new double[numFeatures];
+        if (training) {
+            trainingParameters = new ScalingParameters(columnIndices.length);
+        }
+        final int[] parameterIndices = training || testParameters == null ? null
+                : resolveTableParameters(table, columnIndices, numFeatures);
+        final MutableString[] featureIds = processTableColumns(table, columnIndices, parameterIndices == null,
+                new ColumnProcessor() {
+                    public void process(final int featureIndex, final MutableString featureId,
+                                        final double[] columnValues) {
+                        processColumn(featureIndex, featureId, columnValues, parameterIndices);
+                    }
+                });
+        if (training) {
+            for (int k = 0; k < columnIndices.length; k++) {
+                recordStatistics(featureIds[k], columnIndices[k] - 1);
+            }
+        }
+    }
 
-            for (int rowIndex = 0; rowIndex < columnValues.length; rowIndex++) {
-                final double scaledValue = scaleFeatureValue(columnValues[rowIndex], featureIndex);
-                // put back in a the scaled value.
-                columnValues[rowIndex] = scaledValue;
+    public void processMatrix(final double[][] matrix, final int numFeatures)            {
+        coefficients = null;
+        featureIndex2ScaleMean = new double[numFeatures];
+        featureIndex2ScaleRange = new double[numFeatures];
+        if (training) {
+            trainingParameters = new ScalingParameters(numFeatures);
+        }
+        // features were resolved to parameter indices when the test set was bound:
+        final int[] parameterIndices = training || testParameters == null ? null
+                : resolveMatrixParameters(numFeatures);
+        final MutableString[] featureIds = processMatrixColumns(matrix, numFeatures, parameterIndices == null,
+                new ColumnProcessor() {
+                    public void process(final int featureIndex, final MutableString featureId,
+                                        final double[] columnValues) {
+                        processColumn(featureIndex, featureId, columnValues, parameterIndices);
+                    }
+                });
+        if (training) {
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                recordStatistics(featureIds[featureIndex], featureIndex);
             }
         }
     }
 
     /**
-     * This method can be overridden to associate a feature index to a persistent feature identifier.
-     * @param featureIndex
-     * @return a feature id for the provided feature index.
+     * Derive the statistics of a feature, or read them from the test parameters or maps, then
+     * scale its values. Called concurrently for different features.
      */
-    protected MutableString getFeatureIdentifier(final int featureIndex) {
-        return new MutableString(Integer.toString(featureIndex));
+    private void processColumn(final int featureIndex, final MutableString featureId, final double[] columnValues,
+                               final int[] parameterIndices) {
+        if (parameterIndices != null) {
+            featureIndex2ScaleMean[featureIndex] = getTestCenter(parameterIndices[featureIndex]);
+            featureIndex2ScaleRange[featureIndex] = getTestSpread(parameterIndices[featureIndex]);
+        } else if (training) {
+            observeStatistics(featureId, featureIndex, columnValues);
+        } else {
+            // statistics were observed on the training set in a different run. Statistics were restored in
+            // probesetScaleMedianMap and probesetScaleRangeMap and are keyed by probesetId.
+            // We map feature Id to feature index here:
+            final double mean = featureIndex2ScaleMean[featureIndex] = probesetScaleMeanMap.get(featureId);
+            final double range = featureIndex2ScaleRange[featureIndex] = probesetScaleRangeMap.get(featureId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace(String.format(
+                        "scaling on test set, featureIndex/columnId %d/%s range: %f median %f ",
+                        featureIndex, featureId, range, mean));
+            }
+        }
+        scaleColumn(featureIndex, columnValues, columnValues, columnValues.length);
     }
 
     private int getNumberOfFeatures(final int[] columnIndices) {
@@ -172,10 +363,6 @@ public class MinMaxScalingRowProcessor extends FeatureTableScaler {
 
         featureIndex2ScaleMean[featureIndex] = mean;
         featureIndex2ScaleRange[featureIndex] = range;
-        if (featureId != null) {
-            probesetScaleMeanMap.put(featureId, mean);
-            probesetScaleRangeMap.put(featureId, range);
-        }
         if (LOG.isTraceEnabled()) {
             LOG.trace(String.format(
                     "training, featureIndex/columnId %d/%s lower: %f higher %f mean %f ",
@@ -183,6 +370,18 @@ public class MinMaxScalingRowProcessor extends FeatureTableScaler {
         }
     }
 
+    /**
+     * Store the statistics of a feature of a training table or matrix in the probeset maps and
+     * the training parameters, in the calling thread and in the order of the features.
+     */
+    private void recordStatistics(final MutableString featureId, final int featureIndex) {
+        final double mean = featureIndex2ScaleMean[featureIndex];
+        final double range = featureIndex2ScaleRange[featureIndex];
+        probesetScaleMeanMap.put(featureId, mean);
+        probesetScaleRangeMap.put(featureId, range);
+        trainingParameters.add(featureId, mean, range);
+    }
+
     private double getMin(final double[] values) {
         double min = Double.POSITIVE_INFINITY;
         for (final double value : values) {
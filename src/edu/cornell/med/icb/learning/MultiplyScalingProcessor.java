@@ -42,4 +42,11 @@ public class MultiplyScalingProcessor extends FeatureScaler {
     public double scaleFeatureValue(final double featureValue, final int featureIndex) {
         return featureValue * multiplicationFactor;
     }
+
+    @Override
+    public boolean getAffineCoefficients(final int featureIndex, final double[] coefficients) {
+        coefficients[0] = multiplicationFactor;
+        coefficients[1] = 0;
+        return true;
+    }
 }
@@ -42,4 +42,11 @@ public class NoScalingFeatureScaler extends FeatureScaler {
     public double scaleFeatureValue(final double featureValue, final int featureIndex) {
         return featureValue;
     }
+
+    @Override
+    public boolean getAffineCoefficients(final int featureIndex, final double[] coefficients) {
+        coefficients[0] = 1;
+        coefficients[1] = 0;
+        return true;
+    }
 }
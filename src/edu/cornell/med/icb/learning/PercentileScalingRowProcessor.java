@@ -27,6 +27,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.math.stat.descriptive.rank.Percentile;
 
+import java.util.Arrays;
+
 /**
  * Determine scaling factors based on percentiles (80%-20%) of the data. In contrast,
  * ScalingRowProcessor uses min/max estimators and may be less stable when applied to
@@ -37,6 +39,20 @@ import org.apache.commons.math.stat.descriptive.rank.Percentile;
 public class PercentileScalingRowProcessor extends FeatureTableScaler {
     private double[] featureIndex2ScaleMedian;
     private double[] featureIndex2ScaleRange;
+    /**
+     * Coefficients of the statistics, created for the first instance scaled with scaleRow and
+     * dropped when statistics change.
+     */
+    private volatile ScalingCoefficients coefficients;
+    private int sketchSize;
+    /**
+     * Sorted values of each feature over the training set observed for leave-one-out. The
+     * percentiles of the training set without one instance are read around the position of
+     * the value of the instance.
+     */
+    private FeatureColumns observedColumns;
+    private int[] observedInstances;
+    private double[][] sortedValues;
     private static final Log LOG = LogFactory.getLog(PercentileScalingRowProcessor.class);
 
     @Override
@@ -57,8 +73,34 @@ public class PercentileScalingRowProcessor extends FeatureTableScaler {
         return scaledValue;
     }
 
+    @Override
+    public void scaleRow(final double[] values, final int offset, final double[] scaledValues,
+                         final int scaledOffset, final int numFeatures) {
+        ScalingCoefficients rowCoefficients = coefficients;
+        if (rowCoefficients == null) {
+            rowCoefficients = new ScalingCoefficients(featureIndex2ScaleMedian,
+                    featureIndex2ScaleRange, 2);
+            coefficients = rowCoefficients;
+        }
+        rowCoefficients.scaleRow(values, offset, scaledValues, scaledOffset, numFeatures);
+    }
+
+    @Override
+    public void scaleColumn(final int featureIndex, final double[] values, final double[] scaledValues,
+                            final int length) {
+        ScalingCoefficients.scaleColumn(featureIndex2ScaleMedian[featureIndex],
+                featureIndex2ScaleRange[featureIndex], 2, values, scaledValues, length);
+    }
+
+    @Override
+    public boolean getAffineCoefficients(final int featureIndex, final double[] coefficients) {
+        return ScalingCoefficients.getAffineCoefficients(featureIndex2ScaleMedian[featureIndex],
+                featureIndex2ScaleRange[featureIndex], 2, coefficients);
+    }
+
     @Override
     public void observeFeatureForTraining(final int numFeatures, final double[] featureValues, final int featureIndex) {
+        coefficients = null;
         if (featureIndex2ScaleMedian == null) {
             if (LOG.isTraceEnabled()) {
                 LOG.trace(String.format("allocating feature statistics array for %d features, featureIndex: %d",
@@ -70,6 +112,197 @@ public class PercentileScalingRowProcessor extends FeatureTableScaler {
         observeStatistics(null, featureIndex, featureValues);
     }
 
+    /**
+     * Estimate percentiles with quantile sketches (see {@link QuantileSketch}) rather than
+     * from a sorted copy of the values of each feature. Sketches visit the values of a feature
+     * once and in bounded memory, at the cost of an error on the rank of the percentiles.
+     *
+     * Cross-validation creates its scalers with the default constructor, so it scales folds
+     * with {@link SketchPercentileScalingRowProcessor} to use sketches.
+     *
+     * @param sketchSize Parameter k of the sketches, e.g., 200, or zero (the default) to
+     *                   compute exact percentiles.
+     */
+    public void setSketchSize(final int sketchSize) {
+        this.sketchSize = sketchSize;
+    }
+
+    /**
+     * Observe all the features of a training set. Exact percentiles need all the values of a
+     * feature, so each block of features copies the values of its features in turn. Sketches
+     * read the stored values of each feature once instead.
+     */
+    @Override
+    public void observeFeaturesForTraining(final int numFeatures, final FeatureColumns columns,
+                                           final int[] instanceIndices) {
+        coefficients = null;
+        featureIndex2ScaleMedian = new double[numFeatures];
+        featureIndex2ScaleRange = new double[numFeatures];
+        final int[] positions = columns.getPositions(instanceIndices);
+        observeInBlocks(numFeatures, new FeatureBlock() {
+            public void observe(final int start, final int end) {
+                if (sketchSize > 0) {
+                    for (int featureIndex = start; featureIndex < end; featureIndex++) {
+                        final QuantileSketch sketch = new QuantileSketch(sketchSize);
+                        int count = 0;
+                        final int columnEnd = columns.getColumnStart(featureIndex + 1);
+                        for (int k = columns.getColumnStart(featureIndex); k < columnEnd; k++) {
+                            if (positions[columns.getInstanceIndex(k)] >= 0) {
+                                sketch.update(columns.getStoredValue(k));
+                                count++;
+                            }
+                        }
+                        // the other values of the training set are zeros:
+                        sketch.update(0, instanceIndices.length - count);
+                        observeSketch(numFeatures, sketch, featureIndex);
+                    }
+                } else {
+                    final double[] column = new double[instanceIndices.length];
+                    for (int featureIndex = start; featureIndex < end; featureIndex++) {
+                        columns.getColumn(featureIndex, positions, column);
+                        observeStatistics(null, featureIndex, column);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Observe a feature from the sketch of its values over the training set. Sketches of the
+     * folds of a cross-validation can be merged to obtain the sketch of each training set, and
+     * sketches can be built from features which do not fit in memory.
+     *
+     * @param numFeatures  Number of features.
+     * @param sketch       Sketch of the values of the feature over the training set.
+     * @param featureIndex Index of the feature.
+     */
+    public void observeSketch(final int numFeatures, final QuantileSketch sketch, final int featureIndex) {
+        coefficients = null;
+        if (featureIndex2ScaleMedian == null) {
+            featureIndex2ScaleMedian = new double[numFeatures];
+            featureIndex2ScaleRange = new double[numFeatures];
+        }
+        storeStatistics(null, featureIndex, sketch.getQuantile(0.2), sketch.getQuantile(0.5),
+                sketch.getQuantile(0.8));
+    }
+
+    /**
+     * Sketches cannot remove values, so scalers which use sketches do not leave instances out.
+     */
+    @Override
+    public boolean supportsLeaveOut() {
+        return sketchSize <= 0;
+    }
+
+    /**
+     * Observe a training set for leave-one-out, keeping the sorted values of each feature.
+     */
+    @Override
+    public boolean observeForLeaveOneOut(final int numFeatures, final FeatureColumns columns,
+                                         final int[] instanceIndices) {
+        if (!supportsLeaveOut()) {
+            return false;
+        }
+        observedColumns = columns;
+        observedInstances = instanceIndices;
+        sortedValues = new double[numFeatures][];
+        final int[] positions = columns.getPositions(instanceIndices);
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            final double[] column = new double[instanceIndices.length];
+            columns.getColumn(featureIndex, positions, column);
+            Arrays.sort(column);
+            sortedValues[featureIndex] = column;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a scaler with the percentiles of the observed training set without one instance,
+     * in time proportional to the number of features times the logarithm of the number of
+     * instances. Percentiles are estimated as Percentile of commons-math does.
+     */
+    @Override
+    public FeatureScaler leaveOut(final int position) {
+        final int numFeatures = sortedValues.length;
+        final int instanceIndex = observedInstances[position];
+        final PercentileScalingRowProcessor scaler = new PercentileScalingRowProcessor();
+        scaler.featureIndex2ScaleMedian = new double[numFeatures];
+        scaler.featureIndex2ScaleRange = new double[numFeatures];
+        final double[] row = new double[numFeatures];
+        observedColumns.getRow(instanceIndex, row);
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            final double[] sorted = sortedValues[featureIndex];
+            final int removed = Arrays.binarySearch(sorted, row[featureIndex]);
+            final double min = percentile(sorted, removed, 20);
+            final double max = percentile(sorted, removed, 80);
+            scaler.featureIndex2ScaleMedian[featureIndex] = percentile(sorted, removed, 50);
+            scaler.featureIndex2ScaleRange[featureIndex] = max - min;
+        }
+        return scaler;
+    }
+
+    /**
+     * Estimate a percentile of sorted values without the value at some position, with the
+     * interpolation of Percentile in commons-math.
+     */
+    private static double percentile(final double[] sorted, final int removed, final double quantile) {
+        final int length = sorted.length - 1;
+        if (length == 0) {
+            return Double.NaN;
+        }
+        final double position = quantile * (length + 1) / 100;
+        if (position < 1) {
+            return valueAt(sorted, removed, 0);
+        }
+        if (position >= length) {
+            return valueAt(sorted, removed, length - 1);
+        }
+        final int floor = (int) Math.floor(position);
+        final double lower = valueAt(sorted, removed, floor - 1);
+        final double upper = valueAt(sorted, removed, floor);
+        return lower + (position - floor) * (upper - lower);
+    }
+
+    private static double valueAt(final double[] sorted, final int removed, final int index) {
+        return sorted[index < removed ? index : index + 1];
+    }
+
+    /**
+     * Exact percentiles cannot be merged, so only scalers which use sketches are trained from
+     * summaries.
+     */
+    @Override
+    public boolean supportsSummaries() {
+        return sketchSize > 0;
+    }
+
+    /**
+     * Summarize features with quantile sketches.
+     */
+    @Override
+    public FeatureSummary summarize(final int numFeatures, final FeatureColumns columns,
+                                    final int[] instanceIndices) {
+        if (!supportsSummaries()) {
+            return null;
+        }
+        return FeatureSummary.summarize(numFeatures, columns, instanceIndices, sketchSize);
+    }
+
+    @Override
+    public void observeSummary(final FeatureSummary summary) {
+        coefficients = null;
+        final int numFeatures = summary.getNumFeatures();
+        featureIndex2ScaleMedian = new double[numFeatures];
+        featureIndex2ScaleRange = new double[numFeatures];
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            final QuantileSketch sketch = summary.getSketch(featureIndex);
+            if (sketch == null) {
+                throw new IllegalArgumentException("Summary has no quantile sketches.");
+            }
+            observeSketch(numFeatures, sketch, featureIndex);
+        }
+    }
+
     private Object2DoubleMap<MutableString> probesetScaleRangeMap;
     private Object2DoubleMap<MutableString> probesetScaleMedianMap;
     private boolean training;
@@ -103,96 +336,83 @@ public class PercentileScalingRowProcessor extends FeatureTableScaler {
         this.probesetScaleMedianMap = probesetScaleMeanMap;
         this.probesetScaleRangeMap = probesetScaleRangeMap;
         training = false;
+        testParameters = null;
     }
 
     @Override
     public void processTable(final Table table, final int[] columnIndices)
             throws TypeMismatchException, InvalidColumnException {
+        coefficients = null;
         final int numFeatures = getNumberOfFeatures(columnIndices);
         this.featureIndex2ScaleMedian = new double[numFeatures];
         this.featureIndex2ScaleRange = new double[numFeatures];
-
-        for (final int columnIndex : columnIndices) {
-
-            final double[] columnValues = table.getDoubles(table.getIdentifier(columnIndex));
-
-            final double median;
-            final double range;
-            final MutableString featureId = new MutableString(table.getIdentifier(columnIndex)).compact();
-            if (training) {
-
-                observeStatistics(featureId, columnIndex - 1, columnValues);
-            } else {
-                // statistics were observed on the training set in a different run. Statistics were restored in
-                // probesetScaleMedianMap and probesetScaleRangeMap and are keyed by probesetId.
-                // We map feature Id to feature index here:
-                final int featureIndex = columnIndex - 1;
-                median = this.featureIndex2ScaleMedian[featureIndex] = probesetScaleMedianMap.get(featureId);
-                range = this.featureIndex2ScaleRange[featureIndex] = probesetScaleRangeMap.get(featureId);
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace(String.format(
-                            "scaling on test set, featureIndex/columnId %d/%s range: %f median %f ",
-                            featureIndex, featureId,
-                            range, median));
-                }
-            }
-
-            for (int rowIndex = 0; rowIndex < table.getRowNumber(); rowIndex++) {
-                final double scaledValue = scaleFeatureValue(columnValues[rowIndex], columnIndex - 1);
-                // put back in a the scaled value.
-                columnValues[rowIndex] = scaledValue;
+        if (training) {
+            trainingParameters = new ScalingParameters(columnIndices.length);
+        }
+        final int[] parameterIndices = training || testParameters == null ? null
+                : resolveTableParameters(table, columnIndices, numFeatures);
+        final MutableString[] featureIds = processTableColumns(table, columnIndices, parameterIndices == null,
+                new ColumnProcessor() {
+                    public void process(final int featureIndex, final MutableString featureId,
+                                        final double[] columnValues) {
+                        processColumn(featureIndex, featureId, columnValues, parameterIndices);
+                    }
+                });
+        if (training) {
+            for (int k = 0; k < columnIndices.length; k++) {
+                recordStatistics(featureIds[k], columnIndices[k] - 1);
             }
-            // put the values back into the table:
-            table.getColumnValues(columnIndex).replaceDoublesWith(columnValues);
         }
     }
 
-    public void processMatrix(final double[][] matrix, final int numFeatures)            {
-
-
+    public void processMatrix(final double[][] matrix, final int numFeatures) {
+        coefficients = null;
         this.featureIndex2ScaleMedian = new double[numFeatures];
         this.featureIndex2ScaleRange = new double[numFeatures];
-        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
-            final int columnIndex = featureIndex;
-            final double[] columnValues = matrix[columnIndex];
-
-            final double mean;
-            final double range;
-            final MutableString featureId = new MutableString(getFeatureIdentifier(columnIndex)).compact();
-            if (training) {
-
-                observeStatistics(featureId, featureIndex , columnValues);
-            } else {
-                // statistics were observed on the training set in a different run. Statistics were restored in
-                // probesetScaleMedianMap and probesetScaleRangeMap and are keyed by probesetId.
-                // We map feature Id to feature index here:
-
-                mean = this.featureIndex2ScaleMedian[featureIndex] = probesetScaleMeanMap.get(featureId);
-                range = this.featureIndex2ScaleRange[featureIndex] = probesetScaleRangeMap.get(featureId);
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace(String.format(
-                            "scaling on test set, featureIndex/columnId %d/%s range: %f median %f ",
-                            featureIndex, featureId,
-                            range, mean));
-                }
-            }
-
-            for (int rowIndex = 0; rowIndex < columnValues.length; rowIndex++) {
-                final double scaledValue = scaleFeatureValue(columnValues[rowIndex], featureIndex);
-                // put back in a the scaled value.
-                columnValues[rowIndex] = scaledValue;
+        if (training) {
+            trainingParameters = new ScalingParameters(numFeatures);
+        }
+        // features were resolved to parameter indices when the test set was bound:
+        final int[] parameterIndices = training || testParameters == null ? null
+                : resolveMatrixParameters(numFeatures);
+        final MutableString[] featureIds = processMatrixColumns(matrix, numFeatures, parameterIndices == null,
+                new ColumnProcessor() {
+                    public void process(final int featureIndex, final MutableString featureId,
+                                        final double[] columnValues) {
+                        processColumn(featureIndex, featureId, columnValues, parameterIndices);
+                    }
+                });
+        if (training) {
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                recordStatistics(featureIds[featureIndex], featureIndex);
             }
         }
     }
 
     /**
-     * This method can be overridden to associate a feature index to a persistent feature
-     * identifier.
-     * @param featureIndex
-     * @return a feature id for the provided feature index.
+     * Derive the statistics of a feature, or read them from the test parameters or maps, then
+     * scale its values. Called concurrently for different features.
      */
-    protected MutableString getFeatureIdentifier(final int featureIndex) {
-        return new MutableString(Integer.toString(featureIndex));
+    private void processColumn(final int featureIndex, final MutableString featureId, final double[] columnValues,
+                               final int[] parameterIndices) {
+        if (parameterIndices != null) {
+            featureIndex2ScaleMedian[featureIndex] = getTestCenter(parameterIndices[featureIndex]);
+            featureIndex2ScaleRange[featureIndex] = getTestSpread(parameterIndices[featureIndex]);
+        } else if (training) {
+            observeStatistics(featureId, featureIndex, columnValues);
+        } else {
+            // statistics were observed on the training set in a different run. Statistics were restored in
+            // probesetScaleMedianMap and probesetScaleRangeMap and are keyed by probesetId.
+            // We map feature Id to feature index here:
+            final double median = featureIndex2ScaleMedian[featureIndex] = probesetScaleMedianMap.get(featureId);
+            final double range = featureIndex2ScaleRange[featureIndex] = probesetScaleRangeMap.get(featureId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace(String.format(
+                        "scaling on test set, featureIndex/columnId %d/%s range: %f median %f ",
+                        featureIndex, featureId, range, median));
+            }
+        }
+        scaleColumn(featureIndex, columnValues, columnValues, columnValues.length);
     }
 
     private int getNumberOfFeatures(final int[] columnIndices) {
@@ -205,6 +425,15 @@ public class PercentileScalingRowProcessor extends FeatureTableScaler {
 
     private void observeStatistics(final MutableString featureId, final int featureIndex,
                                    final double[] trimmedArray) {
+        if (sketchSize > 0) {
+            final QuantileSketch sketch = new QuantileSketch(sketchSize);
+            for (final double value : trimmedArray) {
+                sketch.update(value);
+            }
+            storeStatistics(featureId, featureIndex, sketch.getQuantile(0.2), sketch.getQuantile(0.5),
+                    sketch.getQuantile(0.8));
+            return;
+        }
         final Percentile lowerPercentile = new Percentile();
         lowerPercentile.setQuantile(20);
         final double min = lowerPercentile.evaluate(trimmedArray);
@@ -214,15 +443,15 @@ public class PercentileScalingRowProcessor extends FeatureTableScaler {
         final Percentile medianPercentile = new Percentile();
         medianPercentile.setQuantile(50);
         final double median = medianPercentile.evaluate(trimmedArray);
+        storeStatistics(featureId, featureIndex, min, median, max);
+    }
+
+    private void storeStatistics(final MutableString featureId, final int featureIndex,
+                                 final double min, final double median, final double max) {
         final double range = max - min;
 
         featureIndex2ScaleMedian[featureIndex] = median;
         featureIndex2ScaleRange[featureIndex] = range;
-        if (featureId != null) {
-
-            probesetScaleMedianMap.put(featureId, median);
-            probesetScaleRangeMap.put(featureId, range);
-        }
         if (LOG.isTraceEnabled()) {
             LOG.trace(String.format(
                     "training, featureIndex/columnId %d/%s lower: %f higher %f median %f ",
@@ -230,4 +459,16 @@ public class PercentileScalingRowProcessor extends FeatureTableScaler {
                     min, max, median));
         }
     }
+
+    /**
+     * Store the statistics of a feature of a training table or matrix in the probeset maps and
+     * the training parameters, in the calling thread and in the order of the features.
+     */
+    private void recordStatistics(final MutableString featureId, final int featureIndex) {
+        final double median = featureIndex2ScaleMedian[featureIndex];
+        final double range = featureIndex2ScaleRange[featureIndex];
+        probesetScaleMedianMap.put(featureId, median);
+        probesetScaleRangeMap.put(featureId, range);
+        trainingParameters.add(featureId, median, range);
+    }
 }
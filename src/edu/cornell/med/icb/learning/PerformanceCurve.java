@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Java implementation of the <a href="http://rocr.bioinf.mpi-sb.mpg.de/ROCR.pdf">ROCR</a>
+ * performance measures. Decision values are sorted once, and the number of true and false
+ * positives is tabulated for each cutoff in a single sweep. As in ROCR, the cutoffs are
+ * infinity followed by the distinct decision values in decreasing order, and an instance is
+ * predicted positive when its decision value is larger or equal to the cutoff. Every measure
+ * is then derived from these counts.
+ *
+ * @author Fabien Campagne
+ */
+public class PerformanceCurve {
+    private static final int ACCURACY = 0;
+    private static final int ERROR_RATE = 1;
+    private static final int FALSE_POSITIVE_RATE = 2;
+    private static final int TRUE_POSITIVE_RATE = 3;
+    private static final int FALSE_NEGATIVE_RATE = 4;
+    private static final int TRUE_NEGATIVE_RATE = 5;
+    private static final int POSITIVE_PREDICTIVE_VALUE = 6;
+    private static final int NEGATIVE_PREDICTIVE_VALUE = 7;
+    private static final int PREDICTION_CONDITIONED_FALLOUT = 8;
+    private static final int PREDICTION_CONDITIONED_MISS = 9;
+    private static final int RATE_OF_POSITIVE_PREDICTIONS = 10;
+    private static final int RATE_OF_NEGATIVE_PREDICTIONS = 11;
+    private static final int PHI_CORRELATION = 12;
+    private static final int F_MEASURE = 13;
+    private static final int LIFT = 14;
+    private static final int ODDS_RATIO = 15;
+    private static final int ROOT_MEAN_SQUARED_ERROR = 16;
+    private static final int AREA_UNDER_ROC_CURVE = 17;
+
+    /**
+     * Maps ROCR measure names to the measures calculated by this class.
+     */
+    private static final Map<String, Integer> MEASURES = new HashMap<String, Integer>();
+
+    static {
+        MEASURES.put("acc", ACCURACY);
+        MEASURES.put("err", ERROR_RATE);
+        MEASURES.put("fpr", FALSE_POSITIVE_RATE);
+        MEASURES.put("fall", FALSE_POSITIVE_RATE);
+        MEASURES.put("tpr", TRUE_POSITIVE_RATE);
+        MEASURES.put("rec", TRUE_POSITIVE_RATE);
+        MEASURES.put("sens", TRUE_POSITIVE_RATE);
+        MEASURES.put("fnr", FALSE_NEGATIVE_RATE);
+        MEASURES.put("miss", FALSE_NEGATIVE_RATE);
+        MEASURES.put("tnr", TRUE_NEGATIVE_RATE);
+        MEASURES.put("spec", TRUE_NEGATIVE_RATE);
+        MEASURES.put("ppv", POSITIVE_PREDICTIVE_VALUE);
+        MEASURES.put("prec", POSITIVE_PREDICTIVE_VALUE);
+        MEASURES.put("npv", NEGATIVE_PREDICTIVE_VALUE);
+        MEASURES.put("pcfall", PREDICTION_CONDITIONED_FALLOUT);
+        MEASURES.put("pcmiss", PREDICTION_CONDITIONED_MISS);
+        MEASURES.put("rpp", RATE_OF_POSITIVE_PREDICTIONS);
+        MEASURES.put("rnp", RATE_OF_NEGATIVE_PREDICTIONS);
+        MEASURES.put("phi", PHI_CORRELATION);
+        MEASURES.put("mat", PHI_CORRELATION);
+        MEASURES.put("f", F_MEASURE);
+        MEASURES.put("lift", LIFT);
+        MEASURES.put("odds", ODDS_RATIO);
+        MEASURES.put("rmse", ROOT_MEAN_SQUARED_ERROR);
+        MEASURES.put("auc", AREA_UNDER_ROC_CURVE);
+    }
+
+    private final double[] decisionValues;
+    private final double[] labels;
+    private final double numPositives;
+    private final double numNegatives;
+    /**
+     * Whether ROCR can evaluate these predictions: both classes are represented and no decision
+     * value is NaN.
+     */
+    private final boolean defined;
+    private final double[] cutoffs;
+    private final double[] truePositives;
+    private final double[] falsePositives;
+
+    /**
+     * Tabulate the performance curve of a set of predictions.
+     *
+     * @param decisionValues Larger values indicate better confidence that the instance belongs to class 1.
+     * @param labels         Values larger than zero indicate that the instance belongs to class 1,
+     *                       other values that the instance belongs to class 0.
+     */
+    public PerformanceCurve(final double[] decisionValues, final double[] labels) {
+        if (decisionValues.length != labels.length) {
+            throw new IllegalArgumentException("number of predictions (" + decisionValues.length
+                    + ") must match number of labels (" + labels.length + ").");
+        }
+        this.decisionValues = decisionValues;
+        this.labels = labels;
+        final int size = decisionValues.length;
+
+        double positives = 0;
+        boolean hasNaN = false;
+        for (int i = 0; i < size; i++) {
+            if (labels[i] > 0) {
+                positives++;
+            }
+            if (decisionValues[i] != decisionValues[i]) {
+                hasNaN = true;
+            }
+        }
+        numPositives = positives;
+        numNegatives = size - positives;
+        defined = !hasNaN && numPositives > 0 && numNegatives > 0;
+        if (!defined) {
+            cutoffs = new double[0];
+            truePositives = new double[0];
+            falsePositives = new double[0];
+            return;
+        }
+
+        final int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+        RocAucCalculator.sortIndices(indices, decisionValues, 0, size);
+
+        int numCutoffs = 1;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || decisionValues[indices[i]] != decisionValues[indices[i - 1]]) {
+                numCutoffs++;
+            }
+        }
+        cutoffs = new double[numCutoffs];
+        truePositives = new double[numCutoffs];
+        falsePositives = new double[numCutoffs];
+        cutoffs[0] = Double.POSITIVE_INFINITY;
+
+        int cutoffIndex = 0;
+        for (int i = 0; i < size; i++) {
+            final double value = decisionValues[indices[i]];
+            if (i == 0 || value != decisionValues[indices[i - 1]]) {
+                cutoffIndex++;
+                cutoffs[cutoffIndex] = value;
+                truePositives[cutoffIndex] = truePositives[cutoffIndex - 1];
+                falsePositives[cutoffIndex] = falsePositives[cutoffIndex - 1];
+            }
+            if (labels[indices[i]] > 0) {
+                truePositives[cutoffIndex]++;
+            } else {
+                falsePositives[cutoffIndex]++;
+            }
+        }
+    }
+
+    /**
+     * Determine if a measure can be calculated by this class.
+     *
+     * @param measureName ROCR name of the measure, e.g., "prec".
+     * @return True if the measure is implemented in Java.
+     */
+    public static boolean isSupported(final CharSequence measureName) {
+        return measureName != null && MEASURES.containsKey(measureName.toString());
+    }
+
+    /**
+     * Whether both classes are represented and no decision value is NaN. ROCR fails to evaluate
+     * the predictions otherwise, and this class returns no value.
+     *
+     * @return True when performance measures can be evaluated.
+     */
+    public boolean isDefined() {
+        return defined;
+    }
+
+    /**
+     * Return the cutoffs of the curve: infinity, followed by the distinct decision values in
+     * decreasing order.
+     *
+     * @return cutoffs (ROCR x.values).
+     */
+    public double[] getCutoffs() {
+        return cutoffs;
+    }
+
+    /**
+     * Return the false positive rate at each cutoff. Together with the true positive rates, this
+     * is the ROC curve.
+     *
+     * @return False positive rates, one per cutoff.
+     */
+    public double[] getFalsePositiveRates() {
+        return getValues("fpr");
+    }
+
+    /**
+     * Return the true positive rate at each cutoff. Together with the false positive rates, this
+     * is the ROC curve.
+     *
+     * @return True positive rates, one per cutoff.
+     */
+    public double[] getTruePositiveRates() {
+        return getValues("tpr");
+    }
+
+    /**
+     * Calculate a performance measure.
+     *
+     * @param measureName ROCR name of the measure.
+     * @return one value per cutoff, or a single value for measures which do not depend on the
+     *         cutoff (auc, rmse). Empty when the curve is not defined.
+     */
+    public double[] getValues(final CharSequence measureName) {
+        final int measureCode = getMeasureCode(measureName);
+        if (!defined) {
+            return new double[0];
+        }
+        switch (measureCode) {
+            case ROOT_MEAN_SQUARED_ERROR:
+                return new double[]{rootMeanSquaredError()};
+            case AREA_UNDER_ROC_CURVE:
+                return new double[]{areaUnderRocCurve()};
+            default:
+                final double[] values = new double[cutoffs.length];
+                for (int k = 0; k < cutoffs.length; k++) {
+                    values[k] = valueAtCutoff(measureCode, k);
+                }
+                return values;
+        }
+    }
+
+    /**
+     * Calculate a performance measure as evaluateWithROCR reports it: threshold independent
+     * measures are returned as is, otherwise the value is taken at the smallest cutoff larger or
+     * equal to zero.
+     *
+     * @param measureName ROCR name of the measure.
+     * @return value of the measure, or NaN when it cannot be evaluated.
+     */
+    public double getValue(final CharSequence measureName) {
+        final int measureCode = getMeasureCode(measureName);
+        if (!defined) {
+            return Double.NaN;
+        }
+        switch (measureCode) {
+            case ROOT_MEAN_SQUARED_ERROR:
+                return rootMeanSquaredError();
+            case AREA_UNDER_ROC_CURVE:
+                return areaUnderRocCurve();
+            default:
+                final int cutoffIndex = getCutoffIndex(0);
+                return cutoffIndex == -1 ? Double.NaN : valueAtCutoff(measureCode, cutoffIndex);
+        }
+    }
+
+    /**
+     * Find the index of the smallest cutoff larger or equal to threshold.
+     *
+     * @param threshold decision threshold.
+     * @return index in {@link #getCutoffs()}, or -1 if no cutoff qualifies.
+     */
+    public int getCutoffIndex(final double threshold) {
+        for (int index = cutoffs.length - 1; index >= 0; index--) {
+            if (cutoffs[index] >= threshold) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int getMeasureCode(final CharSequence measureName) {
+        final Integer measureCode = measureName == null ? null : MEASURES.get(measureName.toString());
+        if (measureCode == null) {
+            throw new IllegalArgumentException("Performance measure " + measureName
+                    + " is not implemented in Java.");
+        }
+        return measureCode;
+    }
+
+    /**
+     * Calculate a cutoff dependent measure, with the same formula as ROCR, so that undefined
+     * ratios are NaN or infinite as they are in R.
+     */
+    private double valueAtCutoff(final int measureCode, final int k) {
+        final double tp = truePositives[k];
+        final double fp = falsePositives[k];
+        final double tn = numNegatives - fp;
+        final double fn = numPositives - tp;
+        final double total = numPositives + numNegatives;
+        switch (measureCode) {
+            case ACCURACY:
+                return (tp + tn) / total;
+            case ERROR_RATE:
+                return (fp + fn) / total;
+            case FALSE_POSITIVE_RATE:
+                return fp / numNegatives;
+            case TRUE_POSITIVE_RATE:
+                return tp / numPositives;
+            case FALSE_NEGATIVE_RATE:
+                return fn / numPositives;
+            case TRUE_NEGATIVE_RATE:
+                return tn / numNegatives;
+            case POSITIVE_PREDICTIVE_VALUE:
+                return tp / (fp + tp);
+            case NEGATIVE_PREDICTIVE_VALUE:
+                return tn / (tn + fn);
+            case PREDICTION_CONDITIONED_FALLOUT:
+                return fp / (fp + tp);
+            case PREDICTION_CONDITIONED_MISS:
+                return fn / (fn + tn);
+            case RATE_OF_POSITIVE_PREDICTIONS:
+                return (tp + fp) / total;
+            case RATE_OF_NEGATIVE_PREDICTIONS:
+                return (tn + fn) / total;
+            case PHI_CORRELATION:
+                return (tn * tp - fn * fp)
+                        / Math.sqrt(numPositives * numNegatives * (tp + fp) * (tn + fn));
+            case F_MEASURE:
+                // ROCR default alpha=0.5, the harmonic mean of precision and recall:
+                final double precision = tp / (fp + tp);
+                final double recall = tp / numPositives;
+                return 1 / (0.5 * (1 / precision) + 0.5 * (1 / recall));
+            case LIFT:
+                return (tp / numPositives) / ((tp + fp) / total);
+            case ODDS_RATIO:
+                return (tp * tn) / (fn * fp);
+            default:
+                throw new IllegalArgumentException("Measure code " + measureCode
+                        + " does not depend on the cutoff.");
+        }
+    }
+
+    /**
+     * Trapezoid integration of the ROC curve, as in ROCR.
+     */
+    private double areaUnderRocCurve() {
+        double area = 0;
+        for (int k = 1; k < cutoffs.length; k++) {
+            final double dx = (falsePositives[k] - falsePositives[k - 1]) / numNegatives;
+            area += 0.5 * dx * (truePositives[k] + truePositives[k - 1]) / numPositives;
+        }
+        return area;
+    }
+
+    /**
+     * Root mean squared error between decision values and 0/1 labels, as in ROCR.
+     */
+    private double rootMeanSquaredError() {
+        double sum = 0;
+        for (int i = 0; i < decisionValues.length; i++) {
+            final double error = decisionValues[i] - (labels[i] > 0 ? 1 : 0);
+            sum += error * error;
+        }
+        return Math.sqrt(sum / decisionValues.length);
+    }
+}
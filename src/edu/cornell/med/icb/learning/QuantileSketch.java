@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Estimates quantiles of a stream of values in bounded memory, following the KLL sketch of
+ * Karnin, Lang and Liberty (Optimal Quantile Approximation in Streams, FOCS 2016). Values are
+ * kept in levels: a value at level h stands for 2^h values of the stream. When a level is
+ * full, it is sorted and every other value, starting at a random offset, moves up one level.
+ * Levels below the top hold geometrically fewer values, so a sketch of parameter k keeps
+ * about 3k values whatever the length of the stream.
+ * <p/>
+ * The rank of an estimated quantile differs from the requested rank by a fraction of the
+ * stream length which decreases as 1/k: about 1.7% with 99% probability for k = 200. Streams
+ * shorter than k are kept entirely, and their quantiles are values of the stream of exactly
+ * the requested rank (no interpolation between values). Sketches of disjoint streams can be
+ * merged, with the same guarantee on the union of the streams.
+ *
+ * @author Fabien Campagne
+ */
+public final class QuantileSketch {
+    /**
+     * Ratio between the capacities of consecutive levels.
+     */
+    private static final double CAPACITY_RATIO = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 8;
+
+    private final int k;
+    private final Random random;
+    private double[][] levels;
+    private int[] levelSizes;
+    private int numLevels;
+    /**
+     * Number of values of the stream, the sum of the weights of the retained values.
+     */
+    private long count;
+    private int numRetained;
+    private int maxRetained;
+
+    /**
+     * Create an empty sketch.
+     *
+     * @param k Capacity of the top level. Larger values make estimates more accurate and keep
+     *          more values.
+     */
+    public QuantileSketch(final int k) {
+        super();
+        if (k < MIN_CAPACITY) {
+            throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY + ": " + k);
+        }
+        this.k = k;
+        // a fixed seed makes scaling reproducible from run to run:
+        this.random = new Random(k);
+        levels = new double[4][];
+        levelSizes = new int[4];
+        addLevel();
+    }
+
+    /**
+     * Returns the number of values of the stream.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Add a value of the stream.
+     */
+    public void update(final double value) {
+        add(0, value);
+        count++;
+        compress();
+    }
+
+    /**
+     * Add several occurrences of a value, such as the zeros of a sparse feature, in time
+     * proportional to the logarithm of the number of occurrences.
+     *
+     * @param value       Value of the stream.
+     * @param occurrences Number of occurrences of the value. Must not be negative.
+     */
+    public void update(final double value, final long occurrences) {
+        if (occurrences < 0) {
+            throw new IllegalArgumentException("The number of occurrences must not be negative: " + occurrences);
+        }
+        // a value at level h stands for 2^h occurrences:
+        long remaining = occurrences;
+        for (int level = 0; remaining != 0; level++, remaining >>>= 1) {
+            if ((remaining & 1) != 0) {
+                add(level, value);
+            }
+        }
+        count += occurrences;
+        compress();
+    }
+
+    /**
+     * Add the values of another sketch to this sketch. The other sketch is not changed.
+     *
+     * @param other Sketch of a stream disjoint from the stream of this sketch.
+     */
+    public void merge(final QuantileSketch other) {
+        for (int level = 0; level < other.numLevels; level++) {
+            for (int i = 0; i < other.levelSizes[level]; i++) {
+                add(level, other.levels[level][i]);
+            }
+        }
+        count += other.count;
+        compress();
+    }
+
+    /**
+     * Estimate a quantile of the stream.
+     *
+     * @param quantile Requested quantile, between 0 and 1, e.g., 0.5 for the median.
+     * @return the smallest retained value whose rank reaches quantile times the number of
+     *         values, or NaN when the sketch is empty.
+     */
+    public double getQuantile(final double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        for (int level = 0; level < numLevels; level++) {
+            Arrays.sort(levels[level], 0, levelSizes[level]);
+        }
+        // merge the sorted levels by increasing value, accumulating weights:
+        final int[] next = new int[numLevels];
+        final double targetRank = quantile * count;
+        long rank = 0;
+        double value = Double.NaN;
+        for (int n = 0; n < numRetained; n++) {
+            int minLevel = -1;
+            for (int level = 0; level < numLevels; level++) {
+                if (next[level] < levelSizes[level] && (minLevel == -1
+                        || levels[level][next[level]] < levels[minLevel][next[minLevel]])) {
+                    minLevel = level;
+                }
+            }
+            value = levels[minLevel][next[minLevel]++];
+            rank += 1L << minLevel;
+            if (rank > targetRank) {
+                return value;
+            }
+        }
+        return value;
+    }
+
+    private void add(final int level, final double value) {
+        while (level >= numLevels) {
+            addLevel();
+        }
+        if (levelSizes[level] == levels[level].length) {
+            final double[] grown = new double[levels[level].length * 2];
+            System.arraycopy(levels[level], 0, grown, 0, levelSizes[level]);
+            levels[level] = grown;
+        }
+        levels[level][levelSizes[level]++] = value;
+        numRetained++;
+    }
+
+    private void addLevel() {
+        if (numLevels == levels.length) {
+            final double[][] grownLevels = new double[numLevels * 2][];
+            System.arraycopy(levels, 0, grownLevels, 0, numLevels);
+            levels = grownLevels;
+            final int[] grownSizes = new int[numLevels * 2];
+            System.arraycopy(levelSizes, 0, grownSizes, 0, numLevels);
+            levelSizes = grownSizes;
+        }
+        levels[numLevels] = new double[MIN_CAPACITY];
+        levelSizes[numLevels] = 0;
+        numLevels++;
+        maxRetained = 0;
+        for (int level = 0; level < numLevels; level++) {
+            maxRetained += capacity(level);
+        }
+    }
+
+    /**
+     * Returns the number of values a level holds before it is compacted.
+     */
+    private int capacity(final int level) {
+        final int depth = numLevels - 1 - level;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+    }
+
+    /**
+     * Compact the lowest full level until the sketch retains fewer values than the sum of the
+     * level capacities.
+     */
+    private void compress() {
+        while (numRetained >= maxRetained) {
+            for (int level = 0; level < numLevels; level++) {
+                final int size = levelSizes[level];
+                if (size >= capacity(level)) {
+                    if (level + 1 == numLevels) {
+                        addLevel();
+                    }
+                    final double[] values = levels[level];
+                    Arrays.sort(values, 0, size);
+                    // an odd value out stays at this level:
+                    final int compacted = size & ~1;
+                    for (int i = random.nextBoolean() ? 1 : 0; i < compacted; i += 2) {
+                        add(level + 1, values[i]);
+                    }
+                    values[0] = values[size - 1];
+                    levelSizes[level] = size - compacted;
+                    numRetained -= compacted;
+                    break;
+                }
+            }
+        }
+    }
+}
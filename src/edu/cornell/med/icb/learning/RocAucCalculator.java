@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+/**
+ * Calculates the area under the Receiver Operating Characteristic (ROC) curve in Java. Values
+ * match those of ROCR performance(prediction(predictions, labels), 'auc'): the ROC curve has one
+ * point per distinct decision value, so that tied decision values contribute half a pair.
+ * Instances are ranked by sorting an index buffer which is kept between calls. Instances of this
+ * class are not thread safe.
+ *
+ * @author Fabien Campagne
+ */
+public class RocAucCalculator {
+    /**
+     * Indices of the instances, sorted by decreasing decision value. Reused across calls.
+     */
+    private int[] sortedIndices = new int[0];
+
+    /**
+     * Calculate the area under the ROC curve.
+     *
+     * @param decisionValues Larger values indicate better confidence that the instance belongs to class 1.
+     * @param labels         Values larger than zero indicate that the instance belongs to class 1,
+     *                       other values that the instance belongs to class 0.
+     * @return ROC AUC, or NaN when only one class is represented or a decision value is NaN.
+     */
+    public double areaUnderRocCurve(final double[] decisionValues, final double[] labels) {
+        assert decisionValues.length == labels.length : "number of predictions must match number of labels.";
+        final int size = decisionValues.length;
+        double numPositives = 0;
+        double numNegatives = 0;
+        for (int i = 0; i < size; i++) {
+            if (decisionValues[i] != decisionValues[i]) {
+                return Double.NaN;
+            }
+            if (labels[i] > 0) {
+                numPositives++;
+            } else {
+                numNegatives++;
+            }
+        }
+        if (numPositives == 0 || numNegatives == 0) {
+            return Double.NaN;
+        }
+        final int[] indices = sortByDecreasingValue(decisionValues);
+
+        // sweep the distinct decision values from the largest to the smallest, adding the
+        // trapezoid under the curve between consecutive cutoffs:
+        double truePositives = 0;
+        double area = 0;
+        int i = 0;
+        while (i < size) {
+            final double cutoff = decisionValues[indices[i]];
+            double positivesAtCutoff = 0;
+            double negativesAtCutoff = 0;
+            while (i < size && decisionValues[indices[i]] == cutoff) {
+                if (labels[indices[i]] > 0) {
+                    positivesAtCutoff++;
+                } else {
+                    negativesAtCutoff++;
+                }
+                i++;
+            }
+            area += negativesAtCutoff * (truePositives + positivesAtCutoff / 2);
+            truePositives += positivesAtCutoff;
+        }
+        return area / (numPositives * numNegatives);
+    }
+
+    /**
+     * Sort the indices of values by decreasing value. Ties are left in arbitrary order.
+     *
+     * @param values Values to rank.
+     * @return The index buffer, where the first values.length elements are sorted.
+     */
+    int[] sortByDecreasingValue(final double[] values) {
+        if (sortedIndices.length < values.length) {
+            sortedIndices = new int[values.length];
+        }
+        for (int i = 0; i < values.length; i++) {
+            sortedIndices[i] = i;
+        }
+        sortIndices(sortedIndices, values, 0, values.length);
+        return sortedIndices;
+    }
+
+    /**
+     * Sort indices[from..to[ by decreasing values[index], with a quicksort which does not allocate.
+     * Ties are left in arbitrary order.
+     */
+    static void sortIndices(final int[] indices, final double[] values, final int from, final int to) {
+        int start = from;
+        int end = to;
+        while (end - start > 16) {
+            final double pivot = medianOfThree(values, indices[start], indices[(start + end) >>> 1],
+                    indices[end - 1]);
+            int left = start;
+            int right = end - 1;
+            while (left <= right) {
+                while (values[indices[left]] > pivot) {
+                    left++;
+                }
+                while (values[indices[right]] < pivot) {
+                    right--;
+                }
+                if (left <= right) {
+                    final int tmp = indices[left];
+                    indices[left] = indices[right];
+                    indices[right] = tmp;
+                    left++;
+                    right--;
+                }
+            }
+            // recurse into the smaller partition, loop on the larger one to bound the stack depth:
+            if (right - start < end - left) {
+                sortIndices(indices, values, start, right + 1);
+                start = left;
+            } else {
+                sortIndices(indices, values, left, end);
+                end = right + 1;
+            }
+        }
+        // insertion sort for small ranges:
+        for (int i = start + 1; i < end; i++) {
+            final int index = indices[i];
+            final double value = values[index];
+            int j = i - 1;
+            while (j >= start && values[indices[j]] < value) {
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            indices[j + 1] = index;
+        }
+    }
+
+    private static double medianOfThree(final double[] values, final int a, final int b, final int c) {
+        final double x = values[a];
+        final double y = values[b];
+        final double z = values[c];
+        if (x < y) {
+            return y < z ? y : (x < z ? z : x);
+        } else {
+            return x < z ? x : (y < z ? z : y);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Per-feature coefficients of the scalers which center each feature and divide it by a
+ * measure of its spread (min-max, percentile and z-score scaling). A value v of feature j
+ * scales to (v - center[j]) / divisor[j], where the divisor is the spread divided by the
+ * number of spreads per unit of the scaled feature (2 for a range, 1 for a standard
+ * deviation). Features whose spread is smaller than a thousandth of their center scale to
+ * the sign of v - center[j], and values which scale to NaN scale to zero. Results are the
+ * same as those of scaleFeatureValue in these scalers.
+ * <p/>
+ * Rows are scaled in two passes: a first loop without branches computes the centered and
+ * divided values, which the JIT can compile to vector instructions, then the few features
+ * with a small spread and the NaN values are corrected.
+ *
+ * @author Fabien Campagne
+ */
+final class ScalingCoefficients {
+    private final double[] centers;
+    private final double[] divisors;
+    /**
+     * Features whose spread is too small to divide by. Their divisor is the smallest positive
+     * double, so that the first pass keeps the sign of v - center.
+     */
+    private final int[] signFeatures;
+
+    /**
+     * Derive coefficients from the statistics of a scaler.
+     *
+     * @param centers        Center of each feature, e.g., mean or median.
+     * @param spreads        Spread of each feature, e.g., range or standard deviation.
+     * @param spreadsPerUnit Number of spreads per unit of the scaled features.
+     */
+    ScalingCoefficients(final double[] centers, final double[] spreads, final double spreadsPerUnit) {
+        super();
+        final int numFeatures = centers.length;
+        this.centers = centers.clone();
+        divisors = new double[numFeatures];
+        final IntArrayList smallSpreads = new IntArrayList();
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            if (isSmall(centers[featureIndex], spreads[featureIndex])) {
+                divisors[featureIndex] = Double.MIN_VALUE;
+                smallSpreads.add(featureIndex);
+            } else {
+                divisors[featureIndex] = spreads[featureIndex] / spreadsPerUnit;
+            }
+        }
+        signFeatures = smallSpreads.toIntArray();
+    }
+
+    /**
+     * Scale the values of features [0, numFeatures[ of an instance.
+     *
+     * @param values       Feature values of the instance, from values[offset].
+     * @param offset       Position of the value of the first feature.
+     * @param scaledValues Receives the scaled values, from scaledValues[scaledOffset]. May be
+     *                     values itself with the same offset.
+     * @param scaledOffset Position of the first scaled value.
+     * @param numFeatures  Number of features of the instance.
+     */
+    void scaleRow(final double[] values, final int offset, final double[] scaledValues,
+                  final int scaledOffset, final int numFeatures) {
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            scaledValues[scaledOffset + featureIndex] =
+                    (values[offset + featureIndex] - centers[featureIndex]) / divisors[featureIndex];
+        }
+        for (final int featureIndex : signFeatures) {
+            if (featureIndex < numFeatures) {
+                final int position = scaledOffset + featureIndex;
+                scaledValues[position] = sign(scaledValues[position]);
+            }
+        }
+        for (int position = scaledOffset; position < scaledOffset + numFeatures; position++) {
+            if (scaledValues[position] != scaledValues[position]) {
+                scaledValues[position] = 0;
+            }
+        }
+    }
+
+    /**
+     * Scale the values of one feature over several instances.
+     *
+     * @param center         Center of the feature.
+     * @param spread         Spread of the feature.
+     * @param spreadsPerUnit Number of spreads per unit of the scaled feature.
+     * @param values         Values of the feature.
+     * @param scaledValues   Receives the scaled values. May be values itself.
+     * @param length         Number of values to scale.
+     */
+    static void scaleColumn(final double center, final double spread, final double spreadsPerUnit,
+                            final double[] values, final double[] scaledValues, final int length) {
+        if (isSmall(center, spread)) {
+            for (int i = 0; i < length; i++) {
+                scaledValues[i] = sign((values[i] - center) / Double.MIN_VALUE);
+            }
+            return;
+        }
+        final double divisor = spread / spreadsPerUnit;
+        for (int i = 0; i < length; i++) {
+            scaledValues[i] = (values[i] - center) / divisor;
+        }
+        for (int i = 0; i < length; i++) {
+            if (scaledValues[i] != scaledValues[i]) {
+                scaledValues[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Store the multiplier and offset of the affine function which scales the finite values of
+     * a feature, unless the feature scales to signs or its divisor is zero or not finite.
+     *
+     * @param center         Center of the feature.
+     * @param spread         Spread of the feature.
+     * @param spreadsPerUnit Number of spreads per unit of the scaled feature.
+     * @param coefficients   Receives the multiplier and the offset of the feature.
+     * @return True if the feature is scaled by an affine function.
+     */
+    static boolean getAffineCoefficients(final double center, final double spread, final double spreadsPerUnit,
+                                         final double[] coefficients) {
+        final double divisor = spread / spreadsPerUnit;
+        if (isSmall(center, spread) || !(divisor > 0) || Double.isInfinite(divisor)
+                || Double.isInfinite(center) || center != center) {
+            return false;
+        }
+        coefficients[0] = 1 / divisor;
+        coefficients[1] = -center / divisor;
+        return true;
+    }
+
+    private static boolean isSmall(final double center, final double spread) {
+        return spread < Math.abs(center * 0.001);
+    }
+
+    /**
+     * Returns the scaled value of a feature with a small spread, from (v - center) divided by
+     * the smallest positive double: -1, 0 or 1, and 1 when v is NaN (v is neither equal to
+     * nor smaller than the center).
+     */
+    private static double sign(final double dividedValue) {
+        return dividedValue != dividedValue ? 1 : Math.signum(dividedValue);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.lang.MutableString;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Statistics of the features of a training set, as observed by a table scaler: the center
+ * (mean or median) and the spread (range or standard deviation) of each feature, with the
+ * identifier of the feature. Parameters are stored in arrays addressed by the index of the
+ * feature in this table. Feature identifiers are resolved to indices once, when a test set
+ * is bound to the parameters (see {@link #resolve(MutableString[])}), so that scaling the
+ * test set does not look up identifiers.
+ * <p/>
+ * The binary format is big-endian: magic number, format version, number of features, the
+ * identifier of each feature as modified UTF-8 strings (see DataOutput.writeUTF), then the
+ * centers and the spreads of the features, as doubles.
+ *
+ * @author Fabien Campagne
+ */
+public final class ScalingParameters {
+    static final int MAGIC = 0x49434253;     // "ICBS"
+    static final int VERSION = 1;
+
+    private final MutableString[] featureIds;
+    private final double[] centers;
+    private final double[] spreads;
+    private int size;
+    /**
+     * Index of each feature identifier, created when identifiers are first resolved.
+     */
+    private Object2IntMap<MutableString> featureIndices;
+
+    /**
+     * Create an empty table.
+     *
+     * @param capacity Maximum number of features in the table.
+     */
+    public ScalingParameters(final int capacity) {
+        super();
+        featureIds = new MutableString[capacity];
+        centers = new double[capacity];
+        spreads = new double[capacity];
+    }
+
+    /**
+     * Convert the probeset maps of a scaler to a table.
+     *
+     * @param probesetScaleMeanMap  Center of each feature.
+     * @param probesetScaleRangeMap Spread of each feature.
+     * @return the parameters of the features of the first map.
+     */
+    public static ScalingParameters fromMaps(final Object2DoubleMap<MutableString> probesetScaleMeanMap,
+                                             final Object2DoubleMap<MutableString> probesetScaleRangeMap) {
+        final ScalingParameters parameters = new ScalingParameters(probesetScaleMeanMap.size());
+        for (final MutableString featureId : probesetScaleMeanMap.keySet()) {
+            parameters.add(featureId, probesetScaleMeanMap.getDouble(featureId),
+                    probesetScaleRangeMap.getDouble(featureId));
+        }
+        return parameters;
+    }
+
+    /**
+     * Append the parameters of a feature to the table.
+     *
+     * @return the index of the feature in the table.
+     */
+    public int add(final MutableString featureId, final double center, final double spread) {
+        featureIds[size] = featureId.copy().compact();
+        centers[size] = center;
+        spreads[size] = spread;
+        featureIndices = null;
+        return size++;
+    }
+
+    /**
+     * Returns the number of features in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    public MutableString getFeatureId(final int index) {
+        return featureIds[index];
+    }
+
+    public double getCenter(final int index) {
+        return centers[index];
+    }
+
+    public double getSpread(final int index) {
+        return spreads[index];
+    }
+
+    /**
+     * Returns the index of a feature in the table, or -1 if the table has no parameters for
+     * this feature.
+     */
+    public int getIndex(final MutableString featureId) {
+        if (featureIndices == null) {
+            final Object2IntMap<MutableString> indices = new Object2IntOpenHashMap<MutableString>(size);
+            indices.defaultReturnValue(-1);
+            for (int index = 0; index < size; index++) {
+                indices.put(featureIds[index], index);
+            }
+            featureIndices = indices;
+        }
+        return featureIndices.getInt(featureId);
+    }
+
+    /**
+     * Resolve the features of a test set to their indices in the table.
+     *
+     * @param testFeatureIds Identifier of each feature of the test set.
+     * @return the index in the table of each feature of the test set, or -1 for features
+     *         without parameters.
+     */
+    public int[] resolve(final MutableString[] testFeatureIds) {
+        final int[] indices = new int[testFeatureIds.length];
+        for (int featureIndex = 0; featureIndex < testFeatureIds.length; featureIndex++) {
+            indices[featureIndex] = testFeatureIds[featureIndex] == null ? -1 : getIndex(testFeatureIds[featureIndex]);
+        }
+        return indices;
+    }
+
+    public void write(final DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(size);
+        for (int index = 0; index < size; index++) {
+            output.writeUTF(featureIds[index].toString());
+        }
+        for (int index = 0; index < size; index++) {
+            output.writeDouble(centers[index]);
+        }
+        for (int index = 0; index < size; index++) {
+            output.writeDouble(spreads[index]);
+        }
+    }
+
+    /**
+     * Read parameters written by {@link #write(DataOutput)}.
+     *
+     * @throws IOException if the input is not in the scaling parameter format.
+     */
+    public static ScalingParameters read(final DataInput input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Input is not in the scaling parameter format.");
+        }
+        final int version = input.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version + " of the scaling parameter format.");
+        }
+        final int size = input.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid number of features: " + size);
+        }
+        final ScalingParameters parameters = new ScalingParameters(size);
+        for (int index = 0; index < size; index++) {
+            parameters.featureIds[index] = new MutableString(input.readUTF()).compact();
+        }
+        for (int index = 0; index < size; index++) {
+            parameters.centers[index] = input.readDouble();
+        }
+        for (int index = 0; index < size; index++) {
+            parameters.spreads[index] = input.readDouble();
+        }
+        parameters.size = size;
+        return parameters;
+    }
+
+    /**
+     * Write the parameters to a file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(final File file) throws IOException {
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            write(output);
+            output.flush();
+        } finally {
+            IOUtils.closeQuietly(output);
+        }
+    }
+
+    /**
+     * Read parameters from a file written by {@link #save(File)}.
+     *
+     * @throws IOException if the file cannot be read or is not in the scaling parameter format.
+     */
+    public static ScalingParameters load(final File file) throws IOException {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            return read(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+/**
+ * Percentile scaling which estimates percentiles with quantile sketches of
+ * {@link #DEFAULT_SKETCH_SIZE}. Cross-validation creates scalers from their class, so this
+ * class is the way to scale cross-validation folds with sketches: the sketches of the folds
+ * are then summarized once per repeat and merged for each training set.
+ *
+ * @author Fabien Campagne
+ */
+public class SketchPercentileScalingRowProcessor extends PercentileScalingRowProcessor {
+    /**
+     * Parameter k of the sketches of scalers created with the default constructor.
+     */
+    public static final int DEFAULT_SKETCH_SIZE = 200;
+
+    public SketchPercentileScalingRowProcessor() {
+        super();
+        setSketchSize(DEFAULT_SKETCH_SIZE);
+    }
+}
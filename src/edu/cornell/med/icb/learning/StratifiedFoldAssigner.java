@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Assigns instances to cross-validation folds, stratified by label. The instances of each
+ * label are shuffled and dealt to the folds in turn, so that every fold holds every label and
+ * fold sizes differ by at most one. Assignments are drawn in a single pass over the instances
+ * and only depend on the labels and on the sequence of random numbers.
+ *
+ * @author Fabien Campagne
+ */
+public class StratifiedFoldAssigner {
+    private final Random random;
+
+    /**
+     * Create a fold assigner.
+     *
+     * @param random Source of random numbers, e.g., a RandomAdapter on a colt RandomEngine.
+     */
+    public StratifiedFoldAssigner(final Random random) {
+        super();
+        this.random = random;
+    }
+
+    /**
+     * Assign the instances of a problem to k folds.
+     *
+     * @param problem Problem whose instances should be split.
+     * @param k       Number of folds.
+     * @return An array where each element is the index of the fold to which the given instance
+     *         of the problem belongs.
+     */
+    public int[] assignFolds(final ClassificationProblem problem, final int k) {
+        return assignFolds(getLabels(problem), k);
+    }
+
+    /**
+     * Assign instances to k folds, for several repeats of cross-validation. Each repeat draws a
+     * new stratified assignment.
+     *
+     * @param labels       Label of each instance.
+     * @param k            Number of folds.
+     * @param repeatNumber Number of repeats.
+     * @return fold assignments, indexed by repeat then by instance.
+     */
+    public int[][] assignFolds(final double[] labels, final int k, final int repeatNumber) {
+        final int[][] foldIndicesPerRepeat = new int[repeatNumber][];
+        for (int r = 0; r < repeatNumber; r++) {
+            foldIndicesPerRepeat[r] = assignFolds(labels, k);
+        }
+        return foldIndicesPerRepeat;
+    }
+
+    /**
+     * Assign instances to k folds.
+     *
+     * @param labels Label of each instance.
+     * @param k      Number of folds.
+     * @return An array where each element is the index of the fold to which the given instance
+     *         belongs.
+     * @throws IllegalArgumentException if a label has fewer than k instances, or if a single
+     *                                  label is represented, since some folds would then miss a label.
+     */
+    public int[] assignFolds(final double[] labels, final int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Number of folds must be at least one: " + k);
+        }
+        // count the instances of each label, in increasing label order:
+        final Map<Double, int[]> labelCounts = new TreeMap<Double, int[]>();
+        for (final double label : labels) {
+            final int[] count = labelCounts.get(label);
+            if (count == null) {
+                labelCounts.put(label, new int[]{1});
+            } else {
+                count[0]++;
+            }
+        }
+        if (labelCounts.size() < 2) {
+            throw new IllegalArgumentException("Instances must have at least two labels to be split "
+                    + "into folds that each contain both labels. Labels found: " + labelCounts.keySet());
+        }
+
+        // lay out instances grouped by label: each label starts at its offset in the order.
+        final Map<Double, int[]> labelOffsets = new TreeMap<Double, int[]>();
+        int offset = 0;
+        for (final Map.Entry<Double, int[]> entry : labelCounts.entrySet()) {
+            final int count = entry.getValue()[0];
+            if (count < k) {
+                throw new IllegalArgumentException("Label " + entry.getKey() + " has " + count
+                        + " instances, fewer than the " + k + " folds requested. Every fold must "
+                        + "contain every label.");
+            }
+            labelOffsets.put(entry.getKey(), new int[]{offset});
+            offset += count;
+        }
+        final int[] order = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            final int[] labelOffset = labelOffsets.get(labels[i]);
+            order[labelOffset[0]++] = i;
+        }
+
+        // shuffle the instances of each label:
+        int start = 0;
+        for (final int[] count : labelCounts.values()) {
+            shuffle(order, start, start + count[0]);
+            start += count[0];
+        }
+
+        // deal the instances to the folds in turn. Each label spans at least k consecutive
+        // positions and therefore reaches every fold. Folds are permuted so that the folds
+        // which receive an extra instance are random:
+        final int[] foldPermutation = new int[k];
+        for (int f = 0; f < k; f++) {
+            foldPermutation[f] = f;
+        }
+        shuffle(foldPermutation, 0, k);
+        final int[] foldIndices = new int[labels.length];
+        for (int position = 0; position < order.length; position++) {
+            foldIndices[order[position]] = foldPermutation[position % k];
+        }
+        return foldIndices;
+    }
+
+    /**
+     * Fisher-Yates shuffle of array[start..end[.
+     */
+    private void shuffle(final int[] array, final int start, final int end) {
+        for (int i = end - 1; i > start; i--) {
+            final int j = start + random.nextInt(i - start + 1);
+            final int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    private static double[] getLabels(final ClassificationProblem problem) {
+        problem.prepareNative();
+        final double[] labels = new double[problem.getSize()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = problem.getLabel(i);
+        }
+        return labels;
+    }
+}
@@ -18,7 +18,6 @@
 
 package edu.cornell.med.icb.learning;
 
-import edu.cornell.med.icb.stat.ZScoreCalculator;
 import edu.mssm.crover.tables.InvalidColumnException;
 import edu.mssm.crover.tables.Table;
 import edu.mssm.crover.tables.TypeMismatchException;
@@ -29,15 +28,37 @@ import org.apache.commons.logging.LogFactory;
 
 /**
  * Determine scaling factors based on mean and standard deviation of the data. Scaled features are the z-score of
- * raw features.
+ * raw features. The standard deviation is the sample standard deviation, whichever way the
+ * scaler is trained.
  *
  * @author campagne Date: Nov 10 2008
  */
 public class ZScoreScalingRowProcessor extends FeatureTableScaler {
     private double[] featureIndex2ScaleMean;
     private double[] featureIndex2ScaleStandardDeviation;
+    /**
+     * Coefficients of the statistics, created for the first instance scaled with scaleRow and
+     * dropped when statistics change.
+     */
+    private volatile ScalingCoefficients coefficients;
     private static final Log LOG = LogFactory.getLog(PercentileScalingRowProcessor.class);
 
+    /**
+     * Statistics of the training set observed for leave-one-out: the mean and the sum of
+     * squared deviations from the mean of each feature, which can be downdated when one
+     * instance is left out.
+     */
+    private FeatureColumns observedColumns;
+    private int[] observedInstances;
+    private double[] means;
+    private double[] squaredDeviations;
+    /**
+     * Difference between the number of values and the divisor of their variance: 1 for the
+     * sample variance. Training sets, leave-one-out training sets and merged summaries all
+     * derive the standard deviation with this divisor.
+     */
+    private static final int VARIANCE_DIVISOR_OFFSET = 1;
+
     @Override
     public double scaleFeatureValue(final double featureValue, final int featureIndex) {
         final double mean = featureIndex2ScaleMean[featureIndex];
@@ -56,8 +77,34 @@ public class ZScoreScalingRowProcessor extends FeatureTableScaler {
         return scaledValue;
     }
 
+    @Override
+    public void scaleRow(final double[] values, final int offset, final double[] scaledValues,
+                         final int scaledOffset, final int numFeatures) {
+        ScalingCoefficients rowCoefficients = coefficients;
+        if (rowCoefficients == null) {
+            rowCoefficients = new ScalingCoefficients(featureIndex2ScaleMean,
+                    featureIndex2ScaleStandardDeviation, 1);
+            coefficients = rowCoefficients;
+        }
+        rowCoefficients.scaleRow(values, offset, scaledValues, scaledOffset, numFeatures);
+    }
+
+    @Override
+    public void scaleColumn(final int featureIndex, final double[] values, final double[] scaledValues,
+                            final int length) {
+        ScalingCoefficients.scaleColumn(featureIndex2ScaleMean[featureIndex],
+                featureIndex2ScaleStandardDeviation[featureIndex], 1, values, scaledValues, length);
+    }
+
+    @Override
+    public boolean getAffineCoefficients(final int featureIndex, final double[] coefficients) {
+        return ScalingCoefficients.getAffineCoefficients(featureIndex2ScaleMean[featureIndex],
+                featureIndex2ScaleStandardDeviation[featureIndex], 1, coefficients);
+    }
+
     @Override
     public void observeFeatureForTraining(final int numFeatures, final double[] featureValues, final int featureIndex) {
+        coefficients = null;
         if (featureIndex2ScaleMean == null) {
             if (LOG.isTraceEnabled()) {
                 LOG.trace(String.format("allocating feature statistics array for %d features, featureIndex: %d",
@@ -69,6 +116,149 @@ public class ZScoreScalingRowProcessor extends FeatureTableScaler {
         observeStatistics(null, featureIndex, featureValues);
     }
 
+    /**
+     * Observe all the features of a training set, visiting the stored values of each feature
+     * once.
+     */
+    @Override
+    public void observeFeaturesForTraining(final int numFeatures, final FeatureColumns columns,
+                                           final int[] instanceIndices) {
+        coefficients = null;
+        featureIndex2ScaleMean = new double[numFeatures];
+        featureIndex2ScaleStandardDeviation = new double[numFeatures];
+        final int[] positions = columns.getPositions(instanceIndices);
+        final int trainingSetSize = instanceIndices.length;
+        observeInBlocks(numFeatures, new FeatureBlock() {
+            public void observe(final int start, final int end) {
+                final double[] statistics = new double[2];
+                for (int featureIndex = start; featureIndex < end; featureIndex++) {
+                    observeColumn(columns, positions, trainingSetSize, featureIndex, statistics);
+                    featureIndex2ScaleMean[featureIndex] = statistics[0];
+                    featureIndex2ScaleStandardDeviation[featureIndex] =
+                            standardDeviation(statistics[1], trainingSetSize);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean supportsLeaveOut() {
+        return true;
+    }
+
+    @Override
+    public boolean observeForLeaveOneOut(final int numFeatures, final FeatureColumns columns,
+                                         final int[] instanceIndices) {
+        observedColumns = columns;
+        observedInstances = instanceIndices;
+        means = new double[numFeatures];
+        squaredDeviations = new double[numFeatures];
+        final int size = instanceIndices.length;
+        final int[] positions = columns.getPositions(instanceIndices);
+        final double[] statistics = new double[2];
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            observeColumn(columns, positions, size, featureIndex, statistics);
+            means[featureIndex] = statistics[0];
+            squaredDeviations[featureIndex] = statistics[1];
+        }
+        return true;
+    }
+
+    /**
+     * Compute the mean of a feature over a training set and the sum of the squared deviations
+     * of its values from the mean, from the stored values of its column.
+     *
+     * @param positions    Position of each instance of the columns in the training set, or -1.
+     * @param size         Number of instances of the training set.
+     * @param statistics   Receives the mean and the sum of squared deviations.
+     */
+    private static void observeColumn(final FeatureColumns columns, final int[] positions, final int size,
+                                      final int featureIndex, final double[] statistics) {
+        final int columnStart = columns.getColumnStart(featureIndex);
+        final int columnEnd = columns.getColumnStart(featureIndex + 1);
+        double sum = 0;
+        int count = 0;
+        for (int k = columnStart; k < columnEnd; k++) {
+            if (positions[columns.getInstanceIndex(k)] >= 0) {
+                sum += columns.getStoredValue(k);
+                count++;
+            }
+        }
+        final double mean = sum / size;
+        // the other values of the training set are zeros:
+        double squaredDeviation = (size - count) * mean * mean;
+        for (int k = columnStart; k < columnEnd; k++) {
+            if (positions[columns.getInstanceIndex(k)] >= 0) {
+                final double deviation = columns.getStoredValue(k) - mean;
+                squaredDeviation += deviation * deviation;
+            }
+        }
+        statistics[0] = mean;
+        statistics[1] = squaredDeviation;
+    }
+
+    /**
+     * Returns the standard deviation of some values from the sum of their squared deviations
+     * from their mean, or zero when there are too few values to estimate it.
+     */
+    private static double standardDeviation(final double squaredDeviation, final int count) {
+        final int divisor = count - VARIANCE_DIVISOR_OFFSET;
+        return divisor > 0 ? Math.sqrt(squaredDeviation / divisor) : 0;
+    }
+
+    /**
+     * Downdate the mean and variance of the observed training set, in time proportional to the
+     * number of features.
+     */
+    @Override
+    public FeatureScaler leaveOut(final int position) {
+        final int numFeatures = means.length;
+        final int instanceIndex = observedInstances[position];
+        final int size = observedInstances.length;
+        final ZScoreScalingRowProcessor scaler = new ZScoreScalingRowProcessor();
+        scaler.featureIndex2ScaleMean = new double[numFeatures];
+        scaler.featureIndex2ScaleStandardDeviation = new double[numFeatures];
+        final double[] row = new double[numFeatures];
+        observedColumns.getRow(instanceIndex, row);
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            final double value = row[featureIndex];
+            final double mean = means[featureIndex];
+            // the mean of an empty training set is undefined, as when training on it:
+            final double downdatedMean = (size * mean - value) / (size - 1);
+            final double squaredDeviation = Math.max(0,
+                    squaredDeviations[featureIndex] - (value - mean) * (value - downdatedMean));
+            scaler.featureIndex2ScaleMean[featureIndex] = downdatedMean;
+            scaler.featureIndex2ScaleStandardDeviation[featureIndex] =
+                    standardDeviation(squaredDeviation, size - 1);
+        }
+        return scaler;
+    }
+
+    @Override
+    public boolean supportsSummaries() {
+        return true;
+    }
+
+    @Override
+    public FeatureSummary summarize(final int numFeatures, final FeatureColumns columns,
+                                    final int[] instanceIndices) {
+        return FeatureSummary.summarize(numFeatures, columns, instanceIndices, 0);
+    }
+
+    @Override
+    public void observeSummary(final FeatureSummary summary) {
+        coefficients = null;
+        final int numFeatures = summary.getNumFeatures();
+        final int size = summary.getCount();
+        featureIndex2ScaleMean = new double[numFeatures];
+        featureIndex2ScaleStandardDeviation = new double[numFeatures];
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            featureIndex2ScaleMean[featureIndex] = summary.getMean(featureIndex);
+            featureIndex2ScaleStandardDeviation[featureIndex] =
+                    standardDeviation(summary.getSquaredDeviation(featureIndex), size);
+        }
+    }
+
     private Object2DoubleMap<MutableString> probesetScaleRangeMap;
     private Object2DoubleMap<MutableString> probesetScaleMedianMap;
     private boolean training;
@@ -102,98 +292,83 @@ public class ZScoreScalingRowProcessor extends FeatureTableScaler {
         this.probesetScaleMedianMap = probesetScaleMeanMap;
         this.probesetScaleRangeMap = probesetScaleRangeMap;
         training = false;
+        testParameters = null;
     }
 
     @Override
     public void processTable(final Table table, final int[] columnIndices)
             throws TypeMismatchException, InvalidColumnException {
+        coefficients = null;
         final int numFeatures = getNumberOfFeatures(columnIndices);
         this.featureIndex2ScaleMean = new double[numFeatures];
         this.featureIndex2ScaleStandardDeviation = new double[numFeatures];
-
-        for (final int columnIndex : columnIndices) {
-
-            final double[] columnValues = table.getDoubles(table.getIdentifier(columnIndex));
-
-            final double median;
-            final double range;
-            final MutableString featureId = new MutableString(table.getIdentifier(columnIndex)).compact();
-            if (training) {
-
-                observeStatistics(featureId, columnIndex - 1, columnValues);
-            } else {
-                // statistics were observed on the training set in a different run. Statistics were restored in
-                // probesetScaleMedianMap and probesetScaleRangeMap and are keyed by probesetId.
-                // We map feature Id to feature index here:
-                final int featureIndex = columnIndex - 1;
-                median = this.featureIndex2ScaleMean[featureIndex] = probesetScaleMedianMap.get(featureId);
-                range = this.featureIndex2ScaleStandardDeviation[featureIndex] = probesetScaleRangeMap.get(featureId);
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace(String.format(
-                            "scaling on test set, featureIndex/columnId %d/%s range: %f median %f ",
-                            featureIndex, featureId,
-                            range, median));
-                }
-            }
-
-            for (int rowIndex = 0; rowIndex < table.getRowNumber(); rowIndex++) {
-                final double scaledValue = scaleFeatureValue(columnValues[rowIndex], columnIndex - 1);
-                // put back in a the scaled value.
-                columnValues[rowIndex] = scaledValue;
+        if (training) {
+            trainingParameters = new ScalingParameters(columnIndices.length);
+        }
+        final int[] parameterIndices = training || testParameters == null ? null
+                : resolveTableParameters(table, columnIndices, numFeatures);
+        final MutableString[] featureIds = processTableColumns(table, columnIndices, parameterIndices == null,
+                new ColumnProcessor() {
+                    public void process(final int featureIndex, final MutableString featureId,
+                                        final double[] columnValues) {
+                        processColumn(featureIndex, featureId, columnValues, parameterIndices);
+                    }
+                });
+        if (training) {
+            for (int k = 0; k < columnIndices.length; k++) {
+                recordStatistics(featureIds[k], columnIndices[k] - 1);
             }
-            // put the values back into the table:
-            System.arraycopy(columnValues, 0, table.getColumnValues(columnIndex).getDoubles(), 0, columnValues.length);
-
         }
     }
 
     public void processMatrix(final double[][] matrix, final int numFeatures) {
-
-
+        coefficients = null;
         this.featureIndex2ScaleMean = new double[numFeatures];
         this.featureIndex2ScaleStandardDeviation = new double[numFeatures];
-        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
-            final int columnIndex = featureIndex;
-            final double[] columnValues = matrix[columnIndex];
-
-            final double mean;
-            final double range;
-            final MutableString featureId = new MutableString(getFeatureIdentifier(columnIndex)).compact();
-            if (training) {
-
-                observeStatistics(featureId, featureIndex, columnValues);
-            } else {
-                // statistics were observed on the training set in a different run. Statistics were restored in
-                // probesetScaleMedianMap and probesetScaleRangeMap and are keyed by probesetId.
-                // We map feature Id to feature index here:
-
-                mean = this.featureIndex2ScaleMean[featureIndex] = probesetScaleMeanMap.get(featureId);
-                range = this.featureIndex2ScaleStandardDeviation[featureIndex] = probesetScaleRangeMap.get(featureId);
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace(String.format(
-                            "scaling on test set, featureIndex/columnId %d/%s range: %f median %f ",
-                            featureIndex, featureId,
-                            range, mean));
-                }
-            }
-
-            for (int rowIndex = 0; rowIndex < columnValues.length; rowIndex++) {
-                final double scaledValue = scaleFeatureValue(columnValues[rowIndex], featureIndex);
-                // put back in a the scaled value.
-                columnValues[rowIndex] = scaledValue;
+        if (training) {
+            trainingParameters = new ScalingParameters(numFeatures);
+        }
+        // features were resolved to parameter indices when the test set was bound:
+        final int[] parameterIndices = training || testParameters == null ? null
+                : resolveMatrixParameters(numFeatures);
+        final MutableString[] featureIds = processMatrixColumns(matrix, numFeatures, parameterIndices == null,
+                new ColumnProcessor() {
+                    public void process(final int featureIndex, final MutableString featureId,
+                                        final double[] columnValues) {
+                        processColumn(featureIndex, featureId, columnValues, parameterIndices);
+                    }
+                });
+        if (training) {
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                recordStatistics(featureIds[featureIndex], featureIndex);
             }
         }
     }
 
     /**
-     * This method can be overridden to associate a feature index to a persistent feature
-     * identifier.
-     *
-     * @param featureIndex
-     * @return a feature id for the provided feature index.
+     * Derive the statistics of a feature, or read them from the test parameters or maps, then
+     * scale its values. Called concurrently for different features.
      */
-    protected MutableString getFeatureIdentifier(final int featureIndex) {
-        return new MutableString(Integer.toString(featureIndex));
+    private void processColumn(final int featureIndex, final MutableString featureId, final double[] columnValues,
+                               final int[] parameterIndices) {
+        if (parameterIndices != null) {
+            featureIndex2ScaleMean[featureIndex] = getTestCenter(parameterIndices[featureIndex]);
+            featureIndex2ScaleStandardDeviation[featureIndex] = getTestSpread(parameterIndices[featureIndex]);
+        } else if (training) {
+            observeStatistics(featureId, featureIndex, columnValues);
+        } else {
+            // statistics were observed on the training set in a different run. Statistics were restored in
+            // probesetScaleMedianMap and probesetScaleRangeMap and are keyed by probesetId.
+            // We map feature Id to feature index here:
+            final double mean = featureIndex2ScaleMean[featureIndex] = probesetScaleMedianMap.get(featureId);
+            final double stdev = featureIndex2ScaleStandardDeviation[featureIndex] = probesetScaleRangeMap.get(featureId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace(String.format(
+                        "scaling on test set, featureIndex/columnId %d/%s range: %f median %f ",
+                        featureIndex, featureId, stdev, mean));
+            }
+        }
+        scaleColumn(featureIndex, columnValues, columnValues, columnValues.length);
     }
 
     private int getNumberOfFeatures(final int[] columnIndices) {
@@ -206,22 +381,20 @@ public class ZScoreScalingRowProcessor extends FeatureTableScaler {
 
     private void observeStatistics(final MutableString featureId, final int featureIndex,
                                    final double[] trimmedArray) {
-        final ZScoreCalculator calc = new ZScoreCalculator();
+        double sum = 0;
         for (final double value : trimmedArray) {
-            calc.observe(value);
+            sum += value;
         }
-        calc.calculateStats();
-
-        final double mean = calc.mean();
-        final double stdev = calc.stdDev();
+        final double mean = sum / trimmedArray.length;
+        double squaredDeviation = 0;
+        for (final double value : trimmedArray) {
+            final double deviation = value - mean;
+            squaredDeviation += deviation * deviation;
+        }
+        final double stdev = standardDeviation(squaredDeviation, trimmedArray.length);
 
         featureIndex2ScaleMean[featureIndex] = mean;
         featureIndex2ScaleStandardDeviation[featureIndex] = stdev;
-        if (featureId != null) {
-
-            probesetScaleMedianMap.put(featureId, mean);
-            probesetScaleRangeMap.put(featureId, stdev);
-        }
         if (LOG.isTraceEnabled()) {
             LOG.trace(String.format(
                     "training, featureIndex/columnId %d/%s mean %f stdev %f",
@@ -229,4 +402,16 @@ public class ZScoreScalingRowProcessor extends FeatureTableScaler {
                     mean, stdev));
         }
     }
+
+    /**
+     * Store the statistics of a feature of a training table or matrix in the probeset maps and
+     * the training parameters, in the calling thread and in the order of the features.
+     */
+    private void recordStatistics(final MutableString featureId, final int featureIndex) {
+        final double mean = featureIndex2ScaleMean[featureIndex];
+        final double stdev = featureIndex2ScaleStandardDeviation[featureIndex];
+        probesetScaleMedianMap.put(featureId, mean);
+        probesetScaleRangeMap.put(featureId, stdev);
+        trainingParameters.add(featureId, mean, stdev);
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.ClassificationProblem;
+import edu.cornell.med.icb.learning.InstanceSet;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes classification problems in the binary problem format, which {@link MappedStorage}
+ * opens without copying the feature values to the heap. The format is big-endian:
+ * <ul>
+ * <li>header: magic number, format version, number of instances, number of features, layout
+ * (row-major or column-major), bytes per value (8 for float64, 4 for float32), two reserved
+ * bytes, and the offset of the value block in the file;</li>
+ * <li>the label of each instance, as doubles;</li>
+ * <li>the identifier of each feature, as modified UTF-8 strings (see DataOutput.writeUTF);</li>
+ * <li>padding to a multiple of eight bytes, then the value block.</li>
+ * </ul>
+ * Both LibSvmProblem and WekaProblem can be written, since values are read through
+ * {@link ClassificationProblem#featureValues(int, it.unimi.dsi.fastutil.ints.IntSet)}.
+ *
+ * @author Fabien Campagne
+ */
+public class BinaryProblemWriter {
+    static final int MAGIC = 0x49434250;     // "ICBP"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 28;
+    static final byte ROW_MAJOR = 0;
+    static final byte COLUMN_MAJOR = 1;
+
+    /**
+     * Approximate number of values transposed in memory when writing rows.
+     */
+    private static final int BLOCK_VALUES = 1 << 20;
+
+    private boolean columnMajor;
+    private boolean singlePrecision;
+
+    /**
+     * Store values by feature rather than by instance. Column-major files are read faster
+     * one feature at a time, for instance to train feature scalers, row-major files one
+     * instance at a time. Files are row-major by default.
+     *
+     * @param columnMajor True to write column-major files.
+     */
+    public void setColumnMajor(final boolean columnMajor) {
+        this.columnMajor = columnMajor;
+    }
+
+    /**
+     * Store values as floats rather than doubles, which halves the size of the file. Values
+     * are rounded to float precision.
+     *
+     * @param singlePrecision True to write float32 values.
+     */
+    public void setSinglePrecision(final boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    /**
+     * Write a problem to a file.
+     *
+     * @param problem    Problem to write. Features must be indexed from zero.
+     * @param featureIds Identifier of each feature, e.g., probe set ids. The number of
+     *                   identifiers determines the number of features written.
+     * @param file       File to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(final ClassificationProblem problem, final String[] featureIds,
+                      final File file) throws IOException {
+        problem.prepareNative();
+        final int numInstances = problem.getSize();
+        final int numFeatures = featureIds.length;
+
+        // labels and feature identifiers, which determine the offset of the value block:
+        final ByteArrayOutputStream descriptionBytes = new ByteArrayOutputStream();
+        final DataOutputStream description = new DataOutputStream(descriptionBytes);
+        for (int i = 0; i < numInstances; i++) {
+            description.writeDouble(problem.getLabel(i));
+        }
+        for (final String featureId : featureIds) {
+            description.writeUTF(featureId);
+        }
+        description.flush();
+        final int descriptionSize = descriptionBytes.size();
+        final int padding = (8 - (HEADER_SIZE + descriptionSize) % 8) % 8;
+        final long dataOffset = HEADER_SIZE + descriptionSize + padding;
+
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(numInstances);
+            output.writeInt(numFeatures);
+            output.writeByte(columnMajor ? COLUMN_MAJOR : ROW_MAJOR);
+            output.writeByte(singlePrecision ? 4 : 8);
+            output.writeShort(0);
+            output.writeLong(dataOffset);
+            descriptionBytes.writeTo(output);
+            for (int p = 0; p < padding; p++) {
+                output.writeByte(0);
+            }
+
+            if (columnMajor) {
+                final InstanceSet allInstances = InstanceSet.range(0, numInstances);
+                for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                    for (final double value : problem.featureValues(featureIndex, allInstances)) {
+                        writeValue(output, value);
+                    }
+                }
+            } else {
+                // transpose blocks of instances, one feature at a time:
+                final int blockSize = Math.max(1, BLOCK_VALUES / Math.max(1, numFeatures));
+                final double[][] columns = new double[numFeatures][];
+                for (int start = 0; start < numInstances; start += blockSize) {
+                    final int end = Math.min(numInstances, start + blockSize);
+                    final InstanceSet block = InstanceSet.range(start, end);
+                    for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                        columns[featureIndex] = problem.featureValues(featureIndex, block);
+                    }
+                    for (int i = 0; i < end - start; i++) {
+                        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                            writeValue(output, columns[featureIndex][i]);
+                        }
+                    }
+                }
+            }
+            output.flush();
+        } finally {
+            IOUtils.closeQuietly(output);
+        }
+    }
+
+    private void writeValue(final DataOutputStream output, final double value) throws IOException {
+        if (singlePrecision) {
+            output.writeFloat((float) value);
+        } else {
+            output.writeDouble(value);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.FeatureScaler;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import libsvm.svm_node;
+
+/**
+ * Stores sparse instances in compressed sparse row format. Only non-zero values are stored:
+ * the values of instance i and their feature indices are at positions rowOffsets[i] to
+ * rowOffsets[i+1]-1 of the values and featureIndices arrays, by increasing feature index.
+ * Each value takes 12 bytes, instead of about 32 bytes for an svm_node and its reference.
+ *
+ * @author Fabien Campagne
+ */
+public final class CompressedRowStorage implements FeatureStorage {
+    private final int numFeatures;
+    private final int[] rowOffsets;
+    private final int[] featureIndices;
+    private final double[] values;
+
+    /**
+     * Create a storage from compressed sparse row arrays. The arrays are not copied.
+     *
+     * @param numFeatures    Number of features, larger than every feature index.
+     * @param rowOffsets     Start of each instance in featureIndices and values, followed by
+     *                       the number of stored values. Has one more element than instances.
+     * @param featureIndices Feature index of each stored value, increasing within an instance.
+     * @param values         Stored values.
+     */
+    public CompressedRowStorage(final int numFeatures, final int[] rowOffsets,
+                                final int[] featureIndices, final double[] values) {
+        super();
+        if (rowOffsets.length == 0 || rowOffsets[0] != 0
+                || rowOffsets[rowOffsets.length - 1] != values.length
+                || featureIndices.length != values.length) {
+            throw new IllegalArgumentException("Row offsets must start at zero and end with the "
+                    + "number of values, and each value must have a feature index.");
+        }
+        this.numFeatures = numFeatures;
+        this.rowOffsets = rowOffsets;
+        this.featureIndices = featureIndices;
+        this.values = values;
+    }
+
+    public int getSize() {
+        return rowOffsets.length - 1;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * Returns the number of values stored for all the instances.
+     *
+     * @return number of non-zero values.
+     */
+    public int getNumValues() {
+        return values.length;
+    }
+
+    public double getValue(final int instanceIndex, final int featureIndex) {
+        // binary search the feature among the stored values of the instance:
+        int low = rowOffsets[instanceIndex];
+        int high = rowOffsets[instanceIndex + 1] - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int middleIndex = featureIndices[middle];
+            if (middleIndex < featureIndex) {
+                low = middle + 1;
+            } else if (middleIndex > featureIndex) {
+                high = middle - 1;
+            } else {
+                return values[middle];
+            }
+        }
+        return 0;
+    }
+
+    public svm_node[] getInstance(final int instanceIndex) {
+        final int start = rowOffsets[instanceIndex];
+        final svm_node[] nodes = new svm_node[rowOffsets[instanceIndex + 1] - start];
+        for (int k = 0; k < nodes.length; k++) {
+            nodes[k] = new svm_node();
+            nodes[k].index = featureIndices[start + k];
+            nodes[k].value = values[start + k];
+        }
+        return nodes;
+    }
+
+    /**
+     * Scale instances. Features which are not stored for an instance have the value zero,
+     * which may scale to a non-zero value (e.g., when centering features). Such features
+     * are stored in the scaled instances. Zero is scaled once per feature, so the time to
+     * scale an instance is proportional to its number of stored values when the scaler maps
+     * zero to zero.
+     */
+    public FeatureStorage scale(final FeatureScaler scaler, final int[] instanceIndices) {
+        final double[] scaledZeros = new double[numFeatures];
+        scaler.scaleRow(scaledZeros, 0, scaledZeros, 0, numFeatures);
+        final IntArrayList nonZeroFeatures = new IntArrayList();
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            if (scaledZeros[featureIndex] != 0) {
+                nonZeroFeatures.add(featureIndex);
+            }
+        }
+        final int[] denseFeatures = nonZeroFeatures.toIntArray();
+
+        final Builder builder = new Builder(numFeatures);
+        for (final int instanceIndex : instanceIndices) {
+            // merge the stored values with the features whose scaled zero must be stored:
+            final int end = rowOffsets[instanceIndex + 1];
+            int k = rowOffsets[instanceIndex];
+            int z = 0;
+            while (k < end || z < denseFeatures.length) {
+                if (k < end && (z == denseFeatures.length || featureIndices[k] <= denseFeatures[z])) {
+                    final int featureIndex = featureIndices[k];
+                    if (z < denseFeatures.length && denseFeatures[z] == featureIndex) {
+                        z++;
+                    }
+                    builder.add(featureIndex, scaler.scaleFeatureValue(values[k++], featureIndex));
+                } else {
+                    final int featureIndex = denseFeatures[z++];
+                    builder.add(featureIndex, scaledZeros[featureIndex]);
+                }
+            }
+            builder.endInstance();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a compressed row storage one instance at a time.
+     */
+    public static final class Builder {
+        private int numFeatures;
+        private final IntArrayList rowOffsets = new IntArrayList();
+        private final IntArrayList featureIndices = new IntArrayList();
+        private final DoubleArrayList values = new DoubleArrayList();
+
+        /**
+         * Create a builder.
+         *
+         * @param numFeatures Minimum number of features of the storage. The storage has more
+         *                    features if larger feature indices are added, even with zero values.
+         */
+        public Builder(final int numFeatures) {
+            super();
+            this.numFeatures = numFeatures;
+            rowOffsets.add(0);
+        }
+
+        /**
+         * Add a feature value to the current instance. Zero values are not stored.
+         *
+         * @param featureIndex Index of the feature, larger than the previous index added to the
+         *                     current instance.
+         * @param value        Value of the feature.
+         */
+        public void add(final int featureIndex, final double value) {
+            final int instanceStart = rowOffsets.getInt(rowOffsets.size() - 1);
+            if (featureIndex < 0 || (featureIndices.size() > instanceStart
+                    && featureIndices.getInt(featureIndices.size() - 1) >= featureIndex)) {
+                throw new IllegalArgumentException("Feature indices must not be negative and must increase "
+                        + "within an instance: " + featureIndex);
+            }
+            numFeatures = Math.max(numFeatures, featureIndex + 1);
+            if (value != 0) {
+                featureIndices.add(featureIndex);
+                values.add(value);
+            }
+        }
+
+        /**
+         * Complete the current instance. Values added next belong to a new instance.
+         */
+        public void endInstance() {
+            rowOffsets.add(values.size());
+        }
+
+        /**
+         * Returns the storage of the instances completed so far.
+         *
+         * @return a new storage.
+         */
+        public CompressedRowStorage build() {
+            return new CompressedRowStorage(numFeatures, rowOffsets.toIntArray(),
+                    featureIndices.toIntArray(), values.toDoubleArray());
+        }
+    }
+}
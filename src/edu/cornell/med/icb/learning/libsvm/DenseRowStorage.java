@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.FeatureScaler;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * Stores dense instances in one row-major array: the value of feature j for instance i is
+ * at position i * numFeatures + j. Suited to data where every feature has a value for every
+ * instance, such as microarray data. Kernels between stored instances run over contiguous
+ * values, without comparing feature indices.
+ *
+ * @author Fabien Campagne
+ */
+public final class DenseRowStorage implements KernelStorage {
+    private final int numFeatures;
+    private final double[] values;
+
+    /**
+     * Create a storage from a row-major array of feature values. The array is not copied.
+     *
+     * @param numFeatures Number of features of each instance.
+     * @param values      Feature values, instance after instance.
+     */
+    public DenseRowStorage(final int numFeatures, final double[] values) {
+        super();
+        if (numFeatures <= 0 || values.length % numFeatures != 0) {
+            throw new IllegalArgumentException("The number of values (" + values.length
+                    + ") must be a multiple of the number of features (" + numFeatures + ").");
+        }
+        this.numFeatures = numFeatures;
+        this.values = values;
+    }
+
+    public int getSize() {
+        return values.length / numFeatures;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    public double getValue(final int instanceIndex, final int featureIndex) {
+        return values[instanceIndex * numFeatures + featureIndex];
+    }
+
+    /**
+     * Create nodes for all the features of an instance, as LibSvmProblem does for dense data.
+     */
+    public svm_node[] getInstance(final int instanceIndex) {
+        final int offset = instanceIndex * numFeatures;
+        final svm_node[] nodes = new svm_node[numFeatures];
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            nodes[featureIndex] = new svm_node();
+            nodes[featureIndex].index = featureIndex;
+            nodes[featureIndex].value = values[offset + featureIndex];
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns a scaled view of some instances. Values are scaled when they are read.
+     */
+    public FeatureStorage scale(final FeatureScaler scaler, final int[] instanceIndices) {
+        return new ScaledStorage(this, instanceIndices, scaler);
+    }
+
+    public double dot(final int instanceIndex, final int otherInstanceIndex) {
+        return LibSvmUtils.dot(values, instanceIndex * numFeatures,
+                values, otherInstanceIndex * numFeatures, numFeatures);
+    }
+
+    public double kernel(final int instanceIndex, final int otherInstanceIndex,
+                         final double squaredNorm, final double otherSquaredNorm,
+                         final svm_parameter parameters) {
+        return LibSvmUtils.kernel(dot(instanceIndex, otherInstanceIndex), squaredNorm, otherSquaredNorm, parameters);
+    }
+}
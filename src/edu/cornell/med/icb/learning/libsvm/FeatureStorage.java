@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.FeatureScaler;
+import libsvm.svm_node;
+
+/**
+ * Stores the feature values of the instances of a LibSvmProblem in primitive arrays, instead
+ * of one svm_node object per value. Features are indexed from zero to getNumFeatures()-1.
+ * libsvm nodes are only created when an instance is requested, for training or prediction.
+ * Storages are read-only.
+ *
+ * @author Fabien Campagne
+ * @see LibSvmProblem#LibSvmProblem(FeatureStorage, double[])
+ */
+public interface FeatureStorage {
+    /**
+     * Returns the number of instances in this storage.
+     *
+     * @return the number of instances.
+     */
+    int getSize();
+
+    /**
+     * Returns the number of features of the instances.
+     *
+     * @return one more than the largest feature index.
+     */
+    int getNumFeatures();
+
+    /**
+     * Returns the value of a feature for an instance.
+     *
+     * @param instanceIndex Index of the instance.
+     * @param featureIndex  Index of the feature.
+     * @return The feature value, zero when the value is not stored.
+     */
+    double getValue(int instanceIndex, int featureIndex);
+
+    /**
+     * Create libsvm nodes for the features of an instance.
+     *
+     * @param instanceIndex Index of the instance.
+     * @return new nodes, sorted by increasing feature index. Nodes may be omitted for
+     *         features whose value is zero.
+     */
+    svm_node[] getInstance(int instanceIndex);
+
+    /**
+     * Returns a storage with some instances of this storage, where features have been scaled.
+     * Dense storages return a {@link ScaledStorage} view, which scales values when they are
+     * read; sparse storages return a scaled copy with the same representation.
+     *
+     * @param scaler          Scaler, trained when scaling a test set.
+     * @param instanceIndices Instances to scale, in the order of the new storage.
+     * @return a storage with scaled features.
+     */
+    FeatureStorage scale(FeatureScaler scaler, int[] instanceIndices);
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import libsvm.svm_parameter;
+
+/**
+ * A feature storage which evaluates kernels between its instances directly over its arrays,
+ * without creating libsvm nodes. Used by LibSvmClassifier to precompute kernel matrices.
+ *
+ * @author Fabien Campagne
+ */
+public interface KernelStorage extends FeatureStorage {
+    /**
+     * Calculate the dot product of two stored instances.
+     *
+     * @param instanceIndex      first instance
+     * @param otherInstanceIndex second instance
+     * @return dot product, accumulated in double precision.
+     */
+    double dot(int instanceIndex, int otherInstanceIndex);
+
+    /**
+     * Evaluate the kernel function of libsvm parameters between two stored instances.
+     *
+     * @param instanceIndex      first instance
+     * @param otherInstanceIndex second instance
+     * @param squaredNorm        dot product of the first instance with itself, only used by
+     *                           the RBF kernel.
+     * @param otherSquaredNorm   dot product of the second instance with itself.
+     * @param parameters         libsvm parameters which define the kernel.
+     * @return value of the kernel.
+     */
+    double kernel(int instanceIndex, int otherInstanceIndex, double squaredNorm,
+                  double otherSquaredNorm, svm_parameter parameters);
+}
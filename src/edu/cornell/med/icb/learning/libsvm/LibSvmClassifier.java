@@ -18,6 +18,7 @@
 
 package edu.cornell.med.icb.learning.libsvm;
 
+import edu.cornell.med.icb.learning.BatchPrediction;
 import edu.cornell.med.icb.learning.ClassificationModel;
 import edu.cornell.med.icb.learning.ClassificationParameters;
 import edu.cornell.med.icb.learning.ClassificationProblem;
@@ -25,11 +26,19 @@ import edu.cornell.med.icb.learning.Classifier;
 import libsvm.svm;
 import libsvm.svm_model;
 import libsvm.svm_node;
+import libsvm.svm_parameter;
 import libsvm.svm_problem;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 /**
  * @author Fabien Campagne Date: Nov 20, 2007 Time: 5:24:27 PM
  */
@@ -38,6 +47,13 @@ public class LibSvmClassifier implements Classifier {
 
     private static final Log LOG = LogFactory.getLog(LibSvmClassifier.class);
 
+    /**
+     * Number of rows and columns in the blocks of the kernel matrix computed by one task.
+     */
+    private static final int KERNEL_BLOCK_SIZE = 128;
+
+    private ExecutorService executorService;
+
     public LibSvmClassifier() {
         super();
         this.parameters = new LibSvmParameters();
@@ -45,7 +61,275 @@ public class LibSvmClassifier implements Classifier {
 
     public ClassificationModel train(final ClassificationProblem problem) {
         final svm_problem nativeProblem = getNativeProblem(problem);
-        return new LibSvmModel(svm.svm_train(nativeProblem, parameters.getNative()));
+        return new LibSvmModel(svm.svm_train(nativeProblem, getNativeParameters(problem)));
+    }
+
+    /**
+     * Return the native parameters to train with on the problem. Problems made of precomputed
+     * kernel rows are trained with a copy of the parameters set to the PRECOMPUTED kernel.
+     */
+    private svm_parameter getNativeParameters(final ClassificationProblem problem) {
+        if (((LibSvmProblem) problem).isPrecomputedKernel()) {
+            final svm_parameter precomputedParameters = (svm_parameter) parameters.getNative().clone();
+            precomputedParameters.kernel_type = svm_parameter.PRECOMPUTED;
+            return precomputedParameters;
+        } else {
+            return parameters.getNative();
+        }
+    }
+
+    /**
+     * Set the executor service used to compute kernel matrices and batch predictions in
+     * parallel. When no executor service is set, both are computed on the calling thread.
+     * Copies of this classifier do not share the executor service.
+     *
+     * @param executorService Executor that will compute blocks of the kernel matrix and chunks
+     *                        of batch predictions. This class does not shut it down.
+     */
+    public void setExecutorService(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Compute the kernel matrix between all the instances of a problem, with the kernel defined
+     * by the current parameters. The matrix is returned as a problem in the libsvm PRECOMPUTED
+     * format. Subsets of this problem (e.g., the training and test sets of cross-validation folds)
+     * are trained and predicted with the precomputed kernel values, so that kernel values are
+     * calculated once instead of once per fold and repeat. Features must be scaled before the
+     * kernel matrix is computed: the returned problem can only be scaled by FeatureScaler or
+     * NoScalingFeatureScaler, which leave kernel values unchanged, and other scalers throw an
+     * IllegalStateException. This is equivalent to training on features when scaling is global.
+     *
+     * @param problem Problem with feature vectors.
+     * @return Problem where instance i is row i of the kernel matrix.
+     */
+    public LibSvmProblem precomputeKernel(final ClassificationProblem problem) {
+        final LibSvmProblem libSvmProblem = (LibSvmProblem) problem;
+        if (libSvmProblem.isPrecomputedKernel()) {
+            throw new IllegalArgumentException("The kernel of this problem was already precomputed.");
+        }
+        libSvmProblem.prepareNative();
+        final InstanceKernel kernel = createKernel(libSvmProblem, parameters.getNative());
+        final int size = problem.getSize();
+        final svm_node[][] rows = new svm_node[size][size + 1];
+        final double[] labels = new double[size];
+        for (int i = 0; i < size; i++) {
+            rows[i][0] = new svm_node();
+            rows[i][0].index = 0;
+            rows[i][0].value = i + 1;   // serial number of the instance, starting at 1.
+            labels[i] = problem.getLabel(i);
+        }
+
+        // the matrix is symmetric: each block of the upper triangle is stored in both triangles.
+        // Blocks write to distinct cells and can be computed in parallel.
+        if (executorService == null) {
+            for (int rowStart = 0; rowStart < size; rowStart += KERNEL_BLOCK_SIZE) {
+                for (int columnStart = rowStart; columnStart < size; columnStart += KERNEL_BLOCK_SIZE) {
+                    computeKernelBlock(kernel, rows, rowStart, columnStart);
+                }
+            }
+        } else {
+            final List<Callable<Void>> blocks = new ArrayList<Callable<Void>>();
+            for (int rowStart = 0; rowStart < size; rowStart += KERNEL_BLOCK_SIZE) {
+                for (int columnStart = rowStart; columnStart < size; columnStart += KERNEL_BLOCK_SIZE) {
+                    final int blockRowStart = rowStart;
+                    final int blockColumnStart = columnStart;
+                    blocks.add(new Callable<Void>() {
+                        public Void call() {
+                            computeKernelBlock(kernel, rows, blockRowStart, blockColumnStart);
+                            return null;
+                        }
+                    });
+                }
+            }
+            try {
+                for (final Future<Void> future : executorService.invokeAll(blocks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while computing the kernel matrix.", e);
+            } catch (ExecutionException e) {
+                LOG.error("Unable to compute the kernel matrix", e.getCause());
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        final svm_problem kernelProblem = new svm_problem();
+        kernelProblem.l = size;
+        kernelProblem.x = rows;
+        kernelProblem.y = labels;
+        return new LibSvmProblem(kernelProblem, true);
+    }
+
+    /**
+     * Evaluates the kernel between instances of a problem.
+     */
+    private abstract static class InstanceKernel {
+        final svm_parameter kernelParameters;
+        final double[] squaredNorms;
+
+        InstanceKernel(final svm_parameter kernelParameters, final int size) {
+            this(kernelParameters, new double[size]);
+        }
+
+        InstanceKernel(final svm_parameter kernelParameters, final double[] squaredNorms) {
+            super();
+            this.kernelParameters = kernelParameters;
+            this.squaredNorms = squaredNorms;
+        }
+
+        int getSize() {
+            return squaredNorms.length;
+        }
+
+        abstract double evaluate(int instanceIndex, int otherInstanceIndex);
+
+        /**
+         * Returns a kernel which evaluates the instances of one block of the matrix, rows
+         * [rowStart, rowEnd[ and columns [columnStart, columnEnd[. This implementation returns
+         * this kernel.
+         */
+        InstanceKernel forBlock(final int rowStart, final int rowEnd, final int columnStart, final int columnEnd) {
+            return this;
+        }
+    }
+
+    /**
+     * Create a kernel over the instances of a problem. Instances held in a kernel storage
+     * (e.g., dense rows) are evaluated over its arrays, other instances over their libsvm nodes.
+     * Instances of a scaled view are scaled once per block of the matrix, rather than once per
+     * kernel value.
+     */
+    private static InstanceKernel createKernel(final LibSvmProblem problem,
+                                               final svm_parameter kernelParameters) {
+        final int size = problem.getSize();
+        if (problem.getStorage() instanceof ScaledStorage) {
+            final ScaledStorage storage = (ScaledStorage) problem.getStorage();
+            final int[] storageIndices = new int[size];
+            final InstanceKernel kernel = new InstanceKernel(kernelParameters, size) {
+                @Override
+                double evaluate(final int instanceIndex, final int otherInstanceIndex) {
+                    return storage.kernel(storageIndices[instanceIndex], storageIndices[otherInstanceIndex],
+                            squaredNorms[instanceIndex], squaredNorms[otherInstanceIndex], this.kernelParameters);
+                }
+
+                @Override
+                InstanceKernel forBlock(final int rowStart, final int rowEnd,
+                                        final int columnStart, final int columnEnd) {
+                    return new ScaledBlockKernel(this, storage, storageIndices, rowStart, rowEnd,
+                            columnStart, columnEnd);
+                }
+            };
+            final double[] row = new double[storage.getNumFeatures()];
+            for (int i = 0; i < size; i++) {
+                storageIndices[i] = problem.getStorageIndex(i);
+                storage.getRow(storageIndices[i], row);
+                kernel.squaredNorms[i] = LibSvmUtils.dot(row, 0, row, 0, row.length);
+            }
+            return kernel;
+        } else if (problem.getStorage() instanceof KernelStorage) {
+            final KernelStorage storage = (KernelStorage) problem.getStorage();
+            final int[] storageIndices = new int[size];
+            final InstanceKernel kernel = new InstanceKernel(kernelParameters, size) {
+                @Override
+                double evaluate(final int instanceIndex, final int otherInstanceIndex) {
+                    return storage.kernel(storageIndices[instanceIndex], storageIndices[otherInstanceIndex],
+                            squaredNorms[instanceIndex], squaredNorms[otherInstanceIndex], this.kernelParameters);
+                }
+            };
+            for (int i = 0; i < size; i++) {
+                storageIndices[i] = problem.getStorageIndex(i);
+                kernel.squaredNorms[i] = storage.dot(storageIndices[i], storageIndices[i]);
+            }
+            return kernel;
+        } else {
+            final svm_node[][] instances = new svm_node[size][];
+            final InstanceKernel kernel = new InstanceKernel(kernelParameters, size) {
+                @Override
+                double evaluate(final int instanceIndex, final int otherInstanceIndex) {
+                    return LibSvmUtils.kernel(instances[instanceIndex], instances[otherInstanceIndex],
+                            squaredNorms[instanceIndex], squaredNorms[otherInstanceIndex], this.kernelParameters);
+                }
+            };
+            for (int i = 0; i < size; i++) {
+                instances[i] = problem.getInstance(i);
+                kernel.squaredNorms[i] = LibSvmUtils.dot(instances[i], instances[i]);
+            }
+            return kernel;
+        }
+    }
+
+    /**
+     * Evaluates the kernel over the instances of one block of the matrix, from scaled copies of
+     * the instances of its rows and columns: about 2 * KERNEL_BLOCK_SIZE * numFeatures doubles
+     * per block being computed.
+     */
+    private static final class ScaledBlockKernel extends InstanceKernel {
+        private final int rowStart;
+        private final int columnStart;
+        private final int numFeatures;
+        private final double[][] scaledRows;
+        private final double[][] scaledColumns;
+
+        ScaledBlockKernel(final InstanceKernel kernel, final ScaledStorage storage, final int[] storageIndices,
+                          final int rowStart, final int rowEnd, final int columnStart, final int columnEnd) {
+            super(kernel.kernelParameters, kernel.squaredNorms);
+            this.rowStart = rowStart;
+            this.columnStart = columnStart;
+            this.numFeatures = storage.getNumFeatures();
+            scaledRows = scaleInstances(storage, storageIndices, rowStart, rowEnd);
+            // diagonal blocks have the same instances in rows and columns:
+            scaledColumns = columnStart == rowStart ? scaledRows
+                    : scaleInstances(storage, storageIndices, columnStart, columnEnd);
+        }
+
+        private static double[][] scaleInstances(final ScaledStorage storage, final int[] storageIndices,
+                                                 final int start, final int end) {
+            final double[][] instances = new double[end - start][storage.getNumFeatures()];
+            for (int i = start; i < end; i++) {
+                storage.getRow(storageIndices[i], instances[i - start]);
+            }
+            return instances;
+        }
+
+        @Override
+        double evaluate(final int instanceIndex, final int otherInstanceIndex) {
+            final double dotProduct = LibSvmUtils.dot(scaledRows[instanceIndex - rowStart], 0,
+                    scaledColumns[otherInstanceIndex - columnStart], 0, numFeatures);
+            return LibSvmUtils.kernel(dotProduct, squaredNorms[instanceIndex], squaredNorms[otherInstanceIndex],
+                    kernelParameters);
+        }
+    }
+
+    private static void computeKernelBlock(final InstanceKernel kernel, final svm_node[][] rows,
+                                           final int rowStart, final int columnStart) {
+        final int rowEnd = Math.min(rowStart + KERNEL_BLOCK_SIZE, kernel.getSize());
+        final int columnEnd = Math.min(columnStart + KERNEL_BLOCK_SIZE, kernel.getSize());
+        final InstanceKernel blockKernel = kernel.forBlock(rowStart, rowEnd, columnStart, columnEnd);
+        for (int i = rowStart; i < rowEnd; i++) {
+            // on diagonal blocks, only compute the upper triangle:
+            for (int j = Math.max(columnStart, i); j < columnEnd; j++) {
+                final double value = blockKernel.evaluate(i, j);
+                rows[i][j + 1] = new svm_node();
+                rows[i][j + 1].index = j + 1;
+                rows[i][j + 1].value = value;
+                if (i != j) {
+                    rows[j][i + 1] = new svm_node();
+                    rows[j][i + 1].index = i + 1;
+                    rows[j][i + 1].value = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the nodes of an instance. Unlike getNativeProblem, this does not create the
+     * native problem of views.
+     */
+    private svm_node[] getInstance(final ClassificationProblem problem, final int instanceIndex) {
+        assert problem instanceof LibSvmProblem;
+        return ((LibSvmProblem) problem).getInstance(instanceIndex);
     }
 
     private svm_problem getNativeProblem(final ClassificationProblem problem) {
@@ -56,7 +340,7 @@ public class LibSvmClassifier implements Classifier {
 
     public double predict(final ClassificationModel trainingModel, final ClassificationProblem problem,
                           final int instanceIndex) {
-        return svm.svm_predict(getNativeModel(trainingModel), getNativeProblem(problem).x[instanceIndex]);
+        return svm.svm_predict(getNativeModel(trainingModel), getInstance(problem, instanceIndex));
     }
 
     public double predict(final ClassificationModel trainingModel, final ClassificationProblem problem,
@@ -65,13 +349,13 @@ public class LibSvmClassifier implements Classifier {
         final svm_model model = getNativeModel(trainingModel);
         if (svm.svm_check_probability_model(model) == 1) {
             LOG.debug("estimating probabilities");
-            final svm_problem nativeProblem = getNativeProblem(problem);
+            final svm_node[] instance = getInstance(problem, instanceIndex);
             if (LOG.isTraceEnabled()) {
-                printNodes(instanceIndex, nativeProblem);
+                printNodes(instance);
             }
             // the SVM was trained to estimate probabilities. Return estimated probabilities.
             final double decision = svm.svm_predict_probability(getNativeModel(trainingModel),
-                    nativeProblem.x[instanceIndex],
+                    instance,
                     probabilities);
             if (LOG.isDebugEnabled()) {
                 LOG.debug("decision values: " + ArrayUtils.toString(probabilities));
@@ -81,17 +365,17 @@ public class LibSvmClassifier implements Classifier {
             // Regular SVM was not trained to estimate probability. Report the decision function in place of estimated
             // probabilities.
             LOG.debug("substituting decision values for probabilities. The SVM was not trained to estimate probabilities.");
-            final svm_problem nativeProblem = getNativeProblem(problem);
+            final svm_node[] instance = getInstance(problem, instanceIndex);
             if (LOG.isTraceEnabled()) {
-                printNodes(instanceIndex, nativeProblem);
+                printNodes(instance);
             }
-            svm.svm_predict_values(getNativeModel(trainingModel), nativeProblem.x[instanceIndex], probabilities);
+            svm.svm_predict_values(getNativeModel(trainingModel), instance, probabilities);
             probabilities[0] = Math.abs(probabilities[0]);
             probabilities[1] = Double.NEGATIVE_INFINITY; // make sure probs[0] is max of the two values.
             if (LOG.isDebugEnabled()) {
                 LOG.debug("decision values: " + ArrayUtils.toString(probabilities));
             }
-            final double decision = svm.svm_predict(getNativeModel(trainingModel), getNativeProblem(problem).x[instanceIndex]);
+            final double decision = svm.svm_predict(getNativeModel(trainingModel), getInstance(problem, instanceIndex));
             if (LOG.isDebugEnabled()) {
                 LOG.debug("decision: " + decision);
             }
@@ -100,8 +384,31 @@ public class LibSvmClassifier implements Classifier {
         }
     }
 
-    private void printNodes(final int instanceIndex, final svm_problem nativeProblem) {
-        for (final svm_node node : nativeProblem.x[instanceIndex]) {
+    /**
+     * Predict several instances of a problem. The native model is only read during prediction,
+     * so chunks of the batch share it.
+     */
+    public void predictBatch(final ClassificationModel trainingModel, final ClassificationProblem problem,
+                             final int[] instanceIndices, final double[] decisions,
+                             final double[][] probabilities) {
+        final svm_model model = getNativeModel(trainingModel);
+        BatchPrediction.predict(executorService, instanceIndices.length,
+                Runtime.getRuntime().availableProcessors(), new BatchPrediction.Chunk() {
+                    public void predict(final int start, final int end) {
+                        for (int i = start; i < end; i++) {
+                            if (probabilities == null) {
+                                decisions[i] = svm.svm_predict(model, getInstance(problem, instanceIndices[i]));
+                            } else {
+                                decisions[i] = LibSvmClassifier.this.predict(trainingModel, problem,
+                                        instanceIndices[i], probabilities[i]);
+                            }
+                        }
+                    }
+                });
+    }
+
+    private void printNodes(final svm_node[] instance) {
+        for (final svm_node node : instance) {
             if (LOG.isTraceEnabled()) {
                 LOG.trace(String.format("feature index: %d value: %f", node.index, node.value));
             }
@@ -116,6 +423,16 @@ public class LibSvmClassifier implements Classifier {
         return "libSVM";
     }
 
+    /**
+     * Returns a classifier with a copy of the parameters of this classifier, so that
+     * parameters set on one classifier do not change the other.
+     */
+    public Classifier copy() {
+        final LibSvmClassifier copy = new LibSvmClassifier();
+        copy.setParameters(parameters.copy());
+        return copy;
+    }
+
     private svm_model getNativeModel(final ClassificationModel trainingModel) {
         assert trainingModel instanceof LibSvmModel;
         return ((LibSvmModel) trainingModel).nativeModel;
@@ -80,6 +80,27 @@ public class LibSvmParameters extends ClassificationParameters {
         return nativeParameters;
     }
 
+    /**
+     * Returns a copy of these parameters. Changes to the copy do not change these parameters.
+     *
+     * @return new parameters with the same values and exposed parameter names.
+     */
+    public LibSvmParameters copy() {
+        final svm_parameter copiedParameters = (svm_parameter) nativeParameters.clone();
+        // clone() shares the weight arrays:
+        if (nativeParameters.weight_label != null) {
+            copiedParameters.weight_label = nativeParameters.weight_label.clone();
+        }
+        if (nativeParameters.weight != null) {
+            copiedParameters.weight = nativeParameters.weight.clone();
+        }
+        final LibSvmParameters copy = new LibSvmParameters(copiedParameters);
+        for (final String parameterName : getExposedParameterNames()) {
+            copy.registerExposedParameter(parameterName);
+        }
+        return copy;
+    }
+
     @Override
     public void setParameter(final String parameterName, final double value) {
         checkParameterRegistered(parameterName);
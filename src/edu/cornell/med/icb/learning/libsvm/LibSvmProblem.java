@@ -19,17 +19,21 @@
 package edu.cornell.med.icb.learning.libsvm;
 
 import edu.cornell.med.icb.learning.ClassificationProblem;
+import edu.cornell.med.icb.learning.FeatureColumns;
 import edu.cornell.med.icb.learning.FeatureScaler;
+import edu.cornell.med.icb.learning.FeatureSummary;
+import edu.cornell.med.icb.learning.InstanceSet;
+import edu.cornell.med.icb.learning.NoScalingFeatureScaler;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
-import it.unimi.dsi.fastutil.ints.IntArraySet;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectList;
 import libsvm.svm_node;
 import libsvm.svm_problem;
 
+import java.util.Arrays;
+
 /**
  * Represents a classification problem as a libSVM svm_problem instance.
  *
@@ -39,6 +43,23 @@ public class LibSvmProblem implements ClassificationProblem {
     svm_problem problem;
     ObjectList<svm_node[]> instanceList;
     DoubleList labelList;
+    /**
+     * When true, instances are rows of a precomputed kernel matrix in the libsvm PRECOMPUTED
+     * format: node 0 holds the 1-based serial number of the instance in the full matrix, node k
+     * the kernel value between the instance and instance k of the full matrix.
+     */
+    boolean precomputedKernel;
+    /**
+     * When not null, stores the features of the instances in primitive arrays. Nodes are
+     * created on demand and problem is never set.
+     */
+    private FeatureStorage storage;
+    private double[] labels;
+    /**
+     * Feature values by feature, created when a scaler first observes the features of this
+     * problem. Reset when features change.
+     */
+    private FeatureColumns columns;
 
     public LibSvmProblem() {
         super();
@@ -53,68 +74,229 @@ public class LibSvmProblem implements ClassificationProblem {
 
     }
 
+    public LibSvmProblem(final svm_problem reducedProblem, final boolean precomputedKernel) {
+        this(reducedProblem);
+        this.precomputedKernel = precomputedKernel;
+    }
+
+    /**
+     * Create a problem whose features are kept in a feature storage. Such problems are
+     * read-only, except for their labels.
+     *
+     * @param storage Features of the instances.
+     * @param labels  Label of each instance of the storage. The array is not copied.
+     */
+    public LibSvmProblem(final FeatureStorage storage, final double[] labels) {
+        super();
+        if (storage.getSize() != labels.length) {
+            throw new IllegalArgumentException("Storage and labels must have the same number of instances.");
+        }
+        this.storage = storage;
+        this.labels = labels;
+    }
+
+    /**
+     * Returns a copy of this problem where features are stored in compressed sparse rows.
+     * Zero values are dropped.
+     *
+     * @return a new problem backed by a {@link CompressedRowStorage}.
+     */
+    public LibSvmProblem compressRows() {
+        prepareNative();
+        final int size = getSize();
+        final CompressedRowStorage.Builder builder = new CompressedRowStorage.Builder(0);
+        final double[] compressedLabels = new double[size];
+        for (int i = 0; i < size; i++) {
+            for (final svm_node node : getInstance(i)) {
+                builder.add(node.index, node.value);
+            }
+            builder.endInstance();
+            compressedLabels[i] = getLabel(i);
+        }
+        return new LibSvmProblem(builder.build(), compressedLabels);
+    }
+
+    /**
+     * Returns a copy of this problem where features are stored in a dense row-major array.
+     * Features absent from an instance have the value zero.
+     *
+     * @return a new problem backed by a {@link DenseRowStorage}.
+     */
+    public LibSvmProblem toDenseRows() {
+        prepareNative();
+        final int size = getSize();
+        final int numFeatures = getDenseNumFeatures();
+        final double[] values = new double[size * numFeatures];
+        final double[] row = new double[numFeatures];
+        for (int i = 0; i < size; i++) {
+            getDenseRow(i, row);
+            System.arraycopy(row, 0, values, i * numFeatures, numFeatures);
+        }
+        return new LibSvmProblem(new DenseRowStorage(numFeatures, values), getLabels());
+    }
+
+    /**
+     * Returns a copy of this problem where features are stored in a dense row-major array of
+     * floats, which halves the memory of the problem and of its scaled copies. Values are
+     * rounded to float precision.
+     *
+     * @return a new problem backed by a {@link FloatRowStorage}.
+     */
+    public LibSvmProblem toFloatRows() {
+        prepareNative();
+        final int size = getSize();
+        final int numFeatures = getDenseNumFeatures();
+        final float[] values = new float[size * numFeatures];
+        final double[] row = new double[numFeatures];
+        for (int i = 0; i < size; i++) {
+            getDenseRow(i, row);
+            final int offset = i * numFeatures;
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                values[offset + featureIndex] = (float) row[featureIndex];
+            }
+        }
+        return new LibSvmProblem(new FloatRowStorage(numFeatures, values), getLabels());
+    }
+
+    /**
+     * Returns one more than the largest feature index of the instances.
+     */
+    private int getDenseNumFeatures() {
+        final FeatureStorage featureStorage = getStorage();
+        if (featureStorage != null) {
+            return featureStorage.getNumFeatures();
+        }
+        int numFeatures = 0;
+        final int size = getSize();
+        for (int i = 0; i < size; i++) {
+            for (final svm_node node : getInstance(i)) {
+                numFeatures = Math.max(numFeatures, node.index + 1);
+            }
+        }
+        return numFeatures;
+    }
+
+    /**
+     * Copy the values of all the features of an instance to row, including zeros.
+     */
+    private void getDenseRow(final int instanceIndex, final double[] row) {
+        final FeatureStorage featureStorage = getStorage();
+        if (featureStorage != null) {
+            final int storageIndex = getStorageIndex(instanceIndex);
+            for (int featureIndex = 0; featureIndex < row.length; featureIndex++) {
+                row[featureIndex] = featureStorage.getValue(storageIndex, featureIndex);
+            }
+        } else {
+            Arrays.fill(row, 0);
+            for (final svm_node node : getInstance(instanceIndex)) {
+                row[node.index] = node.value;
+            }
+        }
+    }
+
+    private double[] getLabels() {
+        final double[] copy = new double[getSize()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = getLabel(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the storage of the features of this problem.
+     *
+     * @return the storage, or null when instances are stored as svm_node arrays.
+     */
+    public FeatureStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Returns the index of an instance of this problem in its storage, or in the problem
+     * which stores it for views of problems without a storage.
+     */
+    int getStorageIndex(final int instanceIndex) {
+        return instanceIndex;
+    }
+
+    /**
+     * Whether the instances of this problem are rows of a precomputed kernel matrix.
+     *
+     * @return True for problems created by LibSvmClassifier.precomputeKernel and their subsets.
+     * @see LibSvmClassifier#precomputeKernel(ClassificationProblem)
+     */
+    public boolean isPrecomputedKernel() {
+        return precomputedKernel;
+    }
+
     public double getLabel(final int instanceIndex) {
+        if (storage != null) {
+            return labels[instanceIndex];
+        }
         assert problem != null : " Native problem must not be null.";
         return problem.y[instanceIndex];
     }
 
     public int getSize() {
-        if (problem != null) {
+        if (storage != null) {
+            return storage.getSize();
+        } else if (problem != null) {
             return problem.l;
         } else {
             return instanceList.size();
         }
     }
 
+    /**
+     * Returns the features of an instance, without materializing the native problem of views.
+     *
+     * @param instanceIndex Instance in the problem.
+     * @return libsvm nodes of the instance. These nodes are shared and must not be modified.
+     */
+    svm_node[] getInstance(final int instanceIndex) {
+        if (storage != null) {
+            return storage.getInstance(instanceIndex);
+        }
+        return problem != null ? problem.x[instanceIndex] : instanceList.get(instanceIndex);
+    }
+
+    /**
+     * Returns a read-only view of the instances in keepInstanceSet. No instance is copied.
+     */
     public ClassificationProblem filter(final IntSet keepInstanceSet) {
         prepareNative();
-        final svm_problem reducedProblem = new svm_problem();
-        reducedProblem.l = keepInstanceSet.size();                                 // number of records.
-        reducedProblem.x =
-                new svm_node[keepInstanceSet.size()][0];         // features.
-        reducedProblem.y =
-                new double[reducedProblem.l];                  // decision/label
-
-        int j = 0;
-        for (int i = 0; i < problem.x.length; i++) {
-            if (keepInstanceSet.contains(i)) {
-                reducedProblem.x[j] = problem.x[i];
-                reducedProblem.y[j] = problem.y[i];
-                j++;
-            }
+        final InstanceSet instances = InstanceSet.valueOf(keepInstanceSet);
+        final int[] rows = new int[instances.countBelow(getSize())];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = instances.get(i);
         }
-
-
-        return new LibSvmProblem(reducedProblem);
+        return new LibSvmProblemView(this, rows);
     }
 
+    /**
+     * Returns a read-only view of all the instances but one. No instance is copied.
+     */
     public ClassificationProblem exclude(final int instanceIndex) {
         prepareNative();
-        final svm_problem reducedProblem = new svm_problem();
-        reducedProblem.l = problem.l
-                - 1;                                 // number of records.
-        reducedProblem.x =
-                new svm_node[problem.x.length - 1][0];         // features.
-        reducedProblem.y =
-                new double[reducedProblem.l];                  // decision/label
-
-        System.arraycopy(problem.x, 0, reducedProblem.x, 0, Math.max(0, instanceIndex));
-        System.arraycopy(problem.x, instanceIndex + 1, reducedProblem.x, instanceIndex,
-                problem.l - instanceIndex - 1);
-
-        System.arraycopy(problem.y, 0, reducedProblem.y, 0, Math.max(0, instanceIndex));
-        System.arraycopy(problem.y, instanceIndex + 1, reducedProblem.y, instanceIndex,
-                problem.l - instanceIndex - 1);
-        return new LibSvmProblem(reducedProblem);
+        final int size = getSize();
+        final int[] rows = new int[size - 1];
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            if (i != instanceIndex) {
+                rows[j++] = i;
+            }
+        }
+        return new LibSvmProblemView(this, rows);
     }
 
     public ClassificationProblem filter(final int instanceIndex) {
-        final IntSet set = new IntArraySet();
-        set.add(instanceIndex);
-        return filter(set);
+        prepareNative();
+        return new LibSvmProblemView(this, new int[]{instanceIndex});
     }
 
     public void setInstance(final int instanceIndex, final double label, final double[] features) {
+        checkWritableFeatures();
+        columns = null;
         setLabel(instanceIndex, label);
         for (int featureIndex = 0; featureIndex < features.length; featureIndex++) {
 
@@ -125,7 +307,9 @@ public class LibSvmProblem implements ClassificationProblem {
     }
 
     public void setLabel(final int instanceIndex, final double label) {
-        if (problem != null) {
+        if (storage != null) {
+            labels[instanceIndex] = label;
+        } else if (problem != null) {
             problem.y[instanceIndex] = label;
         } else {
             labelList.set(instanceIndex, label);
@@ -135,17 +319,26 @@ public class LibSvmProblem implements ClassificationProblem {
     public void setFeature(final int instanceIndex,
                            final int featureIndex,
                            final double featureValue) {
+        checkWritableFeatures();
+        columns = null;
         final svm_node svm_node = getSvmNode(instanceIndex, featureIndex);
         svm_node.index = featureIndex;
         svm_node.value = featureValue;
     }
 
+    private void checkWritableFeatures() {
+        if (storage != null) {
+            throw new UnsupportedOperationException("Features of problems backed by a feature storage are read-only.");
+        }
+    }
+
     private svm_node getSvmNode(final int instanceIndex, final int featureIndex) {
         return problem != null ? problem.x[instanceIndex][featureIndex] :
                 instanceList.get(instanceIndex)[featureIndex];
     }
 
     public int addInstance(final int maxNumberOfFeatures) {
+        checkWritableFeatures();
         final svm_node[] newInstance = new svm_node[maxNumberOfFeatures];
         for (int i = 0; i < newInstance.length; i++) {
             newInstance[i] = new svm_node();
@@ -156,7 +349,7 @@ public class LibSvmProblem implements ClassificationProblem {
     }
 
     public void prepareNative() {
-        if (problem == null) {
+        if (problem == null && storage == null) {
             problem = new svm_problem();
             problem.x = instanceList.toArray(new svm_node[instanceList.size()][]);
             problem.l = instanceList.size();
@@ -172,83 +365,180 @@ public class LibSvmProblem implements ClassificationProblem {
      */
     public ClassificationProblem scaleTraining(final FeatureScaler scaler) {
         prepareNative();
-        final IntSet keepInstanceSet = new IntOpenHashSet();
-        for (int index = 0; index < this.problem.l; index++) {
-            keepInstanceSet.add(index);
-        }
-        return scaleFeatures(scaler, keepInstanceSet, true);
+        return scaleFeatures(scaler, InstanceSet.range(0, getSize()), true);
     }
 
     public ClassificationProblem scaleTestSet(final FeatureScaler scaler, final int testInstanceIndex) {
         prepareNative();
-        final IntSet instanceIndexSet = new IntArraySet();
-        instanceIndexSet.add(testInstanceIndex);
-        return scaleFeatures(scaler, instanceIndexSet, false);
+        return scaleFeatures(scaler, InstanceSet.singleton(testInstanceIndex), false);
     }
 
     public double[] featureValues(final int featureIndex, final IntSet keepInstanceSet) {
         prepareNative();
-        int instanceIndex = 0;
-        final DoubleList values = new DoubleArrayList();
-        for (final svm_node[] instance : this.problem.x) {
-            if (keepInstanceSet.contains(instanceIndex)) {
-                assert (instance[featureIndex].index == featureIndex) : "feature index must match at array index";
-                values.add(instance[featureIndex].value);
+        final InstanceSet instances = InstanceSet.valueOf(keepInstanceSet);
+        final double[] values = new double[instances.countBelow(getSize())];
+        final FeatureStorage featureStorage = getStorage();
+        if (featureStorage != null) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = featureStorage.getValue(getStorageIndex(instances.get(i)), featureIndex);
             }
-            instanceIndex++;
+            return values;
         }
-        return values.toDoubleArray();
+        for (int i = 0; i < values.length; i++) {
+            final svm_node[] instance = getInstance(instances.get(i));
+            assert (instance[featureIndex].index == featureIndex) : "feature index must match at array index";
+            values[i] = instance[featureIndex].value;
+        }
+        return values;
     }
 
 
     public ClassificationProblem scaleFeatures(final FeatureScaler scaler, final IntSet keepInstanceSet, final boolean training) {
         prepareNative();
+        if (precomputedKernel) {
+            // kernel values were calculated from features scaled once for the whole problem,
+            // scaling them again per training set would not preserve the kernel:
+            if (scaler.getClass() != FeatureScaler.class && !(scaler instanceof NoScalingFeatureScaler)) {
+                throw new IllegalStateException("The features of a precomputed kernel problem cannot be scaled by "
+                        + scaler.getClass().getName() + ", scale features before the kernel is precomputed.");
+            }
+            return filter(keepInstanceSet);
+        }
         final svm_problem reducedProblem = new svm_problem();
-        // observe each feature to accumulate statistics:
-        final int numFeatures = getNumFeatures(problem);
-
+        final InstanceSet instances = InstanceSet.valueOf(keepInstanceSet);
+        final int problemSize = instances.countBelow(getSize());
         if (training) {
-            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
-
-                scaler.observeFeatureForTraining(numFeatures, featureValues(featureIndex, keepInstanceSet), featureIndex);
+            // observe each feature to accumulate statistics:
+            final int numFeatures = getNumFeatures();
+            final FeatureColumns featureColumns = getColumns();
+            if (featureColumns != null) {
+                final int[] sourceIndices = new int[problemSize];
+                for (int j = 0; j < problemSize; j++) {
+                    sourceIndices[j] = getStorageIndex(instances.get(j));
+                }
+                scaler.observeFeaturesForTraining(numFeatures, featureColumns, sourceIndices);
+            } else {
+                for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                    scaler.observeFeatureForTraining(numFeatures, featureValues(featureIndex, instances), featureIndex);
+                }
             }
         }
 
-        final int problemSize = keepInstanceSet.size();
+        final FeatureStorage featureStorage = getStorage();
+        if (featureStorage != null) {
+            final int[] storageIndices = new int[problemSize];
+            final double[] scaledLabels = new double[problemSize];
+            for (int j = 0; j < problemSize; j++) {
+                final int i = instances.get(j);
+                storageIndices[j] = getStorageIndex(i);
+                scaledLabels[j] = getLabel(i);
+            }
+            return new LibSvmProblem(featureStorage.scale(scaler, storageIndices), scaledLabels);
+        }
         reducedProblem.l = problemSize;                                 // number of records.
         reducedProblem.x =
-                new svm_node[problemSize][numFeatures];         // features.
+                new svm_node[problemSize][];         // features.
         reducedProblem.y =
                 new double[reducedProblem.l];                  // decision/label
 
-        int j = 0;
-        for (int i = 0; i < problem.x.length; i++) {
-            if (keepInstanceSet.contains(i)) {
-                reducedProblem.x[j] = new svm_node[problem.x[i].length];
-                for (int k = 0; k < problem.x[i].length; k++) {
-
-                    final double featureValue = problem.x[i][k].value;
-                    int featureIndex = problem.x[i][k].index;
-                    reducedProblem.x[j][k] = new svm_node();
-                    reducedProblem.x[j][k].value = scaler.scaleFeatureValue(featureValue, featureIndex);
-                    reducedProblem.x[j][k].index = problem.x[i][k].index;
-                    reducedProblem.y[j] = problem.y[i];
-                    featureIndex++;
-                }
-                j++;
+        for (int j = 0; j < problemSize; j++) {
+            final int i = instances.get(j);
+            final svm_node[] instance = getInstance(i);
+            reducedProblem.x[j] = new svm_node[instance.length];
+            for (int k = 0; k < instance.length; k++) {
+                final double featureValue = instance[k].value;
+                final int featureIndex = instance[k].index;
+                reducedProblem.x[j][k] = new svm_node();
+                reducedProblem.x[j][k].value = scaler.scaleFeatureValue(featureValue, featureIndex);
+                reducedProblem.x[j][k].index = featureIndex;
             }
-
+            reducedProblem.y[j] = getLabel(i);
         }
 
         return new LibSvmProblem(reducedProblem);
     }
 
-    private int getNumFeatures(final svm_problem problem) {
+    public boolean observeForLeaveOneOut(final FeatureScaler scaler) {
+        // check first, so that columns are not built for kernel values or for scalers which do not use them:
+        if (precomputedKernel || !scaler.supportsLeaveOut()) {
+            return false;
+        }
+        prepareNative();
+        final FeatureColumns featureColumns = getColumns();
+        if (featureColumns == null) {
+            return false;
+        }
+        final int size = getSize();
+        final int[] sourceIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            sourceIndices[i] = getStorageIndex(i);
+        }
+        return scaler.observeForLeaveOneOut(getNumFeatures(), featureColumns, sourceIndices);
+    }
+
+    public FeatureSummary summarizeFeatures(final FeatureScaler scaler, final IntSet instances) {
+        // check first, so that columns are not built for kernel values or for scalers which do not use them:
+        if (precomputedKernel || !scaler.supportsSummaries()) {
+            return null;
+        }
+        prepareNative();
+        final FeatureColumns featureColumns = getColumns();
+        if (featureColumns == null) {
+            return null;
+        }
+        final InstanceSet instanceSet = InstanceSet.valueOf(instances);
+        final int[] sourceIndices = new int[instanceSet.countBelow(getSize())];
+        for (int j = 0; j < sourceIndices.length; j++) {
+            sourceIndices[j] = getStorageIndex(instanceSet.get(j));
+        }
+        return scaler.summarize(getNumFeatures(), featureColumns, sourceIndices);
+    }
+
+    /**
+     * Returns the feature values of the instances of the problem which stores the instances,
+     * by feature. Columns of dense storages read the stored rows and are not kept. Other
+     * columns are copied on the first call, about 20 bytes per non-zero value, and kept until
+     * features change. Instance i of this problem is instance getStorageIndex(i) of the
+     * columns.
+     *
+     * @return the columns, or null for problems mapped from a file, whose values are not
+     *         copied to the heap.
+     */
+    synchronized FeatureColumns getColumns() {
+        if (storage instanceof KernelStorage) {
+            final FeatureStorage rows = storage;
+            return FeatureColumns.fromRows(rows.getSize(), rows.getNumFeatures(), new FeatureColumns.Values() {
+                public double getValue(final int instanceIndex, final int featureIndex) {
+                    return rows.getValue(instanceIndex, featureIndex);
+                }
+            });
+        }
+        if (columns == null && !(storage instanceof MappedStorage)) {
+            prepareNative();
+            final FeatureColumns.Builder builder = new FeatureColumns.Builder();
+            final int size = getSize();
+            for (int i = 0; i < size; i++) {
+                for (final svm_node node : getInstance(i)) {
+                    builder.add(node.index, node.value);
+                }
+                builder.endInstance();
+            }
+            columns = builder.build();
+        }
+        return columns;
+    }
+
+    private int getNumFeatures() {
+        final FeatureStorage featureStorage = getStorage();
+        if (featureStorage != null) {
+            return featureStorage.getNumFeatures();
+        }
         int maxFeatureIndex = Integer.MIN_VALUE;
         int minFeatureIndex = Integer.MAX_VALUE;
 
-        for (final svm_node[] instance : problem.x) {
-            for (final svm_node feature : instance) {
+        final int size = getSize();
+        for (int i = 0; i < size; i++) {
+            for (final svm_node feature : getInstance(i)) {
                 maxFeatureIndex = Math.max(maxFeatureIndex, feature.index);
                 minFeatureIndex = Math.min(minFeatureIndex, feature.index);
             }
@@ -256,16 +546,44 @@ public class LibSvmProblem implements ClassificationProblem {
         return maxFeatureIndex - minFeatureIndex + 1;
     }
 
+    /**
+     * Returns the native libsvm problem. Problems backed by a feature storage create a new
+     * native problem on each call, which is not kept to save memory. The native problem copies
+     * every stored value into an svm_node, about 32 bytes per value, so each concurrent caller
+     * holds such a copy of the instances until it releases the problem. Models trained on it
+     * keep the nodes of their support vectors.
+     *
+     * @return native libsvm problem.
+     */
     public svm_problem getNative() {
+        if (storage != null) {
+            final svm_problem nativeProblem = new svm_problem();
+            nativeProblem.l = storage.getSize();
+            nativeProblem.x = new svm_node[nativeProblem.l][];
+            for (int i = 0; i < nativeProblem.l; i++) {
+                nativeProblem.x[i] = storage.getInstance(i);
+            }
+            nativeProblem.y = labels.clone();
+            return nativeProblem;
+        }
         prepareNative();
         return problem;
     }
 
+    /**
+     * Returns the feature values of an instance. For problems backed by a feature storage,
+     * the values of all the features are returned, including zeros.
+     */
     public double[] getFeatures(final int instanceIndex) {
+        final FeatureStorage featureStorage = getStorage();
+        if (featureStorage != null) {
+            final double[] features = new double[featureStorage.getNumFeatures()];
+            getDenseRow(instanceIndex, features);
+            return features;
+        }
 
         final DoubleList features = new DoubleArrayList();
-        final svm_node[] instance = (problem != null) ? this.problem.x[instanceIndex] : instanceList.get(instanceIndex);
-        for (final svm_node feature : instance) {
+        for (final svm_node feature : getInstance(instanceIndex)) {
             features.add(feature.value);
         }
 
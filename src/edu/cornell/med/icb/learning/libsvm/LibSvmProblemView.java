@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.FeatureColumns;
+import libsvm.svm_node;
+import libsvm.svm_problem;
+
+/**
+ * A read-only subset of the instances of a LibSvmProblem. Instance i of the view is instance
+ * rows[i] of the source problem. Views of views map directly to the source problem. The
+ * native svm_problem of a view is only created when libsvm needs it, and shares the feature
+ * nodes of the source problem.
+ *
+ * @author Fabien Campagne
+ */
+public class LibSvmProblemView extends LibSvmProblem {
+    /**
+     * Problem which stores the instances. Never a view.
+     */
+    private final LibSvmProblem source;
+    private final int[] rows;
+
+    /**
+     * Create a view of some instances of a problem.
+     *
+     * @param problem Problem to view. May be a view itself.
+     * @param rows    Indices of the instances of problem, in the order of the view.
+     */
+    LibSvmProblemView(final LibSvmProblem problem, final int[] rows) {
+        super(null, problem.precomputedKernel);
+        if (problem instanceof LibSvmProblemView) {
+            final LibSvmProblemView view = (LibSvmProblemView) problem;
+            this.source = view.source;
+            this.rows = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                this.rows[i] = view.rows[rows[i]];
+            }
+        } else {
+            this.source = problem;
+            this.rows = rows;
+        }
+    }
+
+    @Override
+    public double getLabel(final int instanceIndex) {
+        return source.getLabel(rows[instanceIndex]);
+    }
+
+    @Override
+    public int getSize() {
+        return rows.length;
+    }
+
+    @Override
+    svm_node[] getInstance(final int instanceIndex) {
+        return source.getInstance(rows[instanceIndex]);
+    }
+
+    @Override
+    public FeatureStorage getStorage() {
+        return source.getStorage();
+    }
+
+    @Override
+    int getStorageIndex(final int instanceIndex) {
+        return rows[instanceIndex];
+    }
+
+    @Override
+    FeatureColumns getColumns() {
+        return source.getColumns();
+    }
+
+    @Override
+    public void prepareNative() {
+        // nothing to prepare, the source problem stores the instances.
+    }
+
+    /**
+     * Create the native problem of this view. When the source problem stores native
+     * instances, the arrays of instances and labels are allocated on the first call and
+     * feature nodes are shared with the source problem. When the source problem is backed by
+     * a feature storage, the nodes are created from the storage on each call and are not
+     * kept, as for the source problem itself.
+     *
+     * @return native libsvm problem.
+     */
+    @Override
+    public synchronized svm_problem getNative() {
+        if (source.getStorage() != null) {
+            return createNative();
+        }
+        if (problem == null) {
+            problem = createNative();
+        }
+        return problem;
+    }
+
+    private svm_problem createNative() {
+        final svm_problem nativeProblem = new svm_problem();
+        nativeProblem.l = rows.length;
+        nativeProblem.x = new svm_node[rows.length][];
+        nativeProblem.y = new double[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            nativeProblem.x[i] = source.getInstance(rows[i]);
+            nativeProblem.y[i] = source.getLabel(rows[i]);
+        }
+        return nativeProblem;
+    }
+
+    @Override
+    public void setInstance(final int instanceIndex, final double label, final double[] features) {
+        throw new UnsupportedOperationException("Problem views are read-only.");
+    }
+
+    @Override
+    public void setLabel(final int instanceIndex, final double label) {
+        throw new UnsupportedOperationException("Problem views are read-only.");
+    }
+
+    @Override
+    public void setFeature(final int instanceIndex, final int featureIndex, final double featureValue) {
+        throw new UnsupportedOperationException("Problem views are read-only.");
+    }
+
+    @Override
+    public int addInstance(final int maxNumberOfFeatures) {
+        throw new UnsupportedOperationException("Problem views are read-only.");
+    }
+}
@@ -51,4 +51,105 @@ public class LibSvmUtils {
             return null;
         }
     }
+
+    /**
+     * Calculate the dot product of two sparse vectors. Nodes must be sorted by increasing
+     * feature index, as libsvm requires.
+     */
+    public static double dot(final svm_node[] x, final svm_node[] y) {
+        double sum = 0;
+        int i = 0;
+        int j = 0;
+        while (i < x.length && j < y.length) {
+            if (x[i].index == y[j].index) {
+                sum += x[i++].value * y[j++].value;
+            } else if (x[i].index > y[j].index) {
+                j++;
+            } else {
+                i++;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Calculate the dot product of two dense vectors stored in arrays.
+     *
+     * @param x       array with the first vector
+     * @param xOffset position of the first vector in x
+     * @param y       array with the second vector
+     * @param yOffset position of the second vector in y
+     * @param length  number of elements of the vectors
+     * @return dot product.
+     */
+    public static double dot(final double[] x, final int xOffset, final double[] y, final int yOffset,
+                             final int length) {
+        double sum = 0;
+        for (int k = 0; k < length; k++) {
+            sum += x[xOffset + k] * y[yOffset + k];
+        }
+        return sum;
+    }
+
+    /**
+     * Evaluate the kernel function of libsvm parameters between two instances.
+     *
+     * @param x            first instance
+     * @param y            second instance
+     * @param xSquaredNorm dot(x, x), only used by the RBF kernel.
+     * @param ySquaredNorm dot(y, y), only used by the RBF kernel.
+     * @param parameters   libsvm parameters which define the kernel.
+     * @return value of the kernel.
+     */
+    public static double kernel(final svm_node[] x, final svm_node[] y,
+                                final double xSquaredNorm, final double ySquaredNorm,
+                                final svm_parameter parameters) {
+        return kernel(dot(x, y), xSquaredNorm, ySquaredNorm, parameters);
+    }
+
+    /**
+     * Calculate the dot product of two dense single precision vectors stored in arrays.
+     * Products are accumulated in double precision.
+     *
+     * @param x       array with the first vector
+     * @param xOffset position of the first vector in x
+     * @param y       array with the second vector
+     * @param yOffset position of the second vector in y
+     * @param length  number of elements of the vectors
+     * @return dot product.
+     */
+    public static double dot(final float[] x, final int xOffset, final float[] y, final int yOffset,
+                             final int length) {
+        double sum = 0;
+        for (int k = 0; k < length; k++) {
+            sum += (double) x[xOffset + k] * y[yOffset + k];
+        }
+        return sum;
+    }
+
+    /**
+     * Evaluate the kernel function of libsvm parameters from the dot product of two instances.
+     *
+     * @param dotProduct   dot product of the two instances.
+     * @param xSquaredNorm dot product of the first instance with itself, only used by the RBF kernel.
+     * @param ySquaredNorm dot product of the second instance with itself, only used by the RBF kernel.
+     * @param parameters   libsvm parameters which define the kernel.
+     * @return value of the kernel.
+     */
+    public static double kernel(final double dotProduct, final double xSquaredNorm,
+                                final double ySquaredNorm, final svm_parameter parameters) {
+        switch (parameters.kernel_type) {
+            case svm_parameter.LINEAR:
+                return dotProduct;
+            case svm_parameter.POLY:
+                return Math.pow(parameters.gamma * dotProduct + parameters.coef0, parameters.degree);
+            case svm_parameter.RBF:
+                return Math.exp(-parameters.gamma * (xSquaredNorm + ySquaredNorm - 2 * dotProduct));
+            case svm_parameter.SIGMOID:
+                return Math.tanh(parameters.gamma * dotProduct + parameters.coef0);
+            default:
+                throw new IllegalArgumentException("Kernel type " + parameters.kernel_type
+                        + " cannot be evaluated on feature vectors.");
+        }
+    }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.FeatureScaler;
+import libsvm.svm_node;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Feature values of a file in the binary problem format, mapped in memory. Values are read
+ * from the page cache on demand instead of being copied to the heap, so several JVMs can share
+ * one copy of a large matrix. Files are written by {@link BinaryProblemWriter}. Scaled subsets
+ * of a mapped storage are views which read the mapping (see {@link ScaledStorage}).
+ *
+ * @author Fabien Campagne
+ */
+public final class MappedStorage implements FeatureStorage {
+    /**
+     * Files are mapped in segments of at most 2^SEGMENT_SHIFT values, since a single mapping
+     * cannot exceed 2GB.
+     */
+    private static final int SEGMENT_SHIFT = 27;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final int numInstances;
+    private final int numFeatures;
+    private final boolean columnMajor;
+    private final boolean singlePrecision;
+    private final double[] labels;
+    private final String[] featureIds;
+    private final ByteBuffer[] segments;
+
+    private MappedStorage(final int numInstances, final int numFeatures, final boolean columnMajor,
+                          final boolean singlePrecision, final double[] labels, final String[] featureIds,
+                          final ByteBuffer[] segments) {
+        super();
+        this.numInstances = numInstances;
+        this.numFeatures = numFeatures;
+        this.columnMajor = columnMajor;
+        this.singlePrecision = singlePrecision;
+        this.labels = labels;
+        this.featureIds = featureIds;
+        this.segments = segments;
+    }
+
+    /**
+     * Open a problem written by {@link BinaryProblemWriter}.
+     *
+     * @param file File in the binary problem format.
+     * @return A read-only problem whose features are mapped from the file. Labels may be changed.
+     * @throws IOException if the file cannot be read or is not in the binary problem format.
+     */
+    public static LibSvmProblem openProblem(final File file) throws IOException {
+        final MappedStorage storage = open(file);
+        return new LibSvmProblem(storage, storage.getLabels());
+    }
+
+    /**
+     * Map the feature values of a file in the binary problem format.
+     *
+     * @param file File in the binary problem format.
+     * @return the mapped storage.
+     * @throws IOException if the file cannot be read or is not in the binary problem format.
+     */
+    public static MappedStorage open(final File file) throws IOException {
+        final int numInstances;
+        final int numFeatures;
+        final byte layout;
+        final int valueBytes;
+        final long dataOffset;
+        final double[] labels;
+        final String[] featureIds;
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            if (input.readInt() != BinaryProblemWriter.MAGIC) {
+                throw new IOException("File " + file + " is not in the binary problem format.");
+            }
+            final int version = input.readInt();
+            if (version != BinaryProblemWriter.VERSION) {
+                throw new IOException("Unsupported version " + version + " of the binary problem format.");
+            }
+            numInstances = input.readInt();
+            numFeatures = input.readInt();
+            layout = input.readByte();
+            valueBytes = input.readByte();
+            input.readShort();
+            dataOffset = input.readLong();
+            if ((layout != BinaryProblemWriter.ROW_MAJOR && layout != BinaryProblemWriter.COLUMN_MAJOR)
+                    || (valueBytes != 4 && valueBytes != 8)) {
+                throw new IOException("File " + file + " has an invalid header.");
+            }
+            labels = new double[numInstances];
+            for (int i = 0; i < numInstances; i++) {
+                labels[i] = input.readDouble();
+            }
+            featureIds = new String[numFeatures];
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                featureIds[featureIndex] = input.readUTF();
+            }
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+
+        final long numValues = (long) numInstances * numFeatures;
+        final ByteBuffer[] segments = new ByteBuffer[(int) ((numValues + SEGMENT_MASK) >> SEGMENT_SHIFT)];
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() < dataOffset + numValues * valueBytes) {
+                throw new IOException("File " + file + " is truncated.");
+            }
+            for (int s = 0; s < segments.length; s++) {
+                final long firstValue = (long) s << SEGMENT_SHIFT;
+                final long segmentValues = Math.min(numValues - firstValue, 1L << SEGMENT_SHIFT);
+                // mappings remain valid after the channel is closed:
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        dataOffset + firstValue * valueBytes, segmentValues * valueBytes);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return new MappedStorage(numInstances, numFeatures, layout == BinaryProblemWriter.COLUMN_MAJOR,
+                valueBytes == 4, labels, featureIds, segments);
+    }
+
+    public int getSize() {
+        return numInstances;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * Returns a copy of the labels stored in the file.
+     */
+    public double[] getLabels() {
+        return labels.clone();
+    }
+
+    /**
+     * Returns the identifier of a feature, as stored in the file.
+     */
+    public String getFeatureId(final int featureIndex) {
+        return featureIds[featureIndex];
+    }
+
+    public double getValue(final int instanceIndex, final int featureIndex) {
+        final long valueIndex = columnMajor ? (long) featureIndex * numInstances + instanceIndex
+                : (long) instanceIndex * numFeatures + featureIndex;
+        // absolute reads do not change the state of the buffers, which threads can share:
+        final ByteBuffer segment = segments[(int) (valueIndex >> SEGMENT_SHIFT)];
+        final int position = (int) (valueIndex & SEGMENT_MASK);
+        return singlePrecision ? segment.getFloat(position << 2) : segment.getDouble(position << 3);
+    }
+
+    public svm_node[] getInstance(final int instanceIndex) {
+        final svm_node[] nodes = new svm_node[numFeatures];
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            nodes[featureIndex] = new svm_node();
+            nodes[featureIndex].index = featureIndex;
+            nodes[featureIndex].value = getValue(instanceIndex, featureIndex);
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns a scaled view of some instances. Values are read from the mapping and scaled
+     * when they are read, so scaled subsets do not copy the file to the heap.
+     */
+    public FeatureStorage scale(final FeatureScaler scaler, final int[] instanceIndices) {
+        return new ScaledStorage(this, instanceIndices, scaler);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.FeatureScaler;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * Scaled features of some instances of a dense storage, computed when they are read instead
+ * of being copied. Instance i of this storage is instance instanceIndices[i] of the base
+ * storage, and every feature of an instance is scaled, including zeros. The scaled training
+ * and test sets of cross-validation folds are such views of the problem, so no scaled copy
+ * of the feature values is kept. Training still reads the view into libsvm nodes (see
+ * {@link LibSvmProblem#getNative()}): each fold being trained holds one svm_node per feature
+ * of each training instance, about 32 bytes per value, until svm_train returns. Problems
+ * stored in libsvm nodes, as the loaders create them, are not viewed: each scaled training
+ * and test set is a copy in new nodes, about 32 bytes per stored value. Convert them with
+ * {@link LibSvmProblem#toDenseRows()} or {@link LibSvmProblem#toFloatRows()} first.
+ * <p/>
+ * Values are scaled in double precision with {@link FeatureScaler#scaleRow}. The scaler is
+ * read when values are read: it must not observe another training set while this storage is
+ * in use.
+ *
+ * @author Fabien Campagne
+ */
+public final class ScaledStorage implements KernelStorage {
+    private final FeatureStorage base;
+    private final int[] instanceIndices;
+    private final FeatureScaler scaler;
+    private final int numFeatures;
+    /**
+     * Scaled rows of the two instances of a dot product, for each thread which evaluates
+     * kernels.
+     */
+    private final ThreadLocal<double[][]> dotRows = new ThreadLocal<double[][]>() {
+        @Override
+        protected double[][] initialValue() {
+            return new double[2][numFeatures];
+        }
+    };
+
+    /**
+     * Create a scaled view of some instances of a storage.
+     *
+     * @param base            Storage whose instances all have getNumFeatures() features.
+     * @param instanceIndices Instances of the base storage, in the order of the view. The
+     *                        array is not copied.
+     * @param scaler          Trained scaler.
+     */
+    public ScaledStorage(final FeatureStorage base, final int[] instanceIndices, final FeatureScaler scaler) {
+        super();
+        this.base = base;
+        this.instanceIndices = instanceIndices;
+        this.scaler = scaler;
+        this.numFeatures = base.getNumFeatures();
+    }
+
+    public int getSize() {
+        return instanceIndices.length;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    public double getValue(final int instanceIndex, final int featureIndex) {
+        return scaler.scaleFeatureValue(base.getValue(instanceIndices[instanceIndex], featureIndex), featureIndex);
+    }
+
+    /**
+     * Copy the scaled values of all the features of an instance to row. Used to scale an
+     * instance once for several dot products.
+     *
+     * @param instanceIndex Index of the instance in this view.
+     * @param row           Receives the scaled values, at least getNumFeatures() long.
+     */
+    public void getRow(final int instanceIndex, final double[] row) {
+        final int baseIndex = instanceIndices[instanceIndex];
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            row[featureIndex] = base.getValue(baseIndex, featureIndex);
+        }
+        scaler.scaleRow(row, 0, row, 0, numFeatures);
+    }
+
+    /**
+     * Create nodes for all the features of an instance, as the dense storages do.
+     */
+    public svm_node[] getInstance(final int instanceIndex) {
+        final double[] row = new double[numFeatures];
+        getRow(instanceIndex, row);
+        final svm_node[] nodes = new svm_node[numFeatures];
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            nodes[featureIndex] = new svm_node();
+            nodes[featureIndex].index = featureIndex;
+            nodes[featureIndex].value = row[featureIndex];
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns a view of some instances of this view, scaled again.
+     */
+    public FeatureStorage scale(final FeatureScaler otherScaler, final int[] otherInstanceIndices) {
+        return new ScaledStorage(this, otherInstanceIndices, otherScaler);
+    }
+
+    /**
+     * Scales both instances, then computes their dot product.
+     */
+    public double dot(final int instanceIndex, final int otherInstanceIndex) {
+        final double[][] rows = dotRows.get();
+        getRow(instanceIndex, rows[0]);
+        getRow(otherInstanceIndex, rows[1]);
+        return LibSvmUtils.dot(rows[0], 0, rows[1], 0, numFeatures);
+    }
+
+    public double kernel(final int instanceIndex, final int otherInstanceIndex,
+                         final double squaredNorm, final double otherSquaredNorm,
+                         final svm_parameter parameters) {
+        return LibSvmUtils.kernel(dot(instanceIndex, otherInstanceIndex), squaredNorm, otherSquaredNorm, parameters);
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads files in the svmlight/libsvm format into a LibSvmProblem backed by a
+ * {@link CompressedRowStorage}. Each line holds a label followed by index:value pairs, with
+ * increasing feature indices. Feature indices are kept as written in the file (svmlight
+ * indices usually start at 1), qid:n tokens are ignored, and text after # is a comment.
+ * The file is split in chunks at line boundaries. Chunks are mapped in memory and parsed
+ * without creating objects per value, in parallel when an executor service is set.
+ *
+ * @author Fabien Campagne
+ */
+public class SvmLightReader {
+    private static final Log LOG = LogFactory.getLog(SvmLightReader.class);
+
+    /**
+     * Default approximate number of bytes parsed by one task.
+     */
+    private static final long CHUNK_SIZE = 1L << 26;
+
+    /**
+     * Powers of ten that doubles represent exactly.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Largest mantissa which a double represents exactly.
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private ExecutorService executorService;
+
+    private long chunkSize = CHUNK_SIZE;
+
+    /**
+     * Set the executor service used to parse chunks of files in parallel. When no executor
+     * service is set, files are parsed on the calling thread.
+     *
+     * @param executorService Executor that will parse chunks. This class does not shut it down.
+     */
+    public void setExecutorService(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Set the approximate number of bytes parsed by one task. Tests use small chunks to
+     * split small files into several chunks.
+     *
+     * @param chunkSize Number of bytes, at least one.
+     */
+    void setChunkSize(final long chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Read a file in the svmlight/libsvm format.
+     *
+     * @param file File to read.
+     * @return A problem with one instance per line of the file. Features are read-only.
+     * @throws IOException if the file cannot be read or a line is malformed.
+     */
+    public LibSvmProblem read(final File file) throws IOException {
+        final List<ChunkParser> parsers = new ArrayList<ChunkParser>();
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            final long[] boundaries = splitAtLines(channel, chunkSize);
+            for (int c = 0; c + 1 < boundaries.length; c++) {
+                final long length = boundaries[c + 1] - boundaries[c];
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Line too long in " + file + " near byte " + boundaries[c]);
+                }
+                // mappings remain valid after the channel is closed:
+                parsers.add(new ChunkParser(file, boundaries[c],
+                        channel.map(FileChannel.MapMode.READ_ONLY, boundaries[c], length)));
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (executorService == null || parsers.size() == 1) {
+            for (final ChunkParser parser : parsers) {
+                parser.call();
+            }
+        } else {
+            try {
+                for (final Future<ChunkParser> future : executorService.invokeAll(parsers)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while reading " + file, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                LOG.error("Unable to read " + file, e.getCause());
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return assemble(parsers);
+    }
+
+    /**
+     * Returns the offsets of chunks of about chunkSize bytes which start at the beginning
+     * of a line, followed by the size of the file.
+     */
+    private static long[] splitAtLines(final FileChannel channel, final long chunkSize) throws IOException {
+        final long size = channel.size();
+        final LongArrayList boundaries = new LongArrayList();
+        boundaries.add(0);
+        final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long start = 0;
+        while (size - start > chunkSize) {
+            // the next chunk starts after the first end of line past the target size:
+            long position = start + chunkSize;
+            long lineStart = -1;
+            while (lineStart == -1 && position < size) {
+                buffer.clear();
+                final int read = channel.read(buffer, position);
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        lineStart = position + i + 1;
+                        break;
+                    }
+                }
+                position += Math.max(read, 0);
+            }
+            if (lineStart == -1 || lineStart >= size) {
+                break;
+            }
+            boundaries.add(lineStart);
+            start = lineStart;
+        }
+        boundaries.add(size);
+        return boundaries.toLongArray();
+    }
+
+    /**
+     * Concatenate the instances parsed from each chunk, in file order.
+     */
+    private static LibSvmProblem assemble(final List<ChunkParser> parsers) {
+        long totalValues = 0;
+        int numInstances = 0;
+        int numFeatures = 0;
+        for (final ChunkParser parser : parsers) {
+            numInstances += parser.labels.size();
+            totalValues += parser.values.size();
+            numFeatures = Math.max(numFeatures, parser.maxFeatureIndex + 1);
+        }
+        if (totalValues > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many non-zero values for a compressed row storage: " + totalValues);
+        }
+        final int numValues = (int) totalValues;
+        final double[] labels = new double[numInstances];
+        final int[] rowOffsets = new int[numInstances + 1];
+        final int[] featureIndices = new int[numValues];
+        final double[] values = new double[numValues];
+        int instanceIndex = 0;
+        int valueIndex = 0;
+        for (final ChunkParser parser : parsers) {
+            final int chunkInstances = parser.labels.size();
+            final int chunkValues = parser.values.size();
+            System.arraycopy(parser.labels.elements(), 0, labels, instanceIndex, chunkInstances);
+            System.arraycopy(parser.featureIndices.elements(), 0, featureIndices, valueIndex, chunkValues);
+            System.arraycopy(parser.values.elements(), 0, values, valueIndex, chunkValues);
+            final int[] chunkOffsets = parser.rowEnds.elements();
+            for (int i = 0; i < chunkInstances; i++) {
+                rowOffsets[instanceIndex + i + 1] = valueIndex + chunkOffsets[i];
+            }
+            instanceIndex += chunkInstances;
+            valueIndex += chunkValues;
+        }
+        return new LibSvmProblem(new CompressedRowStorage(numFeatures, rowOffsets, featureIndices, values), labels);
+    }
+
+    /**
+     * Parses the lines of a chunk of the file into primitive lists.
+     */
+    private static final class ChunkParser implements Callable<ChunkParser> {
+        private final File file;
+        private final long chunkStart;
+        private final ByteBuffer buffer;
+        private final int limit;
+        private int position;
+
+        private final DoubleArrayList labels = new DoubleArrayList();
+        /**
+         * Number of values of the chunk at the end of each instance.
+         */
+        private final IntArrayList rowEnds = new IntArrayList();
+        private final IntArrayList featureIndices = new IntArrayList();
+        private final DoubleArrayList values = new DoubleArrayList();
+        private int maxFeatureIndex = -1;
+
+        private ChunkParser(final File file, final long chunkStart, final ByteBuffer buffer) {
+            super();
+            this.file = file;
+            this.chunkStart = chunkStart;
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+        }
+
+        public ChunkParser call() throws IOException {
+            while (position < limit) {
+                skipBlanks();
+                if (position == limit) {
+                    break;
+                }
+                final byte first = buffer.get(position);
+                if (first == '\n' || first == '\r' || first == '#') {
+                    skipLine();
+                    continue;
+                }
+                labels.add(parseDouble());
+                int previousIndex = -1;
+                while (true) {
+                    skipBlanks();
+                    if (position == limit || isEndOfLine(buffer.get(position)) || buffer.get(position) == '#') {
+                        skipLine();
+                        break;
+                    }
+                    final byte b = buffer.get(position);
+                    if (b < '0' || b > '9') {
+                        // e.g., qid:3, which has no meaning for classification:
+                        skipToken();
+                        continue;
+                    }
+                    final int featureIndex = parseIndex();
+                    if (featureIndex <= previousIndex) {
+                        throw malformed("feature indices must increase");
+                    }
+                    previousIndex = featureIndex;
+                    if (position == limit || buffer.get(position) != ':') {
+                        throw malformed("expected ':' after feature index");
+                    }
+                    position++;
+                    final double value = parseDouble();
+                    if (value != 0) {
+                        featureIndices.add(featureIndex);
+                        values.add(value);
+                    }
+                    maxFeatureIndex = Math.max(maxFeatureIndex, featureIndex);
+                }
+                rowEnds.add(values.size());
+            }
+            return this;
+        }
+
+        private static boolean isEndOfLine(final byte b) {
+            return b == '\n' || b == '\r';
+        }
+
+        private static boolean isBlank(final byte b) {
+            return b == ' ' || b == '\t';
+        }
+
+        private void skipBlanks() {
+            while (position < limit && isBlank(buffer.get(position))) {
+                position++;
+            }
+        }
+
+        private void skipLine() {
+            while (position < limit && buffer.get(position++) != '\n') {
+                // skip
+            }
+        }
+
+        private void skipToken() {
+            while (position < limit && !isBlank(buffer.get(position)) && !isEndOfLine(buffer.get(position))) {
+                position++;
+            }
+        }
+
+        private int parseIndex() throws IOException {
+            long index = 0;
+            while (position < limit) {
+                final byte b = buffer.get(position);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                index = index * 10 + (b - '0');
+                if (index > Integer.MAX_VALUE) {
+                    throw malformed("feature index too large");
+                }
+                position++;
+            }
+            return (int) index;
+        }
+
+        /**
+         * Parse a decimal number. Numbers with at most 15 to 16 significant digits and a small
+         * decimal exponent are converted exactly with one multiplication or division. Other
+         * numbers, including NaN and Infinity, are converted by Double.parseDouble.
+         */
+        private double parseDouble() throws IOException {
+            final int start = position;
+            boolean negative = false;
+            if (position < limit && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                negative = buffer.get(position) == '-';
+                position++;
+            }
+            long mantissa = 0;
+            int exponent = 0;
+            int digits = 0;
+            boolean exact = true;
+            boolean seenPoint = false;
+            while (position < limit) {
+                final byte b = buffer.get(position);
+                if (b >= '0' && b <= '9') {
+                    if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        if (seenPoint) {
+                            exponent--;
+                        }
+                    } else {
+                        exact = false;
+                    }
+                    digits++;
+                } else if (b == '.' && !seenPoint) {
+                    seenPoint = true;
+                } else {
+                    break;
+                }
+                position++;
+            }
+            if (position < limit && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+                position++;
+                boolean negativeExponent = false;
+                if (position < limit && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                    negativeExponent = buffer.get(position) == '-';
+                    position++;
+                }
+                int explicitExponent = 0;
+                int exponentDigits = 0;
+                while (position < limit && buffer.get(position) >= '0' && buffer.get(position) <= '9') {
+                    explicitExponent = Math.min(explicitExponent * 10 + (buffer.get(position) - '0'), 100000);
+                    exponentDigits++;
+                    position++;
+                }
+                if (exponentDigits == 0) {
+                    exact = false;
+                }
+                exponent += negativeExponent ? -explicitExponent : explicitExponent;
+            }
+            final boolean endOfToken = position == limit || isBlank(buffer.get(position))
+                    || isEndOfLine(buffer.get(position)) || buffer.get(position) == '#';
+            if (exact && digits > 0 && endOfToken && exponent >= -22 && exponent <= 22) {
+                final double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent]
+                        : mantissa / POWERS_OF_TEN[-exponent];
+                return negative ? -value : value;
+            }
+            // rare cases: too many digits, large exponents, NaN, Infinity or malformed numbers.
+            position = start;
+            skipNumberToken();
+            final byte[] token = new byte[position - start];
+            for (int i = 0; i < token.length; i++) {
+                token[i] = buffer.get(start + i);
+            }
+            try {
+                return Double.parseDouble(new String(token, "US-ASCII"));
+            } catch (NumberFormatException e) {
+                throw malformed("invalid number " + new String(token, "US-ASCII"));
+            }
+        }
+
+        private void skipNumberToken() {
+            while (position < limit) {
+                final byte b = buffer.get(position);
+                if (isBlank(b) || isEndOfLine(b) || b == ':' || b == '#') {
+                    break;
+                }
+                position++;
+            }
+        }
+
+        private IOException malformed(final String message) {
+            return new IOException("Malformed svmlight data in " + file + " near byte "
+                    + (chunkStart + position) + ": " + message);
+        }
+    }
+}
@@ -18,6 +18,7 @@
 
 package edu.cornell.med.icb.learning.weka;
 
+import edu.cornell.med.icb.learning.BatchPrediction;
 import edu.cornell.med.icb.learning.ClassificationModel;
 import edu.cornell.med.icb.learning.ClassificationParameters;
 import edu.cornell.med.icb.learning.ClassificationProblem;
@@ -25,8 +26,11 @@ import edu.cornell.med.icb.learning.Classifier;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import weka.core.Instance;
 import weka.core.Instances;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * @author Fabien Campagne Date: Nov 23, 2007 Time: 1:25:19 PM
  */
@@ -35,6 +39,7 @@ public class WekaClassifier implements Classifier {
     private WekaParameters defaultParameters;
     private static final Log LOG = LogFactory.getLog(WekaClassifier.class);
     private final double[] labelIndex2LabelValue = {-1.0d, 1.0d};
+    private ExecutorService executorService;
 
     public WekaClassifier(final weka.classifiers.Classifier delegate) {
         super();
@@ -103,23 +108,81 @@ public class WekaClassifier implements Classifier {
     public double predict(final ClassificationModel trainingModel,
                           final ClassificationProblem problem, final int instanceIndex) {
         assert trainingModel instanceof WekaModel : "Model must be a weka model.";
+        return predict(getWekaClassifier(this), getInstance(problem, instanceIndex));
+    }
+
+    public double predict(final ClassificationModel trainingModel,
+                          final ClassificationProblem problem, final int instanceIndex,
+                          final double[] probabilities) {
+        assert trainingModel instanceof WekaModel : "Model must be a weka model.";
+        return predict(getWekaClassifier(this), getInstance(problem, instanceIndex), probabilities);
+    }
+
+    /**
+     * Set the executor service used to compute batch predictions in parallel. When no executor
+     * service is set, batches are predicted on the calling thread. Copies of this classifier do
+     * not share the executor service.
+     *
+     * @param executorService Executor that will predict chunks of batches. This class does not
+     *                        shut it down.
+     */
+    public void setExecutorService(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Predict several instances of a problem. Weka classifiers are not guaranteed to be thread
+     * safe, so each chunk of a parallel batch is predicted with its own copy of the trained
+     * weka classifier.
+     */
+    public void predictBatch(final ClassificationModel trainingModel, final ClassificationProblem problem,
+                             final int[] instanceIndices, final double[] decisions,
+                             final double[][] probabilities) {
+        assert trainingModel instanceof WekaModel : "Model must be a weka model.";
+        final weka.classifiers.Classifier trained = getWekaClassifier(this);
+        BatchPrediction.predict(executorService, instanceIndices.length,
+                Runtime.getRuntime().availableProcessors(), new BatchPrediction.Chunk() {
+                    public void predict(final int start, final int end) {
+                        final weka.classifiers.Classifier chunkClassifier;
+                        if (end - start == instanceIndices.length) {
+                            // the batch is predicted in a single chunk:
+                            chunkClassifier = trained;
+                        } else {
+                            try {
+                                chunkClassifier = weka.classifiers.Classifier.makeCopy(trained);
+                            } catch (Exception e) {
+                                LOG.error("Cannot copy weka classifier.", e);
+                                throw new IllegalStateException("Cannot copy weka classifier "
+                                        + trained.getClass().getName(), e);
+                            }
+                        }
+                        for (int i = start; i < end; i++) {
+                            final Instance instance = getInstance(problem, instanceIndices[i]);
+                            if (probabilities == null) {
+                                decisions[i] = WekaClassifier.this.predict(chunkClassifier, instance);
+                            } else {
+                                decisions[i] = WekaClassifier.this.predict(chunkClassifier, instance,
+                                        probabilities[i]);
+                            }
+                        }
+                    }
+                });
+    }
+
+    private double predict(final weka.classifiers.Classifier wekaClassifier, final Instance instance) {
         try {
-            return labelIndex2LabelValue[(int) getWekaClassifier(this)
-                    .classifyInstance(getWekaProblem(problem).instance(instanceIndex))];
+            return labelIndex2LabelValue[(int) wekaClassifier.classifyInstance(instance)];
         } catch (Exception e) {
             LOG.error("Weka classifier has thrown exception.", e);
             return Double.NaN;
         }
     }
 
-    public double predict(final ClassificationModel trainingModel,
-                          final ClassificationProblem problem, final int instanceIndex,
-                          final double[] probabilities) {
-        assert trainingModel instanceof WekaModel : "Model must be a weka model.";
+    private double predict(final weka.classifiers.Classifier wekaClassifier, final Instance instance,
+                           final double[] probabilities) {
         final double[] probs;
         try {
-            probs = getWekaClassifier(this)
-                    .distributionForInstance(getWekaProblem(problem).instance(instanceIndex));
+            probs = wekaClassifier.distributionForInstance(instance);
         } catch (Exception e) {
             LOG.error("Weka classifier has thrown exception.", e);
             return Double.NaN;
@@ -156,6 +219,23 @@ public class WekaClassifier implements Classifier {
         return defaultParameters;
     }
 
+    public Classifier copy() {
+        final WekaClassifier copy;
+        if (delegate == null) {
+            copy = new WekaClassifier();
+        } else {
+            try {
+                // the delegate holds the trained model, it must not be shared with the copy:
+                copy = new WekaClassifier(weka.classifiers.Classifier.makeCopy(delegate));
+            } catch (Exception e) {
+                LOG.error("Cannot copy weka classifier.", e);
+                throw new IllegalStateException("Cannot copy weka classifier " + delegate.getClass().getName(), e);
+            }
+        }
+        copy.setParameters(defaultParameters);
+        return copy;
+    }
+
     public String getShortName() {
         instantiateClassifier();
         return "weka!" + delegate.getClass().getName();
@@ -166,6 +246,15 @@ public class WekaClassifier implements Classifier {
         return ((WekaProblem) problem).getNative();
     }
 
+    /**
+     * Returns an instance of the problem. Unlike getWekaProblem, this does not create the
+     * native dataset of views.
+     */
+    private Instance getInstance(final ClassificationProblem problem, final int instanceIndex) {
+        assert problem instanceof WekaProblem : "problem must be weka problem.";
+        return ((WekaProblem) problem).getInstance(instanceIndex);
+    }
+
     private weka.classifiers.Classifier getWekaClassifier(final WekaClassifier wekaClassifier
     ) {
         return wekaClassifier.delegate;
@@ -19,11 +19,12 @@
 package edu.cornell.med.icb.learning.weka;
 
 import edu.cornell.med.icb.learning.ClassificationProblem;
+import edu.cornell.med.icb.learning.FeatureColumns;
 import edu.cornell.med.icb.learning.FeatureScaler;
+import edu.cornell.med.icb.learning.FeatureSummary;
+import edu.cornell.med.icb.learning.InstanceSet;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
-import it.unimi.dsi.fastutil.ints.IntArraySet;
-import it.unimi.dsi.fastutil.ints.IntLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import weka.core.Attribute;
 import weka.core.FastVector;
@@ -38,6 +39,11 @@ public class WekaProblem implements ClassificationProblem {
     private FastVector attributes;
     private int instanceIndex;
     private int labelIndex;
+    /**
+     * Feature values by feature, created when a scaler first observes the features of this
+     * problem. Reset when features change.
+     */
+    private FeatureColumns columns;
 
     public WekaProblem() {
         super();
@@ -51,55 +57,88 @@ public class WekaProblem implements ClassificationProblem {
     public WekaProblem(final WekaProblem wekaProblem, final IntSet keepInstanceSet,
                        final FeatureScaler scaler) {
         super();
-        wekaProblem.createDataset(wekaProblem.dataset.numAttributes());
-        final FastVector copyOfAttributes = (FastVector)wekaProblem.attributes.copy();
-        dataset = new Instances(this.toString(), copyOfAttributes,
-                keepInstanceSet.size());
+        final FastVector copyOfAttributes = (FastVector)wekaProblem.getAttributes().copy();
+        final InstanceSet instances = InstanceSet.valueOf(keepInstanceSet);
+        final int size = instances.countBelow(wekaProblem.getSize());
+        dataset = new Instances(this.toString(), copyOfAttributes, size);
         attributes = copyOfAttributes;
-        for (int instanceIndex = 0; instanceIndex < wekaProblem.getSize(); instanceIndex++) {
-            if (keepInstanceSet.contains(instanceIndex)) {
-                final Instance copyOfInstance =
-                        (Instance) wekaProblem.dataset.instance(instanceIndex).copy();
-
-                final int numberOfFeatures = copyOfInstance.numAttributes() - 1;
-                for (int featureIndex = 0; featureIndex < numberOfFeatures; featureIndex++) {
-                    final double featureValue = copyOfInstance.value(featureIndex + 1);
-                    copyOfInstance.setValue(featureIndex + 1,
-                            scaler.scaleFeatureValue(featureValue, featureIndex));
-                }
-                dataset.add(copyOfInstance);
-            }
+        for (int i = 0; i < size; i++) {
+            final Instance instance = wekaProblem.getInstance(instances.get(i));
+            // scale a copy of the attribute values: Instance.setValue would copy all the
+            // values of the instance for each feature.
+            final double[] values = instance.toDoubleArray();
+            // the first attribute is the label:
+            scaler.scaleRow(values, 1, values, 1, values.length - 1);
+            dataset.add(new Instance(instance.weight(), values));
         }
-        this.dataset.setClassIndex(wekaProblem.dataset.classIndex());
+        this.dataset.setClassIndex(wekaProblem.getHeader().classIndex());
     }
 
     public double getLabel(final int instanceIndex) {
-        return dataset.instance(instanceIndex).value(dataset.attribute(labelIndex)) == 0 ? -1 : 1;
+        return getInstance(instanceIndex).value(getHeader().attribute(labelIndex)) == 0 ? -1 : 1;
     }
 
     public int getSize() {
         return dataset.numInstances();
     }
 
-    public ClassificationProblem filter(final IntSet keepInstanceSet) {
-        return new WekaProblem(this, keepInstanceSet);
+    /**
+     * Returns the instance at some index, without materializing the native dataset of views.
+     *
+     * @param instanceIndex Instance in the problem.
+     * @return the weka instance. It is shared and must not be modified.
+     */
+    Instance getInstance(final int instanceIndex) {
+        return dataset.instance(instanceIndex);
+    }
+
+    /**
+     * Returns the index of an instance of this problem in the problem which stores it.
+     */
+    int getSourceIndex(final int instanceIndex) {
+        return instanceIndex;
+    }
+
+    /**
+     * Returns the dataset which describes the attributes of the instances.
+     */
+    Instances getHeader() {
+        return dataset;
+    }
+
+    FastVector getAttributes() {
+        return attributes;
+    }
 
+    /**
+     * Returns a read-only view of the instances in keepInstanceSet. No instance is copied.
+     */
+    public ClassificationProblem filter(final IntSet keepInstanceSet) {
+        final InstanceSet instances = InstanceSet.valueOf(keepInstanceSet);
+        final int[] rows = new int[instances.countBelow(getSize())];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = instances.get(i);
+        }
+        return new WekaProblemView(this, rows);
     }
 
+    /**
+     * Returns a read-only view of all the instances but one. No instance is copied.
+     */
     public ClassificationProblem exclude(final int instanceIndex) {
-        final IntSet allButOne = new IntArraySet();
-        for (int index = 0; index < dataset.numInstances(); index++) {
+        final int size = getSize();
+        final int[] rows = new int[size - 1];
+        int j = 0;
+        for (int index = 0; index < size; index++) {
             if (index != instanceIndex) {
-                allButOne.add(instanceIndex);
+                rows[j++] = index;
             }
         }
-        return new WekaProblem(this, allButOne);
+        return new WekaProblemView(this, rows);
     }
 
     public ClassificationProblem filter(final int instanceIndex) {
-        final IntSet set = new IntArraySet();
-        set.add(instanceIndex);
-        return filter(set);
+        return new WekaProblemView(this, new int[]{instanceIndex});
     }
 
     public void setInstance(final int instanceIndex, final double label, final double[] features) {
@@ -117,12 +156,14 @@ public class WekaProblem implements ClassificationProblem {
     }
 
     public void setFeature(final int instanceIndex, final int featureIndex, final double featureValue) {
+        columns = null;
         final Instance instance = dataset.instance(instanceIndex);
         instance.setValue(featureIndex + 1, featureValue);
     }
 
     public int addInstance(final int maxNumberOfFeatures) {
         createDataset(maxNumberOfFeatures);
+        columns = null;
         final Instance instance = new Instance(maxNumberOfFeatures + 1); // +1 for label as first attribute
         dataset.add(instance);
         instance.setDataset(dataset);
@@ -134,55 +175,104 @@ public class WekaProblem implements ClassificationProblem {
     }
 
     public ClassificationProblem scaleTraining(final FeatureScaler scaler) {
-        final IntSet allInstances = new IntLinkedOpenHashSet();
+        final InstanceSet allInstances = InstanceSet.range(0, getSize());
         int numberOfFeatures = 0;
-        for (int i = 0; i < this.dataset.numInstances(); i++) {
-            allInstances.add(i);
-            numberOfFeatures = Math.max(dataset.instance(i).numAttributes() - 1, numberOfFeatures);
-
-        }
+        for (int i = 0; i < getSize(); i++) {
+            numberOfFeatures = Math.max(getInstance(i).numAttributes() - 1, numberOfFeatures);
 
-        for (int featureIndex = 0; featureIndex < numberOfFeatures; featureIndex++) {
-
-            scaler.observeFeatureForTraining(numberOfFeatures, featureValues(featureIndex, allInstances), featureIndex);
         }
 
+        observeFeatures(scaler, numberOfFeatures, allInstances);
         return new WekaProblem(this, allInstances, scaler);
     }
 
     public ClassificationProblem scaleTestSet(final FeatureScaler scaler, final int testInstanceIndex) {
-        final IntSet allInstances = new IntLinkedOpenHashSet();
-        allInstances.add(testInstanceIndex);
-
-        return new WekaProblem(this, allInstances, scaler);
+        return new WekaProblem(this, InstanceSet.singleton(testInstanceIndex), scaler);
     }
 
     public double[] featureValues(final int featureIndex, final IntSet keepInstanceSet) {
-
-        final DoubleList values = new DoubleArrayList();
-        for (int instanceIndex = 0; instanceIndex < dataset.numInstances(); instanceIndex++) {
-            if (keepInstanceSet.contains(instanceIndex)) {
-                final int attributeIndex = featureIndex + 1;
-                values.add(dataset.instance(instanceIndex).value(attributeIndex));
-            }
-            instanceIndex++;
+        final InstanceSet instances = InstanceSet.valueOf(keepInstanceSet);
+        final double[] values = new double[instances.countBelow(getSize())];
+        final int attributeIndex = featureIndex + 1;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getInstance(instances.get(i)).value(attributeIndex);
         }
-
-        return values.toDoubleArray();
+        return values;
     }
 
     public ClassificationProblem scaleFeatures(final FeatureScaler scaler, final IntSet testSetIndices, final boolean trainingMode) {
         if (trainingMode) {
-            final int numFeatures = dataset.numAttributes();
-            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
-
-                scaler.observeFeatureForTraining(numFeatures, featureValues(featureIndex, testSetIndices), featureIndex);
-            }
+            // the first attribute is the label:
+            observeFeatures(scaler, getHeader().numAttributes() - 1, InstanceSet.valueOf(testSetIndices));
         }
 
         return new WekaProblem(this, testSetIndices, scaler);
     }
 
+    public boolean observeForLeaveOneOut(final FeatureScaler scaler) {
+        if (!scaler.supportsLeaveOut()) {
+            return false;
+        }
+        final int size = getSize();
+        final int[] sourceIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            sourceIndices[i] = getSourceIndex(i);
+        }
+        // the first attribute is the label:
+        return scaler.observeForLeaveOneOut(getHeader().numAttributes() - 1, getColumns(), sourceIndices);
+    }
+
+    public FeatureSummary summarizeFeatures(final FeatureScaler scaler, final IntSet instances) {
+        if (!scaler.supportsSummaries()) {
+            return null;
+        }
+        final InstanceSet instanceSet = InstanceSet.valueOf(instances);
+        final int[] sourceIndices = new int[instanceSet.countBelow(getSize())];
+        for (int j = 0; j < sourceIndices.length; j++) {
+            sourceIndices[j] = getSourceIndex(instanceSet.get(j));
+        }
+        // the first attribute is the label:
+        return scaler.summarize(getHeader().numAttributes() - 1, getColumns(), sourceIndices);
+    }
+
+    /**
+     * Let the scaler observe each feature over some instances, reading the columns of the
+     * problem which stores the instances.
+     */
+    private void observeFeatures(final FeatureScaler scaler, final int numFeatures, final InstanceSet instances) {
+        final int size = instances.countBelow(getSize());
+        final int[] sourceIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            sourceIndices[i] = getSourceIndex(instances.get(i));
+        }
+        scaler.observeFeaturesForTraining(numFeatures, getColumns(), sourceIndices);
+    }
+
+    /**
+     * Returns the feature values of the instances of the problem which stores the instances,
+     * by feature. Columns are created on the first call and kept until features change.
+     * Instance i of this problem is instance getSourceIndex(i) of the columns.
+     */
+    synchronized FeatureColumns getColumns() {
+        if (columns == null) {
+            final FeatureColumns.Builder builder = new FeatureColumns.Builder();
+            final int size = getSize();
+            for (int i = 0; i < size; i++) {
+                final Instance instance = getInstance(i);
+                // visit the stored values only, for sparse instances:
+                final int numValues = instance.numValues();
+                for (int k = 0; k < numValues; k++) {
+                    final int attributeIndex = instance.index(k);
+                    if (attributeIndex != 0) {
+                        builder.add(attributeIndex - 1, instance.valueSparse(k));
+                    }
+                }
+                builder.endInstance();
+            }
+            columns = builder.build();
+        }
+        return columns;
+    }
 
     private void createDataset(final int maxNumberOfFeatures) {
         if (dataset == null) {
@@ -207,9 +297,10 @@ public class WekaProblem implements ClassificationProblem {
 
     public double[] getFeatures(final int instance2Index) {
         final DoubleList values = new DoubleArrayList();
-        for (int attributeIndex = 1; attributeIndex < dataset.numAttributes(); attributeIndex++) {
+        final Instance instance = getInstance(instance2Index);
+        for (int attributeIndex = 1; attributeIndex < getHeader().numAttributes(); attributeIndex++) {
 
-            values.add(dataset.instance(instance2Index).value(attributeIndex));
+            values.add(instance.value(attributeIndex));
         }
 
         return values.toDoubleArray();
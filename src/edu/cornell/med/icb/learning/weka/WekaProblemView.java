@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.weka;
+
+import edu.cornell.med.icb.learning.FeatureColumns;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A read-only subset of the instances of a WekaProblem. Instance i of the view is instance
+ * rows[i] of the source problem. Views of views map directly to the source problem. The
+ * native weka dataset of a view is only created when a weka classifier needs it, and holds
+ * the instances of the source problem rather than copies.
+ *
+ * @author Fabien Campagne
+ */
+public class WekaProblemView extends WekaProblem {
+    /**
+     * Problem which stores the instances. Never a view.
+     */
+    private final WekaProblem source;
+    private final int[] rows;
+
+    /**
+     * Create a view of some instances of a problem.
+     *
+     * @param problem Problem to view. May be a view itself.
+     * @param rows    Indices of the instances of problem, in the order of the view.
+     */
+    WekaProblemView(final WekaProblem problem, final int[] rows) {
+        super();
+        if (problem instanceof WekaProblemView) {
+            final WekaProblemView view = (WekaProblemView) problem;
+            this.source = view.source;
+            this.rows = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                this.rows[i] = view.rows[rows[i]];
+            }
+        } else {
+            this.source = problem;
+            this.rows = rows;
+        }
+    }
+
+    @Override
+    public double getLabel(final int instanceIndex) {
+        return source.getLabel(rows[instanceIndex]);
+    }
+
+    @Override
+    public int getSize() {
+        return rows.length;
+    }
+
+    @Override
+    Instance getInstance(final int instanceIndex) {
+        return source.getInstance(rows[instanceIndex]);
+    }
+
+    @Override
+    int getSourceIndex(final int instanceIndex) {
+        return rows[instanceIndex];
+    }
+
+    @Override
+    FeatureColumns getColumns() {
+        return source.getColumns();
+    }
+
+    @Override
+    Instances getHeader() {
+        return source.getHeader();
+    }
+
+    @Override
+    FastVector getAttributes() {
+        return source.getAttributes();
+    }
+
+    /**
+     * Create the native dataset of this view on the first call.
+     *
+     * @return a dataset with the instances of the view.
+     */
+    @Override
+    public synchronized Instances getNative() {
+        if (dataset == null) {
+            final SharedInstances sharedInstances = new SharedInstances(source.getHeader(), rows.length);
+            for (final int row : rows) {
+                sharedInstances.addShared(source.getInstance(row));
+            }
+            dataset = sharedInstances;
+        }
+        return dataset;
+    }
+
+    @Override
+    public void setInstance(final int instanceIndex, final double label, final double[] features) {
+        throw new UnsupportedOperationException("Problem views are read-only.");
+    }
+
+    @Override
+    public void setLabel(final int instanceIndex, final double label) {
+        throw new UnsupportedOperationException("Problem views are read-only.");
+    }
+
+    @Override
+    public void setFeature(final int instanceIndex, final int featureIndex, final double featureValue) {
+        throw new UnsupportedOperationException("Problem views are read-only.");
+    }
+
+    @Override
+    public int addInstance(final int maxNumberOfFeatures) {
+        throw new UnsupportedOperationException("Problem views are read-only.");
+    }
+
+    /**
+     * A weka dataset which holds instances of another dataset with the same attributes.
+     * Instances.add would copy each instance.
+     */
+    private static final class SharedInstances extends Instances {
+        private SharedInstances(final Instances header, final int capacity) {
+            super(header, capacity);
+        }
+
+        private void addShared(final Instance instance) {
+            m_Instances.addElement(instance);
+        }
+    }
+}
@@ -23,13 +23,13 @@ import cern.jet.random.engine.MersenneTwister;
 import cern.jet.random.engine.RandomEngine;
 import edu.cornell.med.icb.R.RConnectionPool;
 import edu.cornell.med.icb.learning.ContingencyTable;
+import edu.cornell.med.icb.learning.InstanceSet;
 import edu.cornell.med.icb.learning.tools.svmlight.EvaluationMeasure;
 import edu.cornell.med.icb.util.RandomAdapter;
 import edu.mssm.crover.tables.InvalidColumnException;
 import edu.mssm.crover.tables.Table;
 import edu.mssm.crover.tables.TypeMismatchException;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntArraySet;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import libsvm.svm;
@@ -42,6 +42,7 @@ import org.apache.commons.logging.LogFactory;
 import org.rosuda.REngine.REXP;
 import org.rosuda.REngine.Rserve.RConnection;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -262,15 +263,15 @@ public class LibSVMWriter extends SVMLightWriter {
 
         final ContingencyTable ctable = new ContingencyTable();
         for (int f = 0; f < k; ++f) { // use each fold as test set while the others are the training set:
-            final IntSet trainingSet = new IntArraySet();
-            final IntSet testSet = new IntArraySet();
+            final BitSet testMembers = new BitSet(numberOfTrainingExamples);
             for (int i = 0; i < numberOfTrainingExamples; i++) {   // assign each training example to a fold:
                 if (f == splitIndex[i]) {
-                    testSet.add(i);
-                } else {
-                    trainingSet.add(i);
+                    testMembers.set(i);
                 }
             }
+            final InstanceSet testSet = new InstanceSet(testMembers);
+            testMembers.flip(0, numberOfTrainingExamples);
+            final InstanceSet trainingSet = new InstanceSet(testMembers);
             //   System.out.println("trainingSet: " + trainingSet.toString());
             //  System.out.println("splitSpecificTestSet: " + splitSpecificTestSet.toString());
             final svm_problem currentTrainingSet = splitProblem(problem, trainingSet);
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import edu.cornell.med.icb.learning.libsvm.LibSvmProblem;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Problems and assertions shared by the tests of problems, storages and scalers.
+ *
+ * @author Fabien Campagne
+ */
+public final class ProblemFixtures {
+    private ProblemFixtures() {
+        super();
+    }
+
+    /**
+     * Create a problem with one instance per row of features. Instances are labeled 1 and
+     * -1 in turn.
+     *
+     * @param features Feature values of each instance.
+     * @return a problem which stores the instances as libsvm nodes.
+     */
+    public static LibSvmProblem createProblem(final double[][] features) {
+        final LibSvmProblem problem = new LibSvmProblem();
+        for (int i = 0; i < features.length; i++) {
+            final int instanceIndex = problem.addInstance(features[i].length);
+            problem.setInstance(instanceIndex, i % 2 == 0 ? 1 : -1, features[i]);
+        }
+        return problem;
+    }
+
+    /**
+     * Assert that two arrays hold exactly the same values.
+     */
+    public static void assertArrayEquals(final double[] expected, final double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0);
+        }
+    }
+}
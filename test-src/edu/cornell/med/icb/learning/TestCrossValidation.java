@@ -20,15 +20,24 @@ package edu.cornell.med.icb.learning;
 
 import cern.jet.random.engine.MersenneTwister;
 import cern.jet.random.engine.RandomEngine;
+import edu.cornell.med.icb.learning.libsvm.LibSvmClassifier;
+import edu.cornell.med.icb.learning.libsvm.LibSvmProblem;
 import edu.cornell.med.icb.learning.tools.svmlight.EvaluationMeasure;
+import it.unimi.dsi.fastutil.ints.IntArraySet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArraySet;
 import it.unimi.dsi.fastutil.objects.ObjectList;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * Validate functionality of {@link edu.cornell.med.icb.learning.CrossValidation} methods.
  *
@@ -360,6 +369,173 @@ public class TestCrossValidation {
     }
 
 
+    @Test
+    public void testParallelFoldsMatchSequential() {
+        final ClassificationProblem problem = generateRandomProblem(60, 5);
+
+        final CrossValidation sequential = new CrossValidation(new LibSvmClassifier(), problem,
+                new MersenneTwister(37));
+        sequential.useRServer(false);
+        sequential.setScalerClass(MinMaxScalingRowProcessor.class);
+        sequential.setRepeatNumber(3);
+        final EvaluationMeasure expected = sequential.crossValidation(5);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final CrossValidation parallel = new CrossValidation(new LibSvmClassifier(), problem,
+                    new MersenneTwister(37));
+            parallel.useRServer(false);
+            parallel.setScalerClass(MinMaxScalingRowProcessor.class);
+            parallel.setRepeatNumber(3);
+            parallel.setExecutorService(executor);
+            final EvaluationMeasure measure = parallel.crossValidation(5);
+            assertEquals(expected.getAccuracy(), measure.getAccuracy(), 0.0d);
+            assertEquals(expected.getF1Measure(), measure.getF1Measure(), 0.0d);
+            assertEquals(expected.getF1StdDev(), measure.getF1StdDev(), 0.0d);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSketchPercentileFolds() {
+        final ClassificationProblem problem = generateRandomProblem(60, 5);
+        // the scaler created by cross-validation summarizes folds with sketches:
+        assertNotNull(problem.summarizeFeatures(new SketchPercentileScalingRowProcessor(),
+                InstanceSet.range(0, 12)));
+
+        final CrossValidation sequential = new CrossValidation(new LibSvmClassifier(), problem,
+                new MersenneTwister(37));
+        sequential.useRServer(false);
+        sequential.setScalerClass(SketchPercentileScalingRowProcessor.class);
+        sequential.setRepeatNumber(2);
+        final EvaluationMeasure expected = sequential.crossValidation(5);
+        assertTrue(expected.getAccuracy() >= 0 && expected.getAccuracy() <= 100);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final CrossValidation parallel = new CrossValidation(new LibSvmClassifier(), problem,
+                    new MersenneTwister(37));
+            parallel.useRServer(false);
+            parallel.setScalerClass(SketchPercentileScalingRowProcessor.class);
+            parallel.setRepeatNumber(2);
+            parallel.setExecutorService(executor);
+            final EvaluationMeasure measure = parallel.crossValidation(5);
+            assertEquals(expected.getAccuracy(), measure.getAccuracy(), 0.0d);
+            assertEquals(expected.getF1Measure(), measure.getF1Measure(), 0.0d);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testParallelLeaveOneOutMatchesSequential() {
+        final ClassificationProblem problem = generateRandomProblem(40, 5);
+        // min-max and percentile scalers leave instances out, FeatureScaler observes each training set:
+        for (final Class<? extends FeatureScaler> scalerClass
+                : new Class[]{MinMaxScalingRowProcessor.class, PercentileScalingRowProcessor.class, FeatureScaler.class}) {
+            final CrossValidation sequential = new CrossValidation(new LibSvmClassifier(), problem,
+                    new MersenneTwister(37));
+            sequential.useRServer(false);
+            sequential.setScalerClass(scalerClass);
+            sequential.evaluateMeasures("auc", "prec");
+            final EvaluationMeasure expected = sequential.leaveOneOutEvaluation();
+
+            final ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                final CrossValidation parallel = new CrossValidation(new LibSvmClassifier(), problem,
+                        new MersenneTwister(37));
+                parallel.useRServer(false);
+                parallel.setScalerClass(scalerClass);
+                parallel.evaluateMeasures("auc", "prec");
+                parallel.setExecutorService(executor);
+                final EvaluationMeasure measure = parallel.leaveOneOutEvaluation();
+                assertEquals(expected.getAccuracy(), measure.getAccuracy(), 0.0d);
+                assertEquals(expected.getF1Measure(), measure.getF1Measure(), 0.0d);
+                assertEquals(expected.getPerformanceValueAverage("auc"),
+                        measure.getPerformanceValueAverage("auc"), 0.0d);
+                assertEquals(expected.getPerformanceValueAverage("prec"),
+                        measure.getPerformanceValueAverage("prec"), 0.0d);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testBatchScaledFoldMatchesPerInstance() {
+        final LibSvmProblem nodeProblem = (LibSvmProblem) generateRandomProblem(30, 4);
+        for (final LibSvmProblem problem : new LibSvmProblem[]{nodeProblem, nodeProblem.compressRows()}) {
+            // test fold of every third instance, as evaluateFold scales and predicts it:
+            final IntSet testSet = new IntArraySet();
+            final IntSet trainingSet = new IntArraySet();
+            for (int i = 0; i < problem.getSize(); i++) {
+                if (i % 3 == 0) {
+                    testSet.add(i);
+                } else {
+                    trainingSet.add(i);
+                }
+            }
+            final LibSvmClassifier classifier = new LibSvmClassifier();
+            final FeatureScaler scaler = new MinMaxScalingRowProcessor();
+            final ClassificationModel model = classifier.train(problem.filter(trainingSet).scaleTraining(scaler));
+            final ClassificationProblem scaledTestSet = problem.scaleFeatures(scaler, testSet, false);
+            assertEquals(testSet.size(), scaledTestSet.getSize());
+            final int[] testPositions = new int[testSet.size()];
+            for (int index = 0; index < testPositions.length; index++) {
+                testPositions[index] = index;
+            }
+            final double[] decisions = new double[testPositions.length];
+            final double[][] probs = new double[testPositions.length][2];
+            classifier.predictBatch(model, scaledTestSet, testPositions, decisions, probs);
+
+            // previously, each test instance was scaled and predicted on its own:
+            int index = 0;
+            for (int testInstanceIndex = 0; testInstanceIndex < problem.getSize(); testInstanceIndex += 3) {
+                final ClassificationProblem scaledInstance = problem.scaleTestSet(scaler, testInstanceIndex);
+                final double[] instanceProbs = new double[2];
+                final double decision = classifier.predict(model, scaledInstance, 0, instanceProbs);
+                assertEquals(problem.getLabel(testInstanceIndex), scaledTestSet.getLabel(index), 0.0d);
+                assertEquals(decision, decisions[index], 0.0d);
+                assertEquals(instanceProbs[0], probs[index][0], 0.0d);
+                index++;
+            }
+        }
+    }
+
+    @Test
+    public void testOneClassFoldIsNotStored() {
+        final double[] decisions = {0.2, -0.4, 0.9, 0.1};
+        final double[] labels = {1, 1, 1, 1};
+        final ObjectSet<CharSequence> measureNames = new ObjectArraySet<CharSequence>();
+        measureNames.add("auc");
+        measureNames.add("prec");
+        measureNames.add("sens");
+        final EvaluationMeasure measure = new EvaluationMeasure();
+        CrossValidation.evaluate(decisions, labels, measureNames, measure, "", false);
+        assertEquals(0, measure.getMeasureNames().length);
+
+        final double[] mixedLabels = {1, -1, 1, -1};
+        CrossValidation.evaluate(decisions, mixedLabels, measureNames, measure, "", false);
+        assertEquals(3, measure.getMeasureNames().length);
+        assertEquals(1.0, measure.getPerformanceValueAverage("auc"), 0.0d);
+    }
+
+    private ClassificationProblem generateRandomProblem(final int numInstances, final int numFeatures) {
+        final LibSvmProblem problem = new LibSvmProblem();
+        final double[] features = new double[numFeatures];
+        for (int i = 0; i < numInstances; i++) {
+            final int instanceIndex = problem.addInstance(numFeatures);
+            final double label = i % 2 == 0 ? 1 : -1;
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                features[featureIndex] = randomEngine.nextDouble() + (featureIndex == 0 ? label : 0);
+            }
+            problem.setInstance(instanceIndex, label, features);
+        }
+        return problem;
+    }
+
     private double[] generateRandomLabels(final int dimension, final double ratioOfPositives) {
         final double[] labels = new double[dimension];
         for (int i = 0; i < dimension; i++) {
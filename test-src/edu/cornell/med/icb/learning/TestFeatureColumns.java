@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import edu.cornell.med.icb.learning.libsvm.LibSvmProblem;
+import static edu.cornell.med.icb.learning.ProblemFixtures.assertArrayEquals;
+import static edu.cornell.med.icb.learning.ProblemFixtures.createProblem;
+import static org.junit.Assert.assertEquals;
+import it.unimi.dsi.fastutil.ints.IntArraySet;
+import org.junit.Test;
+
+/**
+ * Tests the feature columns which scalers observe.
+ *
+ * @author Fabien Campagne
+ */
+public class TestFeatureColumns {
+    @Test
+    public void testFeatureColumns() {
+        final double[][] features = {{1, 2, 0}, {0, 1, 3}, {2, 0, 1}, {4, 1, 1}};
+        final LibSvmProblem problem = createProblem(features);
+        // scalers observe the columns of the instances of views, in the order of the view:
+        final ClassificationProblem view = problem.exclude(0).filter(new IntArraySet(new int[]{0, 2}));
+        final double[][] observed = new double[3][];
+        view.scaleTraining(new FeatureScaler() {
+            @Override
+            public void observeFeatureForTraining(final int numFeatures, final double[] featureValues,
+                                                  final int featureIndex) {
+                observed[featureIndex] = featureValues.clone();
+            }
+        });
+        assertArrayEquals(new double[]{0, 4}, observed[0]);
+        assertArrayEquals(new double[]{1, 1}, observed[1]);
+        assertArrayEquals(new double[]{3, 1}, observed[2]);
+
+        // columns are created again when features change:
+        problem.setFeature(3, 2, 5);
+        view.scaleTraining(new FeatureScaler() {
+            @Override
+            public void observeFeatureForTraining(final int numFeatures, final double[] featureValues,
+                                                  final int featureIndex) {
+                observed[featureIndex] = featureValues.clone();
+            }
+        });
+        assertArrayEquals(new double[]{3, 5}, observed[2]);
+
+        // rows are read back from the columns without searching them:
+        final FeatureColumns.Builder builder = new FeatureColumns.Builder();
+        for (final double[] instance : features) {
+            for (int featureIndex = 0; featureIndex < instance.length; featureIndex++) {
+                builder.add(featureIndex, instance[featureIndex]);
+            }
+            builder.endInstance();
+        }
+        final FeatureColumns columns = builder.build();
+        final double[] row = new double[3];
+        for (int instanceIndex = 0; instanceIndex < features.length; instanceIndex++) {
+            columns.getRow(instanceIndex, row);
+            assertArrayEquals(features[instanceIndex], row);
+        }
+    }
+
+    @Test
+    public void testRowColumns() {
+        final double[][] features = {{1, 2, 0}, {0, 1, 3}, {2, 0, 1}, {4, 1, 1}};
+        final FeatureColumns.Builder builder = new FeatureColumns.Builder();
+        for (final double[] instance : features) {
+            for (int featureIndex = 0; featureIndex < instance.length; featureIndex++) {
+                builder.add(featureIndex, instance[featureIndex]);
+            }
+            builder.endInstance();
+        }
+        final FeatureColumns stored = builder.build();
+        // columns of dense rows read the rows, zeros included:
+        final FeatureColumns rows = FeatureColumns.fromRows(features.length, 3, new FeatureColumns.Values() {
+            public double getValue(final int instanceIndex, final int featureIndex) {
+                return features[instanceIndex][featureIndex];
+            }
+        });
+        assertEquals(3 * features.length, rows.getColumnStart(3));
+        assertEquals(2, rows.getInstanceIndex(rows.getColumnStart(1) + 2));
+        assertEquals(0, rows.getStoredValue(rows.getColumnStart(1) + 2), 0);
+        final int[] positions = rows.getPositions(new int[]{3, 1});
+        final double[] column = new double[2];
+        final double[] storedColumn = new double[2];
+        final double[] row = new double[3];
+        for (int featureIndex = 0; featureIndex < 4; featureIndex++) {
+            rows.getColumn(featureIndex, positions, column);
+            stored.getColumn(featureIndex, positions, storedColumn);
+            assertArrayEquals(storedColumn, column);
+        }
+        for (int instanceIndex = 0; instanceIndex < features.length; instanceIndex++) {
+            rows.getRow(instanceIndex, row);
+            assertArrayEquals(features[instanceIndex], row);
+            assertEquals(stored.getValue(instanceIndex, 2), rows.getValue(instanceIndex, 2), 0);
+        }
+
+        // scalers observe dense problems as they observe the same instances stored in nodes:
+        final LibSvmProblem problem = createProblem(features);
+        final LibSvmProblem denseProblem = problem.toDenseRows();
+        final FeatureScaler[] scalers = {new MinMaxScalingRowProcessor(), new ZScoreScalingRowProcessor(),
+                new PercentileScalingRowProcessor()};
+        final FeatureScaler[] denseScalers = {new MinMaxScalingRowProcessor(), new ZScoreScalingRowProcessor(),
+                new PercentileScalingRowProcessor()};
+        for (int s = 0; s < scalers.length; s++) {
+            problem.exclude(1).scaleTraining(scalers[s]);
+            denseProblem.exclude(1).scaleTraining(denseScalers[s]);
+            for (int featureIndex = 0; featureIndex < 3; featureIndex++) {
+                assertEquals(scalers[s].scaleFeatureValue(2.5, featureIndex),
+                        denseScalers[s].scaleFeatureValue(2.5, featureIndex), 1E-12);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import edu.cornell.med.icb.learning.libsvm.LibSvmProblem;
+import static edu.cornell.med.icb.learning.ProblemFixtures.createProblem;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests how the min-max, percentile and z-score scalers observe training sets and scale values.
+ *
+ * @author Fabien Campagne
+ */
+public class TestFeatureScaler {
+    @Test
+    public void testObserveFeaturesInBlocks() {
+        final int numFeatures = 2500;
+        final double[][] features = new double[5][numFeatures];
+        for (int i = 0; i < features.length; i++) {
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                // one zero per feature, which is not stored in the columns:
+                features[i][featureIndex] = (i + featureIndex) % 5 == 0 ? 0 : i * featureIndex % 7 - 3;
+            }
+        }
+        final LibSvmProblem problem = createProblem(features);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final MinMaxScalingRowProcessor scaler = new MinMaxScalingRowProcessor();
+            scaler.setExecutorService(executor);
+            final LibSvmProblem scaled = (LibSvmProblem) problem.scaleTraining(scaler);
+
+            // the statistics must match those observed one feature column at a time:
+            final MinMaxScalingRowProcessor expectedScaler = new MinMaxScalingRowProcessor();
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                final double[] column = new double[features.length];
+                for (int i = 0; i < features.length; i++) {
+                    column[i] = features[i][featureIndex];
+                }
+                expectedScaler.observeFeatureForTraining(numFeatures, column, featureIndex);
+            }
+            for (int i = 0; i < features.length; i++) {
+                final double[] scaledFeatures = scaled.getFeatures(i);
+                for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                    assertEquals(expectedScaler.scaleFeatureValue(features[i][featureIndex], featureIndex),
+                            scaledFeatures[featureIndex], 1E-12);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLeaveOut() {
+        final double[][] features = {{1, 2, 0}, {0, 1, 3}, {2, 0, 1}, {4, 1, 1}, {3, -2, 1}, {0, 5, 2}};
+        final LibSvmProblem problem = createProblem(features);
+        // downdated statistics must match statistics observed without the left-out instance:
+        for (final FeatureScaler observedScaler : new FeatureScaler[]{
+                new MinMaxScalingRowProcessor(), new PercentileScalingRowProcessor(),
+                new ZScoreScalingRowProcessor()}) {
+            assertTrue(problem.observeForLeaveOneOut(observedScaler));
+            for (int leftOut = 0; leftOut < features.length; leftOut++) {
+                final FeatureScaler scaler = observedScaler.leaveOut(leftOut);
+                final FeatureScaler expectedScaler;
+                try {
+                    expectedScaler = observedScaler.getClass().newInstance();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+                problem.exclude(leftOut).scaleTraining(expectedScaler);
+                for (int featureIndex = 0; featureIndex < 3; featureIndex++) {
+                    for (final double value : new double[]{-1, 0, 2.5}) {
+                        assertEquals(expectedScaler.scaleFeatureValue(value, featureIndex),
+                                scaler.scaleFeatureValue(value, featureIndex), 1E-12);
+                    }
+                }
+            }
+        }
+        // z-scores of the values of feature 0 without instance 3, computed from the values 1, 0, 2, 3, 0:
+        final FeatureScaler zScoreScaler = new ZScoreScalingRowProcessor();
+        assertTrue(problem.observeForLeaveOneOut(zScoreScaler));
+        final FeatureScaler leftOutScaler = zScoreScaler.leaveOut(3);
+        final double mean = 6.0 / 5;
+        final double squaredDeviation = 0.04 + 1.44 + 0.64 + 3.24 + 1.44;
+        // sample standard deviation:
+        assertEquals((2.5 - mean) / Math.sqrt(squaredDeviation / 4),
+                leftOutScaler.scaleFeatureValue(2.5, 0), 1E-12);
+        // a single remaining value has no deviation, and values scale to their sign around it:
+        final FeatureScaler pairScaler = new ZScoreScalingRowProcessor();
+        assertTrue(createProblem(new double[][]{{1}, {2}}).observeForLeaveOneOut(pairScaler));
+        final FeatureScaler singleValueScaler = pairScaler.leaveOut(0);
+        assertEquals(1, singleValueScaler.scaleFeatureValue(3, 0), 0);
+        assertEquals(0, singleValueScaler.scaleFeatureValue(2, 0), 0);
+
+        final PercentileScalingRowProcessor sketchScaler = new PercentileScalingRowProcessor();
+        sketchScaler.setSketchSize(200);
+        assertFalse(sketchScaler.supportsLeaveOut());
+        assertFalse(problem.observeForLeaveOneOut(sketchScaler));
+        assertTrue(new PercentileScalingRowProcessor().supportsLeaveOut());
+        assertFalse(new FeatureScaler().supportsLeaveOut());
+        assertFalse(problem.observeForLeaveOneOut(new FeatureScaler()));
+    }
+
+    @Test
+    public void testMergedSummaries() {
+        final double[][] features = {{1, 2, 0}, {0, 1, 3}, {2, 0, 1}, {4, 1, 1}, {3, -2, 1}, {0, 5, 2}};
+        final LibSvmProblem problem = createProblem(features);
+        // summaries of folds {0, 1}, {2, 3} and {4, 5}, merged for the training set without the last fold:
+        assertTrue(new MinMaxScalingRowProcessor().supportsSummaries());
+        assertFalse(new PercentileScalingRowProcessor().supportsSummaries());
+        assertNull(problem.summarizeFeatures(new FeatureScaler(), InstanceSet.range(0, 2)));
+        final MinMaxScalingRowProcessor summarizer = new MinMaxScalingRowProcessor();
+        final FeatureSummary summary = problem.summarizeFeatures(summarizer, InstanceSet.range(0, 2));
+        summary.merge(problem.summarizeFeatures(summarizer, InstanceSet.range(2, 4)));
+        assertEquals(4, summary.getCount());
+        assertEquals(7.0 / 4, summary.getMean(0), 1E-12);
+        assertEquals(0, summary.getMinimum(1), 0);
+        assertEquals(2, summary.getMaximum(1), 0);
+        // squared deviations of 0, 3, 1, 1 from their mean 1.25:
+        assertEquals(4.75, summary.getSquaredDeviation(2), 1E-12);
+
+        final MinMaxScalingRowProcessor scaler = new MinMaxScalingRowProcessor();
+        scaler.observeSummary(summary);
+        final MinMaxScalingRowProcessor expectedScaler = new MinMaxScalingRowProcessor();
+        problem.filter(InstanceSet.range(0, 4)).scaleTraining(expectedScaler);
+        for (int featureIndex = 0; featureIndex < 3; featureIndex++) {
+            for (final double value : new double[]{-1, 0, 2.5}) {
+                assertEquals(expectedScaler.scaleFeatureValue(value, featureIndex),
+                        scaler.scaleFeatureValue(value, featureIndex), 1E-12);
+            }
+        }
+        assertNull(problem.summarizeFeatures(new PercentileScalingRowProcessor(), InstanceSet.range(0, 2)));
+    }
+
+    @Test
+    public void testScaleRow() {
+        // features: varying, constant, always zero, varying with a large center
+        final double[][] features = {{1, 100, 0, 1000}, {-3, 100, 0, 1001}, {2, 100, 0, 1003}, {7, 100, 0, 1002}};
+        final LibSvmProblem problem = createProblem(features);
+        final MinMaxScalingRowProcessor minMax = new MinMaxScalingRowProcessor();
+        minMax.observeSummary(problem.summarizeFeatures(minMax, InstanceSet.range(0, 4)));
+        final ZScoreScalingRowProcessor zScore = new ZScoreScalingRowProcessor();
+        zScore.observeSummary(problem.summarizeFeatures(zScore, InstanceSet.range(0, 4)));
+        final PercentileScalingRowProcessor percentile = new PercentileScalingRowProcessor();
+        problem.scaleTraining(percentile);
+
+        final double[] row = {0.5, 99.5, 3, 1001, Double.NaN, 100, 0, -2};
+        for (final FeatureScaler scaler : new FeatureScaler[]{minMax, zScore, percentile}) {
+            final double[] scaledRow = new double[row.length + 1];
+            scaler.scaleRow(row, 0, scaledRow, 1, 4);
+            scaler.scaleRow(row, 4, scaledRow, 5, 4);
+            for (int k = 0; k < row.length; k++) {
+                assertEquals(scaler.scaleFeatureValue(row[k], k % 4), scaledRow[k + 1], 0);
+            }
+            final double[] column = {100, 99, 101, Double.NaN};
+            final double[] scaledColumn = new double[column.length];
+            for (int featureIndex = 0; featureIndex < 4; featureIndex++) {
+                scaler.scaleColumn(featureIndex, column, scaledColumn, column.length);
+                for (int i = 0; i < column.length; i++) {
+                    assertEquals(scaler.scaleFeatureValue(column[i], featureIndex), scaledColumn[i], 0);
+                }
+            }
+        }
+    }
+}
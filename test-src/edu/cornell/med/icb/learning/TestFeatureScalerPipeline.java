@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import edu.cornell.med.icb.learning.libsvm.LibSvmProblem;
+import static edu.cornell.med.icb.learning.ProblemFixtures.createProblem;
+import edu.mssm.crover.tables.ArrayTable;
+import edu.mssm.crover.tables.ColumnTypeException;
+import edu.mssm.crover.tables.InvalidColumnException;
+import edu.mssm.crover.tables.TypeMismatchException;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import it.unimi.dsi.lang.MutableString;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests pipelines of feature scalers.
+ *
+ * @author Fabien Campagne
+ */
+public class TestFeatureScalerPipeline {
+    @Test
+    public void testPipeline() throws InvalidColumnException, ColumnTypeException, TypeMismatchException {
+        // features: varying, constant, varying
+        final double[][] features = {{1, 100, 0.5}, {-3, 100, 0}, {2, 100, 4}, {7, 100, 1}};
+        final LibSvmProblem problem = createProblem(features);
+        final ArrayTable table = new ArrayTable();
+        table.addColumn("label", String.class);
+        table.addColumn("probe1", double.class);
+        table.addColumn("probe2", double.class);
+        table.addColumn("probe3", double.class);
+        for (int i = 0; i < features.length; i++) {
+            table.parseAppend(0, i % 2 == 0 ? "positive" : "negative");
+            for (int featureIndex = 0; featureIndex < 3; featureIndex++) {
+                table.appendDoubleValue(featureIndex + 1, features[i][featureIndex]);
+            }
+        }
+        final MinMaxScalingRowProcessor minMax = new MinMaxScalingRowProcessor();
+        problem.scaleTraining(minMax);
+        final FeatureScalerPipeline pipeline =
+                new FeatureScalerPipeline(new MinMaxScalingRowProcessor(), new MultiplyScalingProcessor(3));
+        problem.scaleTraining(pipeline);
+
+        final double[] row = {0.5, 99.5, 3, Double.NaN, 100, -2};
+        final double[] scaledRow = new double[row.length];
+        pipeline.scaleRow(row, 0, scaledRow, 0, 3);
+        pipeline.scaleRow(row, 3, scaledRow, 3, 3);
+        for (int k = 0; k < row.length; k++) {
+            assertEquals(3 * minMax.scaleFeatureValue(row[k], k % 3), scaledRow[k], 1e-12);
+            assertEquals(pipeline.scaleFeatureValue(row[k], k % 3), scaledRow[k], 0);
+        }
+
+        // statistics of both stages persist through the maps of the pipeline:
+        final Object2DoubleMap<MutableString> meanMap = new Object2DoubleOpenHashMap<MutableString>();
+        final Object2DoubleMap<MutableString> rangeMap = new Object2DoubleOpenHashMap<MutableString>();
+        final int[] columnIndices = {1, 2, 3};
+        final FeatureScalerPipeline trainingPipeline =
+                new FeatureScalerPipeline(new MinMaxScalingRowProcessor(), new MultiplyScalingProcessor(3));
+        trainingPipeline.setTrainingMode(meanMap, rangeMap);
+        trainingPipeline.processTable(table, columnIndices);
+        assertEquals(3, meanMap.size());
+        assertEquals(1.375, meanMap.getDouble(new MutableString("0:probe3")), 1e-12);
+        final FeatureScalerPipeline testPipeline =
+                new FeatureScalerPipeline(new MinMaxScalingRowProcessor(), new MultiplyScalingProcessor(3));
+        testPipeline.setTestSetMode(meanMap, rangeMap);
+        testPipeline.processTable(table, columnIndices);
+        for (int featureIndex = 0; featureIndex < 3; featureIndex++) {
+            assertEquals(pipeline.scaleFeatureValue(row[featureIndex], featureIndex),
+                    testPipeline.scaleFeatureValue(row[featureIndex], featureIndex), 1e-12);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import static edu.cornell.med.icb.learning.ProblemFixtures.assertArrayEquals;
+import edu.mssm.crover.tables.ArrayTable;
+import edu.mssm.crover.tables.ColumnTypeException;
+import edu.mssm.crover.tables.InvalidColumnException;
+import edu.mssm.crover.tables.TypeMismatchException;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import it.unimi.dsi.lang.MutableString;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests the processing of tables and matrices by table scalers.
+ *
+ * @author Fabien Campagne
+ */
+public class TestFeatureTableScaler {
+    @Test
+    public void testProcessMatrixInParallel() {
+        // enough features for several blocks of features:
+        final int numFeatures = 3000;
+        final double[][] matrix = new double[numFeatures][];
+        final double[][] parallelMatrix = new double[numFeatures][];
+        for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+            matrix[featureIndex] = new double[]{featureIndex % 7, -featureIndex % 5, featureIndex % 3, 1.5};
+            parallelMatrix[featureIndex] = matrix[featureIndex].clone();
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final PercentileScalingRowProcessor scaler = new PercentileScalingRowProcessor();
+            scaler.setTrainingMode(new Object2DoubleOpenHashMap<MutableString>(),
+                    new Object2DoubleOpenHashMap<MutableString>());
+            scaler.processMatrix(matrix, numFeatures);
+            final PercentileScalingRowProcessor parallelScaler = new PercentileScalingRowProcessor();
+            parallelScaler.setExecutorService(executor);
+            parallelScaler.setTrainingMode(new Object2DoubleOpenHashMap<MutableString>(),
+                    new Object2DoubleOpenHashMap<MutableString>());
+            parallelScaler.processMatrix(parallelMatrix, numFeatures);
+
+            final ScalingParameters parameters = scaler.getTrainingParameters();
+            final ScalingParameters parallelParameters = parallelScaler.getTrainingParameters();
+            assertEquals(numFeatures, parallelParameters.size());
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                assertArrayEquals(matrix[featureIndex], parallelMatrix[featureIndex]);
+                assertEquals(parameters.getFeatureId(featureIndex), parallelParameters.getFeatureId(featureIndex));
+                assertEquals(parameters.getCenter(featureIndex), parallelParameters.getCenter(featureIndex), 0);
+                assertEquals(parameters.getSpread(featureIndex), parallelParameters.getSpread(featureIndex), 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testProcessTableInParallel()
+            throws InvalidColumnException, ColumnTypeException, TypeMismatchException {
+        // enough columns for several blocks of features:
+        final int numFeatures = 3000;
+        final ArrayTable table = new ArrayTable();
+        final ArrayTable parallelTable = new ArrayTable();
+        final int[] columnIndices = new int[numFeatures];
+        for (final ArrayTable t : new ArrayTable[]{table, parallelTable}) {
+            t.addColumn("label", String.class);
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                columnIndices[featureIndex] = t.addColumn("probe" + featureIndex, double.class);
+            }
+            for (int i = 0; i < 4; i++) {
+                t.parseAppend(0, i % 2 == 0 ? "positive" : "negative");
+                for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                    t.appendDoubleValue(featureIndex + 1, (featureIndex * (i + 1)) % 7 - i);
+                }
+            }
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final ZScoreScalingRowProcessor scaler = new ZScoreScalingRowProcessor();
+            scaler.setTrainingMode(new Object2DoubleOpenHashMap<MutableString>(),
+                    new Object2DoubleOpenHashMap<MutableString>());
+            scaler.processTable(table, columnIndices);
+            final ZScoreScalingRowProcessor parallelScaler = new ZScoreScalingRowProcessor();
+            parallelScaler.setExecutorService(executor);
+            parallelScaler.setTrainingMode(new Object2DoubleOpenHashMap<MutableString>(),
+                    new Object2DoubleOpenHashMap<MutableString>());
+            parallelScaler.processTable(parallelTable, columnIndices);
+
+            final ScalingParameters parameters = scaler.getTrainingParameters();
+            final ScalingParameters parallelParameters = parallelScaler.getTrainingParameters();
+            assertEquals(numFeatures, parallelParameters.size());
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                assertArrayEquals(table.getDoubles("probe" + featureIndex),
+                        parallelTable.getDoubles("probe" + featureIndex));
+                assertEquals(parameters.getFeatureId(featureIndex), parallelParameters.getFeatureId(featureIndex));
+                assertEquals(parameters.getCenter(featureIndex), parallelParameters.getCenter(featureIndex), 0);
+                assertEquals(parameters.getSpread(featureIndex), parallelParameters.getSpread(featureIndex), 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
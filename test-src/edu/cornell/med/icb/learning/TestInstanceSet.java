@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+/**
+ * Tests the instance sets used for fold membership.
+ *
+ * @author Fabien Campagne
+ */
+public class TestInstanceSet {
+    @Test
+    public void testSortedUnique() {
+        final InstanceSet set = new InstanceSet(new int[]{7, 2, 7, 0, 4});
+        assertEquals(4, set.size());
+        assertArrayEquals(new int[]{0, 2, 4, 7}, set.toIntArray());
+        assertTrue(set.contains(7));
+        assertFalse(set.contains(3));
+        assertFalse(set.contains(-1));
+        assertFalse(set.contains(100));
+        assertEquals(2, set.countBelow(4));
+        assertEquals(3, set.countBelow(5));
+        assertEquals(4, set.countBelow(100));
+
+        final IntIterator iterator = set.iterator();
+        int previous = -1;
+        while (iterator.hasNext()) {
+            final int index = iterator.nextInt();
+            assertTrue(index > previous);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void testBitSetAndRange() {
+        final BitSet members = new BitSet();
+        members.set(3);
+        members.set(5);
+        final InstanceSet set = new InstanceSet(members);
+        members.set(4);
+        assertEquals(2, set.size());
+        assertFalse(set.contains(4));
+        assertEquals(5, set.get(1));
+
+        assertArrayEquals(new int[]{2, 3, 4}, InstanceSet.range(2, 5).toIntArray());
+        assertArrayEquals(new int[]{9}, InstanceSet.singleton(9).toIntArray());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the Java implementation of the ROCR performance measures.
+ *
+ * @author Fabien Campagne
+ */
+public class TestPerformanceCurve {
+    private static final double[] DECISIONS = {0.9, -0.5, 0.8, 0.8, -0.2, 0.1};
+    private static final double[] LABELS = {1, -1, 1, -1, 1, -1};
+
+    @Test
+    public void testCurve() {
+        final PerformanceCurve curve = new PerformanceCurve(DECISIONS, LABELS);
+        assertTrue(curve.isDefined());
+        assertArrayEquals(new double[]{Double.POSITIVE_INFINITY, 0.9, 0.8, 0.1, -0.2, -0.5},
+                curve.getCutoffs(), 0);
+        assertArrayEquals(new double[]{0, 0, 1 / 3d, 2 / 3d, 2 / 3d, 1},
+                curve.getFalsePositiveRates(), 1E-10);
+        assertArrayEquals(new double[]{0, 1 / 3d, 2 / 3d, 2 / 3d, 1, 1},
+                curve.getTruePositiveRates(), 1E-10);
+    }
+
+    @Test
+    public void testValueAtZero() {
+        final PerformanceCurve curve = new PerformanceCurve(DECISIONS, LABELS);
+        // cutoff 0.1: tp=2, fp=2, tn=1, fn=1
+        assertEquals(0.1, curve.getCutoffs()[curve.getCutoffIndex(0)], 0);
+        assertEquals(0.5, curve.getValue("acc"), 1E-10);
+        assertEquals(0.5, curve.getValue("prec"), 1E-10);
+        assertEquals(2 / 3d, curve.getValue("rec"), 1E-10);
+        assertEquals(1 / 3d, curve.getValue("spec"), 1E-10);
+        assertEquals(4 / 7d, curve.getValue("f"), 1E-10);
+        assertEquals(0, curve.getValue("mat"), 1E-10);
+        assertEquals(new RocAucCalculator().areaUnderRocCurve(DECISIONS, LABELS), curve.getValue("auc"), 1E-10);
+    }
+
+    @Test
+    public void testUndefined() {
+        final PerformanceCurve curve = new PerformanceCurve(new double[]{0.1, 0.2}, new double[]{1, 1});
+        assertFalse(curve.isDefined());
+        assertTrue(Double.isNaN(curve.getValue("acc")));
+        assertFalse(PerformanceCurve.isSupported("mxe"));
+    }
+}
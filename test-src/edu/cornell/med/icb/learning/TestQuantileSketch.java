@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests the quantile sketches used to estimate percentiles of features.
+ *
+ * @author Fabien Campagne
+ */
+public class TestQuantileSketch {
+    @Test
+    public void testShortStreamIsExact() {
+        final QuantileSketch sketch = new QuantileSketch(200);
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        for (int value = 5; value >= 1; value--) {
+            sketch.update(value);
+        }
+        assertEquals(5, sketch.getCount());
+        assertEquals(1, sketch.getQuantile(0), 0);
+        assertEquals(2, sketch.getQuantile(0.2), 0);
+        assertEquals(3, sketch.getQuantile(0.5), 0);
+        assertEquals(5, sketch.getQuantile(1), 0);
+    }
+
+    @Test
+    public void testRankError() {
+        final Random random = new Random(37);
+        final int n = 200000;
+        final double[] values = new double[n];
+        final QuantileSketch sketch = new QuantileSketch(200);
+        final QuantileSketch even = new QuantileSketch(200);
+        final QuantileSketch odd = new QuantileSketch(200);
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextGaussian();
+            sketch.update(values[i]);
+            (i % 2 == 0 ? even : odd).update(values[i]);
+        }
+        even.merge(odd);
+        assertEquals(n, even.getCount());
+        Arrays.sort(values);
+        for (final double quantile : new double[]{0.2, 0.5, 0.8}) {
+            for (final QuantileSketch estimator : new QuantileSketch[]{sketch, even}) {
+                final int rank = Arrays.binarySearch(values, estimator.getQuantile(quantile));
+                assertEquals(quantile, rank / (double) n, 0.02);
+            }
+        }
+    }
+
+    @Test
+    public void testRepeatedValues() {
+        final QuantileSketch sketch = new QuantileSketch(200);
+        sketch.update(-1);
+        sketch.update(0, 1000000);
+        sketch.update(4);
+        assertEquals(1000002, sketch.getCount());
+        assertEquals(-1, sketch.getQuantile(0), 0);
+        assertEquals(0, sketch.getQuantile(0.5), 0);
+        assertEquals(4, sketch.getQuantile(1), 0);
+    }
+}
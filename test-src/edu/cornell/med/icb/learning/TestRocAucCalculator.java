@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Tests the Java calculation of the area under the ROC curve.
+ *
+ * @author Fabien Campagne
+ */
+public class TestRocAucCalculator {
+
+    @Test
+    public void testTies() {
+        final RocAucCalculator calculator = new RocAucCalculator();
+        // the tie at 0.8 between a positive and a negative counts as half a pair:
+        final double[] decisions = {0.9, 0.8, 0.8, 0.3};
+        final double[] labels = {1, 0, 1, 0};
+        assertEquals(0.875, calculator.areaUnderRocCurve(decisions, labels), 1E-10);
+
+        // all decisions tied gives the diagonal:
+        assertEquals(0.5, calculator.areaUnderRocCurve(new double[]{1, 1, 1, 1}, labels), 1E-10);
+    }
+
+    @Test
+    public void testOneClass() {
+        final RocAucCalculator calculator = new RocAucCalculator();
+        assertTrue(Double.isNaN(calculator.areaUnderRocCurve(new double[]{0.1, 0.2}, new double[]{1, 1})));
+        assertTrue(Double.isNaN(calculator.areaUnderRocCurve(new double[]{0.1, 0.2}, new double[]{-1, 0})));
+    }
+
+    /**
+     * Compare to counting concordant pairs, on decisions with many ties.
+     */
+    @Test
+    public void testMatchesPairCounting() {
+        final RocAucCalculator calculator = new RocAucCalculator();
+        final Random random = new Random(1024);
+        for (int size = 2; size < 500; size += 37) {
+            final double[] decisions = new double[size];
+            final double[] labels = new double[size];
+            for (int i = 0; i < size; i++) {
+                decisions[i] = random.nextInt(20) / 10.0 - 1;
+                labels[i] = i % 2 == 0 ? 1 : -1;
+            }
+            double concordant = 0;
+            double pairs = 0;
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    if (labels[i] > 0 && labels[j] <= 0) {
+                        pairs++;
+                        if (decisions[i] > decisions[j]) {
+                            concordant++;
+                        } else if (decisions[i] == decisions[j]) {
+                            concordant += 0.5;
+                        }
+                    }
+                }
+            }
+            assertEquals(concordant / pairs, calculator.areaUnderRocCurve(decisions, labels), 1E-10);
+        }
+    }
+}
@@ -1,15 +1,24 @@
 package edu.cornell.med.icb.learning;
 
+import edu.cornell.med.icb.learning.libsvm.LibSvmClassifier;
+import edu.cornell.med.icb.learning.libsvm.LibSvmParameters;
 import edu.cornell.med.icb.learning.libsvm.LibSvmProblem;
+import static edu.cornell.med.icb.learning.ProblemFixtures.createProblem;
 import edu.cornell.med.icb.learning.weka.WekaProblem;
 import it.unimi.dsi.fastutil.ints.IntArraySet;
 import it.unimi.dsi.fastutil.ints.IntSet;
+import libsvm.svm_parameter;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 import org.apache.commons.lang.ArrayUtils;
 import static org.junit.Assert.assertNotSame;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Fabien Campagne
@@ -267,4 +276,137 @@ public class TestSVMLibAdapter {
 
 
     }
+
+    @Test
+    public void testPrecomputedKernel() {
+        final double[][] features = {{1, 2, 0}, {0, 1, 3}, {2, 0, 1}};
+        final LibSvmProblem problem = createProblem(features);
+        final LibSvmClassifier classifier = new LibSvmClassifier();
+        final LibSvmProblem kernelProblem = classifier.precomputeKernel(problem);
+        assertTrue(kernelProblem.isPrecomputedKernel());
+        assertEquals(3, kernelProblem.getSize());
+        // serial number, then linear kernel values with each instance:
+        assertArrayEquals(new double[]{1, 5, 2, 2}, kernelProblem.getFeatures(0));
+        assertArrayEquals(new double[]{2, 2, 10, 3}, kernelProblem.getFeatures(1));
+        assertArrayEquals(new double[]{3, 2, 3, 5}, kernelProblem.getFeatures(2));
+
+        // subsets keep the serial numbers, and scalers which do not scale leave kernel values unchanged:
+        final ClassificationProblem trainingSet = kernelProblem.exclude(0);
+        final ClassificationProblem scaled = trainingSet.scaleTraining(new NoScalingFeatureScaler(1));
+        assertArrayEquals(new double[]{2, 2, 10, 3}, ((LibSvmProblem) scaled).getFeatures(0));
+        assertEquals(-1, scaled.getLabel(0), 0);
+        assertArrayEquals(new double[]{2, 2, 10, 3},
+                ((LibSvmProblem) trainingSet.scaleTraining(new FeatureScaler())).getFeatures(0));
+        try {
+            trainingSet.scaleTraining(new MultiplyScalingProcessor(3.6));
+            fail("kernel values must not be scaled");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // kernel values are not summarized for cross-validation:
+        assertNull(kernelProblem.summarizeFeatures(new MinMaxScalingRowProcessor(), InstanceSet.range(0, 2)));
+
+        // training and prediction on views of the kernel must match training on the features:
+        final LibSvmProblem featureProblem = new LibSvmProblem();
+        for (int i = 0; i < 40; i++) {
+            final int instanceIndex = featureProblem.addInstance(2);
+            final double label = i % 2 == 0 ? 1 : -1;
+            featureProblem.setInstance(instanceIndex, label, new double[]{label * 0.5 + (i % 7) * 0.2, i % 5});
+        }
+        final LibSvmProblem featureKernelProblem = classifier.precomputeKernel(featureProblem);
+        // train without the first ten instances, then predict them:
+        final IntSet trainingInstances = new IntArraySet();
+        for (int i = 10; i < featureProblem.getSize(); i++) {
+            trainingInstances.add(i);
+        }
+        final ClassificationModel model = classifier.train(featureProblem.filter(trainingInstances));
+        final ClassificationModel kernelModel = classifier.train(featureKernelProblem.filter(trainingInstances));
+        final double[] probabilities = new double[2];
+        final double[] kernelProbabilities = new double[2];
+        for (int i = 0; i < 10; i++) {
+            assertEquals(classifier.predict(model, featureProblem, i, probabilities),
+                    classifier.predict(kernelModel, featureKernelProblem, i, kernelProbabilities), 1e-9);
+            assertEquals(classifier.predict(model, featureProblem, i),
+                    classifier.predict(kernelModel, featureKernelProblem, i));
+        }
+    }
+
+    @Test
+    public void testCopy() {
+        final LibSvmClassifier classifier = new LibSvmClassifier();
+        classifier.getParameters().setParameter("C", 2);
+        final Classifier copy = classifier.copy();
+        assertEquals(2, ((LibSvmParameters) copy.getParameters()).getNative().C, 0);
+        // parameters of copies are independent, so that copies may be changed concurrently:
+        copy.getParameters().setParameter("C", 10);
+        copy.getParameters().setParameter("kernel=RBF", 0);
+        assertEquals(2, ((LibSvmParameters) classifier.getParameters()).getNative().C, 0);
+        assertEquals(svm_parameter.LINEAR, ((LibSvmParameters) classifier.getParameters()).getNative().kernel_type);
+        assertEquals(classifier.getParameters().getExposedParameterNames(),
+                copy.getParameters().getExposedParameterNames());
+    }
+
+    @Test
+    public void testViewsOfViews() {
+        final LibSvmProblem problem = new LibSvmProblem();
+        for (int i = 0; i < 5; i++) {
+            final int instanceIndex = problem.addInstance(2);
+            problem.setInstance(instanceIndex, i % 2 == 0 ? 1 : -1, new double[]{i, 10 * i});
+        }
+        final IntSet keep = new IntArraySet();
+        keep.add(1);
+        keep.add(3);
+        keep.add(4);
+        // instances 1, 3, 4, then 1 and 4:
+        final ClassificationProblem view = problem.filter(keep).exclude(1);
+        assertEquals(2, view.getSize());
+        assertArrayEquals(new double[]{1, 10}, ((LibSvmProblem) view).getFeatures(0));
+        assertArrayEquals(new double[]{4, 40}, ((LibSvmProblem) view).getFeatures(1));
+        assertEquals(-1, view.getLabel(0), 0);
+        assertEquals(1, view.getLabel(1), 0);
+        assertEquals(2, ((LibSvmProblem) view).getNative().l);
+
+        try {
+            view.setLabel(0, 1);
+            fail("views must be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPredictBatch() {
+        final LibSvmProblem problem = new LibSvmProblem();
+        for (int i = 0; i < 200; i++) {
+            final int instanceIndex = problem.addInstance(2);
+            final double label = i % 2 == 0 ? 1 : -1;
+            problem.setInstance(instanceIndex, label, new double[]{label + (i % 7) * 0.1, i % 5});
+        }
+        final LibSvmClassifier classifier = new LibSvmClassifier();
+        final ClassificationModel model = classifier.train(problem);
+        final int[] instanceIndices = new int[problem.getSize()];
+        for (int i = 0; i < instanceIndices.length; i++) {
+            // predict in reverse order, so that batch positions differ from instance indices:
+            instanceIndices[i] = instanceIndices.length - 1 - i;
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            classifier.setExecutorService(executorService);
+            final double[] decisions = new double[instanceIndices.length];
+            final double[][] probabilities = new double[instanceIndices.length][2];
+            classifier.predictBatch(model, problem, instanceIndices, decisions, probabilities);
+            final double[] labelsOnly = new double[instanceIndices.length];
+            classifier.predictBatch(model, problem, instanceIndices, labelsOnly, null);
+
+            final double[] expectedProbabilities = new double[2];
+            for (int i = 0; i < instanceIndices.length; i++) {
+                final double expected = classifier.predict(model, problem, instanceIndices[i], expectedProbabilities);
+                assertEquals(expected, decisions[i]);
+                assertArrayEquals(expectedProbabilities, probabilities[i]);
+                assertEquals(classifier.predict(model, problem, instanceIndices[i]), labelsOnly[i]);
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import static edu.cornell.med.icb.learning.ProblemFixtures.assertArrayEquals;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import it.unimi.dsi.lang.MutableString;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests the scaling parameters saved from table scalers.
+ *
+ * @author Fabien Campagne
+ */
+public class TestScalingParameters {
+    @Test
+    public void testScalingParameters() throws IOException {
+        // values of three features over four samples:
+        final double[][] training = {{1, -3, 2, 7}, {100, 100, 100, 100}, {0.5, 0, 4, 1}};
+        final MinMaxScalingRowProcessor trainingScaler = new MinMaxScalingRowProcessor();
+        final Object2DoubleMap<MutableString> meanMap = new Object2DoubleOpenHashMap<MutableString>();
+        final Object2DoubleMap<MutableString> rangeMap = new Object2DoubleOpenHashMap<MutableString>();
+        trainingScaler.setTrainingMode(meanMap, rangeMap);
+        trainingScaler.processMatrix(training, 3);
+        final ScalingParameters parameters = trainingScaler.getTrainingParameters();
+        assertEquals(3, parameters.size());
+        assertEquals(2, parameters.getIndex(new MutableString("2")));
+        assertEquals(-1, parameters.getIndex(new MutableString("probe")));
+
+        final File file = File.createTempFile("scaling", ".bin");
+        file.deleteOnExit();
+        parameters.save(file);
+        final ScalingParameters loaded = ScalingParameters.load(file);
+        assertEquals(3, loaded.size());
+
+        final MinMaxScalingRowProcessor mapScaler = new MinMaxScalingRowProcessor();
+        mapScaler.setTestSetMode(meanMap, rangeMap);
+        final MinMaxScalingRowProcessor parameterScaler = new MinMaxScalingRowProcessor();
+        parameterScaler.setTestSetMode(loaded);
+        for (int sample = 0; sample < 2; sample++) {
+            final double[][] expected = {{sample - 1}, {99.5}, {sample * 3}};
+            final double[][] scaled = {{sample - 1}, {99.5}, {sample * 3}};
+            mapScaler.processMatrix(expected, 3);
+            parameterScaler.processMatrix(scaled, 3);
+            for (int featureIndex = 0; featureIndex < 3; featureIndex++) {
+                assertArrayEquals(expected[featureIndex], scaled[featureIndex]);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning;
+
+import cern.jet.random.engine.MersenneTwister;
+import edu.cornell.med.icb.util.RandomAdapter;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests stratified fold assignments.
+ *
+ * @author Fabien Campagne
+ */
+public class TestStratifiedFoldAssigner {
+    /**
+     * 5 positives in 400 instances, 5 folds: each fold must hold one positive.
+     */
+    @Test
+    public void testImbalanced() {
+        final double[] labels = new double[400];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = i % 80 == 0 ? 1 : -1;
+        }
+        final int k = 5;
+        final StratifiedFoldAssigner assigner = new StratifiedFoldAssigner(new RandomAdapter(new MersenneTwister(37)));
+        final int[][] folds = assigner.assignFolds(labels, k, 3);
+        for (final int[] foldIndices : folds) {
+            final int[] positives = new int[k];
+            final int[] sizes = new int[k];
+            for (int i = 0; i < labels.length; i++) {
+                sizes[foldIndices[i]]++;
+                if (labels[i] == 1) {
+                    positives[foldIndices[i]]++;
+                }
+            }
+            for (int f = 0; f < k; f++) {
+                assertEquals(1, positives[f]);
+                assertEquals(80, sizes[f]);
+            }
+        }
+
+        // same random sequence, same folds:
+        final StratifiedFoldAssigner other = new StratifiedFoldAssigner(new RandomAdapter(new MersenneTwister(37)));
+        assertArrayEquals(folds[0], other.assignFolds(labels, k));
+    }
+
+    @Test
+    public void testTooFewInstancesOfALabel() {
+        final double[] labels = {1, 1, -1, -1, -1, -1};
+        final StratifiedFoldAssigner assigner = new StratifiedFoldAssigner(new RandomAdapter(new MersenneTwister(37)));
+        try {
+            assigner.assignFolds(labels, 3);
+            fail("two positives cannot be split into three folds");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().indexOf("fewer than the 3 folds") != -1);
+        }
+    }
+}
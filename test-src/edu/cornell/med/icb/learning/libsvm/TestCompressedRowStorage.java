@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.ClassificationProblem;
+import edu.cornell.med.icb.learning.FeatureScaler;
+import edu.cornell.med.icb.learning.MinMaxScalingRowProcessor;
+import static edu.cornell.med.icb.learning.ProblemFixtures.assertArrayEquals;
+import static edu.cornell.med.icb.learning.ProblemFixtures.createProblem;
+import it.unimi.dsi.fastutil.ints.IntArraySet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import org.junit.Test;
+
+/**
+ * Tests problems backed by a compressed row storage.
+ *
+ * @author Fabien Campagne
+ */
+public class TestCompressedRowStorage {
+    @Test
+    public void testCompressedRows() {
+        final double[][] features = {{0, 2, 0, 1}, {3, 0, 0, 0}, {0, 0, 5, 2}, {1, 1, 0, 0}};
+        final LibSvmProblem problem = createProblem(features);
+        final LibSvmProblem compressed = problem.compressRows();
+        assertEquals(4, compressed.getSize());
+        assertEquals(7, ((CompressedRowStorage) compressed.getStorage()).getNumValues());
+        for (int i = 0; i < features.length; i++) {
+            assertArrayEquals(features[i], compressed.getFeatures(i));
+            assertEquals(problem.getLabel(i), compressed.getLabel(i), 0);
+        }
+        // zero values are not stored as nodes:
+        assertEquals(2, compressed.getNative().x[0].length);
+        // views of problems backed by a storage do not keep the nodes they create:
+        final LibSvmProblem compressedView = (LibSvmProblem) compressed.exclude(1);
+        assertEquals(3, compressedView.getNative().l);
+        assertNotSame("nodes must not be kept", compressedView.getNative(), compressedView.getNative());
+
+        // scaling may turn zeros into stored values, and must match scaling of svm_node problems:
+        final IntSet trainingSet = new IntArraySet();
+        trainingSet.add(0);
+        trainingSet.add(2);
+        trainingSet.add(3);
+        final FeatureScaler scaler = new MinMaxScalingRowProcessor();
+        final FeatureScaler compressedScaler = new MinMaxScalingRowProcessor();
+        final ClassificationProblem scaled = problem.filter(trainingSet).scaleTraining(scaler);
+        final ClassificationProblem compressedScaled = compressed.filter(trainingSet).scaleTraining(compressedScaler);
+        for (int i = 0; i < scaled.getSize(); i++) {
+            assertArrayEquals(((LibSvmProblem) scaled).getFeatures(i),
+                    ((LibSvmProblem) compressedScaled).getFeatures(i));
+            assertEquals(scaled.getLabel(i), compressedScaled.getLabel(i), 0);
+        }
+        assertArrayEquals(((LibSvmProblem) problem.scaleTestSet(scaler, 1)).getFeatures(0),
+                ((LibSvmProblem) compressed.scaleTestSet(compressedScaler, 1)).getFeatures(0));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.ClassificationProblem;
+import static edu.cornell.med.icb.learning.ProblemFixtures.assertArrayEquals;
+import static edu.cornell.med.icb.learning.ProblemFixtures.createProblem;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests problems backed by a dense row storage.
+ *
+ * @author Fabien Campagne
+ */
+public class TestDenseRowStorage {
+    @Test
+    public void testDenseRows() {
+        final double[][] features = {{1, 2, 0}, {0, 1, 3}, {2, 0, 1}, {4, 1, 1}};
+        final LibSvmProblem problem = createProblem(features);
+        final LibSvmProblem dense = problem.toDenseRows();
+        assertTrue(dense.getStorage() instanceof DenseRowStorage);
+        for (int i = 0; i < features.length; i++) {
+            assertArrayEquals(features[i], dense.getFeatures(i));
+            assertEquals(problem.getLabel(i), dense.getLabel(i), 0);
+        }
+        assertArrayEquals(features[2], dense.compressRows().toDenseRows().getFeatures(2));
+
+        // kernels over dense rows must match kernels over nodes, also for views:
+        final LibSvmClassifier classifier = new LibSvmClassifier();
+        final ClassificationProblem view = problem.exclude(1);
+        final ClassificationProblem denseView = dense.exclude(1);
+        final LibSvmProblem kernelProblem = classifier.precomputeKernel(view);
+        final LibSvmProblem denseKernelProblem = classifier.precomputeKernel(denseView);
+        for (int i = 0; i < view.getSize(); i++) {
+            assertArrayEquals(kernelProblem.getFeatures(i), denseKernelProblem.getFeatures(i));
+            assertEquals(view.getLabel(i), denseKernelProblem.getLabel(i), 0);
+        }
+        // serial number, then linear kernel values of instance 2 with instances 0, 2 and 3:
+        assertArrayEquals(new double[]{2, 2, 5, 9}, denseKernelProblem.getFeatures(1));
+    }
+}
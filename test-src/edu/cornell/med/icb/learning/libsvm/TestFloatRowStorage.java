@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.ClassificationProblem;
+import edu.cornell.med.icb.learning.MultiplyScalingProcessor;
+import static edu.cornell.med.icb.learning.ProblemFixtures.assertArrayEquals;
+import static edu.cornell.med.icb.learning.ProblemFixtures.createProblem;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests problems backed by a single precision row storage, and their scaled views.
+ *
+ * @author Fabien Campagne
+ */
+public class TestFloatRowStorage {
+    @Test
+    public void testFloatRows() {
+        final double[][] features = {{1, 2, 0}, {0, 1, 3}, {2, 0, 1}, {4, 1, 1}};
+        final LibSvmProblem problem = createProblem(features);
+        final LibSvmProblem floatRows = problem.toFloatRows();
+        assertTrue(floatRows.getStorage() instanceof FloatRowStorage);
+        for (int i = 0; i < features.length; i++) {
+            assertArrayEquals(features[i], floatRows.getFeatures(i));
+        }
+
+        // scaled problems are views which scale the values of the storage when they are read:
+        final ClassificationProblem scaled = floatRows.scaleTraining(new MultiplyScalingProcessor(2));
+        assertTrue(((LibSvmProblem) scaled).getStorage() instanceof ScaledStorage);
+        assertArrayEquals(new double[]{8, 2, 2}, ((LibSvmProblem) scaled).getFeatures(3));
+
+        final LibSvmClassifier classifier = new LibSvmClassifier();
+        final LibSvmProblem kernelProblem = classifier.precomputeKernel(problem.exclude(1));
+        final LibSvmProblem floatKernelProblem = classifier.precomputeKernel(floatRows.exclude(1));
+        for (int i = 0; i < kernelProblem.getSize(); i++) {
+            assertArrayEquals(kernelProblem.getFeatures(i), floatKernelProblem.getFeatures(i));
+        }
+        final LibSvmProblem scaledKernelProblem = classifier.precomputeKernel(
+                problem.scaleTraining(new MultiplyScalingProcessor(2)));
+        final LibSvmProblem scaledViewKernelProblem = classifier.precomputeKernel(scaled);
+        for (int i = 0; i < scaledKernelProblem.getSize(); i++) {
+            assertArrayEquals(scaledKernelProblem.getFeatures(i), scaledViewKernelProblem.getFeatures(i));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.ClassificationProblem;
+import edu.cornell.med.icb.learning.MultiplyScalingProcessor;
+import static edu.cornell.med.icb.learning.ProblemFixtures.assertArrayEquals;
+import static edu.cornell.med.icb.learning.ProblemFixtures.createProblem;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests problems mapped from files written by BinaryProblemWriter.
+ *
+ * @author Fabien Campagne
+ */
+public class TestMappedStorage {
+    @Test
+    public void testMappedProblem() throws IOException {
+        final double[][] features = {{1.5, 2, 0}, {0, -1, 3}, {2, 0, 1.25}};
+        final LibSvmProblem problem = createProblem(features);
+        final String[] featureIds = {"probe1", "probe2", "probe3"};
+        final BinaryProblemWriter writer = new BinaryProblemWriter();
+        for (final boolean columnMajor : new boolean[]{false, true}) {
+            for (final boolean singlePrecision : new boolean[]{false, true}) {
+                final File file = File.createTempFile("problem", ".bin");
+                file.deleteOnExit();
+                writer.setColumnMajor(columnMajor);
+                writer.setSinglePrecision(singlePrecision);
+                writer.write(problem, featureIds, file);
+
+                final LibSvmProblem mapped = MappedStorage.openProblem(file);
+                assertEquals(3, mapped.getSize());
+                assertEquals("probe2", ((MappedStorage) mapped.getStorage()).getFeatureId(1));
+                for (int i = 0; i < features.length; i++) {
+                    assertArrayEquals(features[i], mapped.getFeatures(i));
+                    assertEquals(problem.getLabel(i), mapped.getLabel(i), 0);
+                }
+                final ClassificationProblem scaled = mapped.exclude(0).scaleTraining(new MultiplyScalingProcessor(2));
+                assertArrayEquals(new double[]{4, 0, 2.5}, ((LibSvmProblem) scaled).getFeatures(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import edu.cornell.med.icb.learning.MinMaxScalingRowProcessor;
+import static edu.cornell.med.icb.learning.ProblemFixtures.createProblem;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests scaled views of dense storages.
+ *
+ * @author Fabien Campagne
+ */
+public class TestScaledStorage {
+    @Test
+    public void testPrecomputedKernel() {
+        // enough instances for several blocks of the kernel matrix:
+        final Random random = new Random(17);
+        final double[][] features = new double[300][5];
+        for (final double[] instance : features) {
+            for (int featureIndex = 0; featureIndex < instance.length; featureIndex++) {
+                instance[featureIndex] = random.nextInt(4) == 0 ? 0 : random.nextGaussian() * 10;
+            }
+        }
+        final LibSvmProblem scaled = (LibSvmProblem) createProblem(features).toDenseRows()
+                .scaleTraining(new MinMaxScalingRowProcessor());
+        final ScaledStorage storage = (ScaledStorage) scaled.getStorage();
+
+        // instances scaled once per block give the linear kernel values of the view:
+        final LibSvmClassifier classifier = new LibSvmClassifier();
+        assertKernel(storage, classifier.precomputeKernel(scaled));
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            classifier.setExecutorService(executor);
+            assertKernel(storage, classifier.precomputeKernel(scaled));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertKernel(final ScaledStorage storage, final LibSvmProblem kernelProblem) {
+        assertTrue(kernelProblem.isPrecomputedKernel());
+        for (int i = 0; i < storage.getSize(); i++) {
+            final double[] kernelRow = kernelProblem.getFeatures(i);
+            for (int j = 0; j < storage.getSize(); j++) {
+                assertEquals(storage.dot(i, j), kernelRow[j + 1], 0);
+            }
+        }
+    }
+}
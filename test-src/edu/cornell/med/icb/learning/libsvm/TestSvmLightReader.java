@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.learning.libsvm;
+
+import static edu.cornell.med.icb.learning.ProblemFixtures.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests the reader of files in the svmlight/libsvm format.
+ *
+ * @author Fabien Campagne
+ */
+public class TestSvmLightReader {
+    @Test
+    public void testRead() throws IOException {
+        final File file = File.createTempFile("problem", ".svmlight");
+        file.deleteOnExit();
+        final PrintWriter writer = new PrintWriter(file, "US-ASCII");
+        writer.print("# comment line\n");
+        writer.print("1 1:0.5 3:-2 4:1e-3 # trailing comment\n");
+        writer.print("\n");
+        writer.print("-1 qid:7 2:3.25\t4:0 5:0.12345678901234567890\r\n");
+        writer.print("+1 5:1.5E+2");
+        writer.close();
+
+        final SvmLightReader reader = new SvmLightReader();
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            for (final ExecutorService executor : new ExecutorService[]{null, executorService}) {
+                reader.setExecutorService(executor);
+                final LibSvmProblem problem = reader.read(file);
+                assertEquals(3, problem.getSize());
+                assertEquals(1, problem.getLabel(0), 0);
+                assertEquals(-1, problem.getLabel(1), 0);
+                assertEquals(1, problem.getLabel(2), 0);
+                // feature indices are kept as written in the file:
+                assertArrayEquals(new double[]{0, 0.5, 0, -2, 1e-3, 0}, problem.getFeatures(0));
+                assertArrayEquals(new double[]{0, 0, 3.25, 0, 0, Double.parseDouble("0.12345678901234567890")},
+                        problem.getFeatures(1));
+                assertArrayEquals(new double[]{0, 0, 0, 0, 0, 150}, problem.getFeatures(2));
+                assertEquals(6, ((CompressedRowStorage) problem.getStorage()).getNumValues());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Chunks of a few bytes split lines, comments and blank lines across chunks, and most
+     * chunks hold no instance at all.
+     */
+    @Test
+    public void testSmallChunks() throws IOException {
+        final File file = File.createTempFile("problem", ".svmlight");
+        file.deleteOnExit();
+        final PrintWriter writer = new PrintWriter(file, "US-ASCII");
+        for (int i = 0; i < 40; i++) {
+            if (i % 9 == 0) {
+                writer.print("# comment " + i + "\n\n");
+            }
+            writer.print(i % 2 == 0 ? "1" : "-1");
+            for (int featureIndex = 1 + i % 3; featureIndex < 12; featureIndex += 1 + i % 4) {
+                writer.print(" " + featureIndex + ":" + (i * featureIndex % 11 - 5) * 0.25);
+            }
+            writer.print(i % 5 == 0 ? "\r\n" : "\n");
+        }
+        writer.print("1 2:7");
+        writer.close();
+
+        final SvmLightReader reader = new SvmLightReader();
+        final LibSvmProblem expected = reader.read(file);
+        assertEquals(41, expected.getSize());
+        final ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            for (final ExecutorService executor : new ExecutorService[]{null, executorService}) {
+                reader.setExecutorService(executor);
+                for (final long chunkSize : new long[]{1, 3, 7, 64}) {
+                    reader.setChunkSize(chunkSize);
+                    final LibSvmProblem problem = reader.read(file);
+                    assertEquals(expected.getSize(), problem.getSize());
+                    assertEquals(((CompressedRowStorage) expected.getStorage()).getNumValues(),
+                            ((CompressedRowStorage) problem.getStorage()).getNumValues());
+                    for (int instanceIndex = 0; instanceIndex < expected.getSize(); instanceIndex++) {
+                        assertEquals(expected.getLabel(instanceIndex), problem.getLabel(instanceIndex), 0);
+                        assertArrayEquals(expected.getFeatures(instanceIndex), problem.getFeatures(instanceIndex));
+                    }
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}